@@ -0,0 +1,169 @@
+package com.appxy.blurview;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+
+/**
+ * Frame time budgets of the controllers over BlurTarget hierarchies of different depth, measured on a device.
+ * The same frames run in ControllerFrameBudgetTest on the JVM, where only the goldens and allocations are checked,
+ * CPU time there depends on the machine running the tests.
+ * <p>
+ * Frames are measured in wall time, RecursiveGaussianBlur filters on worker threads whose CPU time
+ * the calling thread's clock doesn't include.
+ * <p>
+ * Run with {@code ./gradlew :library:connectedAndroidTest}, the results are logged with the "BlurBenchmark" tag.
+ */
+class ControllerFrameBenchmark {
+    private static final String TAG = "BlurBenchmark";
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2160;
+    private static final int WARM_UP = 10;
+    private static final int FRAMES = 30;
+    private static final float BLUR_RADIUS = 16f;
+
+    private static final long PRE_DRAW_BUDGET_MS = 16;
+    private static final long RECT_BUDGET_MS = 16;
+    private static final long OVERLAY_BUDGET_MS = 24;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context context = instrumentation.getTargetContext();
+    private final Bitmap screen = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    private final Canvas screenCanvas = new Canvas(screen);
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 12})
+    void preDrawController(int depth) {
+        instrumentation.runOnMainSync(() -> {
+            FrameLayout root = new FrameLayout(context);
+            BlurTarget target = buildTarget(root, depth);
+            View blurView = new View(context);
+            root.addView(blurView, new ViewGroup.LayoutParams(WIDTH, HEIGHT / 2));
+            layout(root);
+            PreDrawBlurController controller = new PreDrawBlurController(blurView, target, 0,
+                    new RecursiveGaussianBlur(), BlurController.DEFAULT_SCALE_FACTOR, BLUR_RADIUS, false);
+
+            long median = medianNanos(() -> {
+                controller.updateBlur();
+                controller.draw(screenCanvas);
+            });
+            controller.destroy();
+
+            assertBudget("pre-draw", depth, median, PRE_DRAW_BUDGET_MS);
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 12})
+    void rectController(int depth) {
+        instrumentation.runOnMainSync(() -> {
+            FrameLayout root = new FrameLayout(context);
+            BlurTarget target = buildTarget(root, depth);
+            BlurOverlayView overlay = new BlurOverlayView(context);
+            root.addView(overlay, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+            layout(root);
+            BlurRectController controller = new BlurRectController(overlay, target, 0,
+                    new RecursiveGaussianBlur(), BlurController.DEFAULT_SCALE_FACTOR, BLUR_RADIUS, false);
+            BlurOverlayView.BlurRect rect = overlay.new BlurRect(new RectF(100, 150, 750, 1050));
+            rect.setRotation(15);
+
+            long median = medianNanos(() -> {
+                controller.setBlurRect(rect);
+                controller.draw(screenCanvas);
+            });
+            controller.destroy();
+
+            assertBudget("rect", depth, median, RECT_BUDGET_MS);
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 12})
+    void overlayView(int depth) {
+        instrumentation.runOnMainSync(() -> {
+            FrameLayout root = new FrameLayout(context);
+            BlurTarget target = buildTarget(root, depth);
+            BlurOverlayView overlay = new BlurOverlayView(context);
+            root.addView(overlay, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+            layout(root);
+            overlay.setupWith(target, new RecursiveGaussianBlur(), BlurController.DEFAULT_SCALE_FACTOR,
+                    BLUR_RADIUS, false);
+            overlay.addBlurRect(new RectF(100, 150, 750, 1050), 0, null);
+            overlay.addBlurRect(new RectF(250, 1250, 900, 1750), 30, null);
+
+            long median = medianNanos(() -> overlay.draw(screenCanvas));
+
+            assertBudget("overlay", depth, median, OVERLAY_BUDGET_MS);
+        });
+    }
+
+    /**
+     * Nested layouts inside of the BlurTarget, each one adds a colored stripe
+     */
+    private BlurTarget buildTarget(FrameLayout root, int depth) {
+        BlurTarget target = new BlurTarget(context);
+        target.setBackgroundColor(Color.WHITE);
+        root.addView(target, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+        ViewGroup container = target;
+        int stripeHeight = HEIGHT / (depth + 1);
+        for (int level = 0; level < depth; level++) {
+            View stripe = new View(context);
+            stripe.setBackgroundColor(Color.HSVToColor(new float[]{level * 360f / depth, 0.8f, 0.9f}));
+            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(WIDTH / 2 + level * 50, stripeHeight);
+            params.topMargin = level * stripeHeight / 2;
+            params.leftMargin = level * 25;
+            container.addView(stripe, params);
+
+            FrameLayout next = new FrameLayout(context);
+            FrameLayout.LayoutParams nextParams = new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+            nextParams.topMargin = stripeHeight / 2;
+            container.addView(next, nextParams);
+            container = next;
+        }
+        return target;
+    }
+
+    private static void layout(View root) {
+        root.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private long medianNanos(Runnable frame) {
+        long[] times = new long[FRAMES];
+        for (int i = -WARM_UP; i < FRAMES; i++) {
+            screen.eraseColor(Color.TRANSPARENT);
+            long start = SystemClock.elapsedRealtimeNanos();
+            frame.run();
+            if (i >= 0) {
+                times[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times[FRAMES / 2];
+    }
+
+    private static void assertBudget(String name, int depth, long medianNanos, long budgetMs) {
+        Log.i(TAG, String.format("%s, depth %2d: %.2f ms", name, depth, medianNanos / 1_000_000f));
+        assertTrue(medianNanos <= budgetMs * 1_000_000L,
+                name + " at depth " + depth + " over " + budgetMs + " ms: " + medianNanos + " ns");
+    }
+}
@@ -0,0 +1,89 @@
+package com.appxy.blurview;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+
+/**
+ * Compares RecursiveGaussianBlur with the RenderScript intrinsic on a device, at full resolution.
+ * RenderScript is capped at radius 25, larger radii are reported at 25.
+ * The recursive filter's cost doesn't depend on the radius, which is checked single-threaded.
+ * <p>
+ * Run with {@code ./gradlew :library:connectedAndroidTest}, the results are logged with the "BlurBenchmark" tag.
+ */
+@SuppressWarnings("deprecation")
+class RecursiveGaussianBlurBenchmark {
+    private static final String TAG = "BlurBenchmark";
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    private static final int WARM_UP = 3;
+    private static final int RUNS = 15;
+
+    private static RecursiveGaussianBlur recursiveBlur;
+    private static RenderScriptBlur renderScriptBlur;
+    private static Bitmap bitmap;
+
+    @BeforeAll
+    static void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        recursiveBlur = new RecursiveGaussianBlur();
+        renderScriptBlur = new RenderScriptBlur(context);
+        bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        recursiveBlur.destroy();
+        renderScriptBlur.destroy();
+    }
+
+    @ParameterizedTest
+    @ValueSource(floats = {4f, 8f, 16f, 25f, 50f, 75f, 100f})
+    void blur(float radius) {
+        long recursive = medianMillis(recursiveBlur, radius);
+        long renderScript = medianMillis(renderScriptBlur, Math.min(radius, RenderScriptBlur.MAX_BLUR_RADIUS));
+        Log.i(TAG, String.format("radius %5.1f: recursive %3d ms, RenderScript %3d ms%s",
+                radius, recursive, renderScript, radius > RenderScriptBlur.MAX_BLUR_RADIUS ? " (capped)" : ""));
+    }
+
+    @Test
+    void recursiveCostDoesNotGrowWithRadius() {
+        RecursiveGaussianBlur singleThreaded = new RecursiveGaussianBlur(1);
+        try {
+            long small = medianMillis(singleThreaded, 4f);
+            long large = medianMillis(singleThreaded, 100f);
+            Log.i(TAG, String.format("single-threaded: radius 4 %3d ms, radius 100 %3d ms", small, large));
+            assertTrue(large < Math.max(small, 1) * 2, "radius 4: " + small + " ms, radius 100: " + large + " ms");
+        } finally {
+            singleThreaded.destroy();
+        }
+    }
+
+    private static long medianMillis(BlurAlgorithm algorithm, float radius) {
+        long[] times = new long[RUNS];
+        for (int i = -WARM_UP; i < RUNS; i++) {
+            bitmap.eraseColor(i % 2 == 0 ? Color.RED : Color.BLUE);
+            long start = SystemClock.elapsedRealtime();
+            algorithm.blur(bitmap, radius);
+            if (i >= 0) {
+                times[i] = SystemClock.elapsedRealtime() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+}
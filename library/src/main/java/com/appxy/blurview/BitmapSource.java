@@ -0,0 +1,244 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直接从位图读取要模糊的内容，代替截取视图树，见 {@link BlurViewFacade#setSourceBitmap(Bitmap, Matrix)}。
+ * <p>
+ * 缩小时先用逐级减半的金字塔（每级是上一级 2x2 的平均），再从最接近的一级双线性采样，
+ * 缩小很多倍时也不会出现锯齿和闪烁。各级在第一次用到时创建，位图内容变化（generationId 变化）后重建。
+ * <p>
+ * 只能在主线程访问。
+ */
+final class BitmapSource {
+    private final Bitmap source;
+    private int generationId;
+    /**
+     * 视图坐标到位图坐标
+     */
+    private final Matrix viewToBitmap = new Matrix();
+    private final Matrix bitmapToView = new Matrix();
+    /**
+     * 第 0 级是原图（硬件位图复制成软件位图），第 k 级宽高缩小 2^k 倍
+     */
+    private final List<Bitmap> levels = new ArrayList<>();
+    /**
+     * 内容、矩阵或者模糊参数变化时更新，控制器据此判断是否需要重新模糊。
+     * 所有实例共用一个计数，换了源位图后新旧版本不会相同
+     */
+    private static int versionCounter;
+    private int version = ++versionCounter;
+    /**
+     * 只在换了源位图或者位图内容变化时更新，矩阵和模糊参数变化不影响，见 {@link BlurPageCache}
+     */
+    private int contentVersion = version;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix canvasMatrix = new Matrix();
+    private final float[] values = new float[9];
+
+    BitmapSource(@NonNull Bitmap source, @Nullable Matrix viewToBitmap) {
+        this.source = source;
+        generationId = source.getGenerationId();
+        setMatrix(viewToBitmap);
+    }
+
+    boolean isOf(@NonNull Bitmap bitmap) {
+        return bitmap == source;
+    }
+
+    /**
+     * 矩阵变化（比如页面滚动、缩放）只需要重新模糊，金字塔保持不变
+     *
+     * @param viewToBitmap null 表示单位矩阵
+     */
+    void setMatrix(@Nullable Matrix viewToBitmap) {
+        if (viewToBitmap == null ? this.viewToBitmap.isIdentity() : this.viewToBitmap.equals(viewToBitmap)) {
+            return;
+        }
+        if (viewToBitmap == null) {
+            this.viewToBitmap.reset();
+        } else {
+            this.viewToBitmap.set(viewToBitmap);
+        }
+        if (!this.viewToBitmap.invert(bitmapToView)) {
+            throw new IllegalArgumentException("viewToBitmap must be invertible");
+        }
+        version = ++versionCounter;
+    }
+
+    /**
+     * @return 当前版本，位图内容变化后先丢弃旧的金字塔并增加版本
+     */
+    int getVersion() {
+        if (source.getGenerationId() != generationId) {
+            generationId = source.getGenerationId();
+            levels.clear();
+            version = ++versionCounter;
+            contentVersion = version;
+        }
+        return version;
+    }
+
+    /**
+     * @return 位图内容的版本
+     */
+    int getContentVersion() {
+        getVersion();
+        return contentVersion;
+    }
+
+    int getWidth() {
+        return source.getWidth();
+    }
+
+    int getHeight() {
+        return source.getHeight();
+    }
+
+    /**
+     * 位图坐标到视图坐标，调用方不能修改
+     */
+    @NonNull
+    Matrix getBitmapToView() {
+        return bitmapToView;
+    }
+
+    /**
+     * @return 每个视图像素平均对应多少位图像素
+     */
+    float getScale() {
+        viewToBitmap.getValues(values);
+        return (float) Math.sqrt(Math.abs(values[Matrix.MSCALE_X] * values[Matrix.MSCALE_Y]
+                - values[Matrix.MSKEW_X] * values[Matrix.MSKEW_Y]));
+    }
+
+    /**
+     * @return 源位图，属于调用方，不能修改
+     */
+    @NonNull
+    Bitmap getBitmap() {
+        return source;
+    }
+
+    /**
+     * 把位图逐级减半后缩小出一张新位图，不使用也不修改实例的金字塔，可以在后台线程调用
+     *
+     * @param sourcePixelsPerPixel 结果的每个像素对应多少原图像素
+     */
+    @NonNull
+    static Bitmap downsample(@NonNull Bitmap source, float sourcePixelsPerPixel) {
+        int width = Math.max(1, (int) Math.ceil(source.getWidth() / sourcePixelsPerPixel));
+        int height = Math.max(1, (int) Math.ceil(source.getHeight() / sourcePixelsPerPixel));
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Canvas canvas = new Canvas();
+        boolean hardware = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && source.getConfig() == Bitmap.Config.HARDWARE;
+        Bitmap bitmap = hardware ? source.copy(Bitmap.Config.ARGB_8888, false) : source;
+        // 每次减半到不小于结果为止，减半时双线性采样就是 2x2 的平均
+        while (bitmap.getWidth() >= width * 2 && bitmap.getHeight() >= height * 2) {
+            Bitmap next = Bitmap.createBitmap((bitmap.getWidth() + 1) / 2, (bitmap.getHeight() + 1) / 2,
+                    Bitmap.Config.ARGB_8888);
+            draw(canvas, bitmap, next, paint);
+            bitmap = next;
+        }
+        Bitmap out = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        draw(canvas, bitmap, out, paint);
+        canvas.setBitmap(null);
+        return out;
+    }
+
+    private static void draw(@NonNull Canvas canvas, @NonNull Bitmap from, @NonNull Bitmap to, @NonNull Paint paint) {
+        canvas.setBitmap(to);
+        canvas.save();
+        canvas.scale((float) to.getWidth() / from.getWidth(), (float) to.getHeight() / from.getHeight());
+        canvas.drawBitmap(from, 0, 0, paint);
+        canvas.restore();
+    }
+
+    /**
+     * 模糊参数变了，下一帧需要重新模糊
+     */
+    void invalidate() {
+        version = ++versionCounter;
+    }
+
+    /**
+     * 画布当前是模糊视图的坐标系，清空裁剪区域后画上位图
+     */
+    void draw(@NonNull Canvas canvas) {
+        getVersion();
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.save();
+        canvas.concat(bitmapToView);
+        // 每个画布像素覆盖多少原图像素，决定用哪一级
+        canvas.getMatrix(canvasMatrix);
+        canvasMatrix.getValues(values);
+        double determinant = Math.abs(values[Matrix.MSCALE_X] * values[Matrix.MSCALE_Y]
+                - values[Matrix.MSKEW_X] * values[Matrix.MSKEW_Y]);
+        int level = 0;
+        if (determinant > 0) {
+            double sourcePixelsPerPixel = 1 / Math.sqrt(determinant);
+            level = Math.max(0, (int) Math.floor(Math.log(sourcePixelsPerPixel) / Math.log(2)));
+        }
+        Bitmap bitmap = level(level);
+        canvas.scale((float) source.getWidth() / bitmap.getWidth(), (float) source.getHeight() / bitmap.getHeight());
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        canvas.restore();
+    }
+
+    @NonNull
+    private Bitmap level(int level) {
+        if (levels.isEmpty()) {
+            // 硬件位图不能画到软件画布上
+            boolean hardware = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && source.getConfig() == Bitmap.Config.HARDWARE;
+            levels.add(hardware ? source.copy(Bitmap.Config.ARGB_8888, false) : source);
+        }
+        while (levels.size() <= level) {
+            Bitmap previous = levels.get(levels.size() - 1);
+            if (previous.getWidth() == 1 && previous.getHeight() == 1) {
+                return previous;
+            }
+            Bitmap next = Bitmap.createBitmap((previous.getWidth() + 1) / 2, (previous.getHeight() + 1) / 2,
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(next);
+            // 正好缩小一半时双线性采样就是 2x2 的平均
+            canvas.scale((float) next.getWidth() / previous.getWidth(), (float) next.getHeight() / previous.getHeight());
+            canvas.drawBitmap(previous, 0, 0, paint);
+            levels.add(next);
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * @return 金字塔占用的字节数，原图属于调用方，不计算在内
+     */
+    long getBytes() {
+        long bytes = 0;
+        for (int i = 0; i < levels.size(); i++) {
+            Bitmap level = levels.get(i);
+            if (level != source) {
+                bytes += BlurMemoryGovernor.bytesOf(level);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 丢弃金字塔，下次绘制时重新创建
+     */
+    void release() {
+        levels.clear();
+    }
+}
@@ -18,6 +18,13 @@ public interface BlurAlgorithm {
      */
     void destroy();
 
+    /**
+     * Frees resources the algorithm can recreate on the next {@link #blur(Bitmap, float)} call.
+     * Called while the host is stopped, unlike {@link #destroy()} the algorithm stays usable.
+     */
+    default void release() {
+    }
+
     /**
      * @return true if this algorithm returns the same instance of bitmap as it accepted
      * false if it creates a new instance.
@@ -39,6 +46,23 @@ public interface BlurAlgorithm {
 
     void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap);
 
+    /**
+     * Larger radii are reached by downscaling the bitmap further, see {@link BlurPlanner}
+     *
+     * @return the largest blur radius this algorithm supports, in bitmap pixels
+     */
+    default float getMaxBlurRadius() {
+        return Float.MAX_VALUE;
+    }
 
-
+    /**
+     * The downscaled bitmap width is padded up to a multiple of this value.
+     * Padding only pays off when the algorithm hands the bitmap memory to an API that
+     * would otherwise copy it, like a shared RenderScript Allocation.
+     *
+     * @return the required width alignment in pixels, {@link SizeScaler#NO_ALIGNMENT} for none
+     */
+    default int getStrideAlignment() {
+        return SizeScaler.ROUNDING_VALUE;
+    }
 }
@@ -0,0 +1,79 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * 进程内共享的模糊位图池。
+ * <p>
+ * 宿主 Activity/Fragment 进入 ON_STOP 时控制器把位图放进池里，ON_START 后重新创建位图时先从池里取
+ * 相同尺寸和配置的位图，回到前台不用重新分配。其他界面的同尺寸模糊视图也可以复用。
+ * <p>
+ * 池的大小不超过 {@link BlurMemoryGovernor#getBudgetBytes()} 的四分之一，超出时丢弃最早放入的位图。
+ * 丢弃时不回收位图，已停止界面的显示列表里可能仍引用着它。
+ * <p>
+ * 只能在主线程访问。
+ */
+final class BlurBitmapPool {
+
+    private static final ArrayList<Bitmap> bitmaps = new ArrayList<>();
+    private static long bytes;
+
+    private BlurBitmapPool() {
+    }
+
+    /**
+     * @return 池里尺寸和配置都相同的位图，没有时新建一个。取出的位图内容是未定义的
+     */
+    @NonNull
+    static Bitmap obtain(int width, int height, @NonNull Bitmap.Config config) {
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = bitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                bitmaps.remove(i);
+                bytes -= BlurMemoryGovernor.bytesOf(bitmap);
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 把不再使用的位图放进池里，调用方之后不能再访问它
+     */
+    static void park(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        bytes += BlurMemoryGovernor.bytesOf(bitmap);
+        trimToSize(BlurMemoryGovernor.getBudgetBytes() / 4);
+    }
+
+    /**
+     * @return 池里位图的总字节数
+     */
+    static long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 丢弃池里所有的位图
+     */
+    static void clear() {
+        trimToSize(0);
+    }
+
+    private static void trimToSize(long maxBytes) {
+        while (bytes > maxBytes && !bitmaps.isEmpty()) {
+            bytes -= BlurMemoryGovernor.bytesOf(bitmaps.remove(0));
+        }
+        if (bitmaps.isEmpty()) {
+            bytes = 0;
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package com.appxy.blurview;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
 
 public interface BlurController extends BlurViewFacade {
 
     float DEFAULT_SCALE_FACTOR = 1f;
     float DEFAULT_BLUR_RADIUS = 16f;
+    long DEFAULT_IDLE_DELAY_MS = 150;
     String TAG = "BlurView";
 
     /**
@@ -23,6 +28,97 @@ public interface BlurController extends BlurViewFacade {
     default void setBlurRect(BlurOverlayView.BlurRect blurRect) {
     }
 
+    /**
+     * Called on every move event while a BlurRect is being dragged
+     *
+     * @param velocityX horizontal velocity of the drag in px/s
+     * @param velocityY vertical velocity of the drag in px/s
+     */
+    default void onRectDrag(@NonNull BlurOverlayView.BlurRect blurRect, float velocityX, float velocityY) {
+    }
+
+    /**
+     * Called when the drag of a BlurRect is finished or cancelled
+     */
+    default void onRectDragEnd() {
+    }
+
+    /**
+     * Blurs the content under {@code region} into {@code out}, used by the brush mode of {@link BlurOverlayView}.
+     * The content is captured from the same {@link BlurTarget} as the blurred rects.
+     *
+     * @param region region of the blur view, in its coordinates. {@code out} is filled with exactly this region
+     * @param out    ARGB_8888 bitmap that receives the blurred content
+     * @return false if the region couldn't be blurred
+     */
+    default boolean blurRegion(@NonNull RectF region, @NonNull Bitmap out) {
+        return false;
+    }
+
+    /**
+     * Pixels of {@link #blurRegion(RectF, Bitmap)} closer than this to the edge of the region
+     * blur in the missing content beyond the edge and should be discarded.
+     *
+     * @return the blur radius in blur view pixels
+     */
+    default float getRegionHalo() {
+        return 0f;
+    }
+
+    /**
+     * Scale factor (blur view pixels per bitmap pixel) the rects are blurred at, including the quality and
+     * memory multipliers. Coalesced rects are captured at this scale, so they look the same as the rects
+     * blurred one by one.
+     */
+    default float getRegionScale() {
+        return DEFAULT_SCALE_FACTOR;
+    }
+
+    /**
+     * Minimum time between two blurs of an unchanged region, set by the quality tier.
+     * 0 means the region is blurred on every frame.
+     */
+    default long getMinUpdateIntervalMs() {
+        return 0;
+    }
+
+    /**
+     * Whether overlapping rects of {@link BlurOverlayView} may be blurred together with
+     * {@link #blurRegion(RectF, Bitmap)}, giving the same result as blurring them one by one.
+     */
+    default boolean canCoalesceRects() {
+        return false;
+    }
+
+    /**
+     * Whether a drawn rect completely hides what is below it, so a rect fully covered by another one can be skipped
+     */
+    default boolean isRectOpaque() {
+        return false;
+    }
+
+    /**
+     * Must be called with true on every interaction event (resize, rotate, scroll),
+     * and with false once the interaction is over.
+     * See {@link BlurViewFacade#setProgressiveQuality(float, long)}
+     */
+    default void setInteracting(boolean interacting) {
+    }
+
+    /**
+     * Called when the lifecycle of the view's host reaches ON_STOP.
+     * Heavy resources are released or parked in {@link BlurBitmapPool}.
+     */
+    default void onStop() {
+    }
+
+    /**
+     * Called when the lifecycle of the view's host reaches ON_START.
+     * Resources released in {@link #onStop()} are restored on the next draw.
+     */
+    default void onStart() {
+    }
+
     /**
      * Frees allocated resources
      */
@@ -0,0 +1,500 @@
+package com.appxy.blurview;
+
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BlurOverlayView} 编辑操作的日志：每次添加、移动、调整大小、旋转、删除矩形时追加一条紧凑的二进制记录，
+ * 进程被杀后重放日志即可恢复所有矩形，宿主不需要在每次修改后序列化整个列表。
+ * <p>
+ * 主线程只把操作编码成几十字节的记录交给后台线程，写入内存映射的日志文件，不做任何磁盘 I/O。
+ * 映射区的内容由内核写回，进程被杀不会丢失；写到一半的记录长度或校验和对不上，重放时在那里停止。
+ * 记录条数远多于矩形数量时，后台线程重放日志，把当前状态写成临时文件后原子地替换日志。
+ * <p>
+ * 记录格式：长度（int，不含长度、类型和校验和）、类型（byte）、内容、类型和内容的 CRC32（int）。
+ * 长度为 0 表示日志结束，映射区末尾未写入的部分都是 0。
+ */
+final class BlurEditJournal {
+    private static final int MAGIC = 0x424C4A4E;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * 长度、类型、校验和
+     */
+    private static final int RECORD_OVERHEAD = 9;
+    private static final int MIN_CAPACITY = 64 * 1024;
+    /**
+     * 防止损坏的长度字段导致分配巨大的数组，签名数据之外的记录都很小。写入时超过这个长度的记录被丢弃，
+     * 否则重放停在这条记录，之后的编辑都会丢失
+     */
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    /**
+     * 添加记录除签名数据外的内容长度
+     */
+    private static final int ADD_SIZE = 32;
+    /**
+     * 压缩时签名数据写进添加记录，两种记录的签名数据都不能超过这个长度
+     */
+    static final int MAX_SIGN_DATA_SIZE = MAX_RECORD_SIZE - ADD_SIZE;
+    /**
+     * 记录条数超过这个值并且超过矩形数量的 COMPACT_RATIO 倍时压缩
+     */
+    static final int COMPACT_RECORDS = 512;
+    private static final int COMPACT_RATIO = 4;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    static final byte TYPE_ADD = 1;
+    static final byte TYPE_MOVE = 2;
+    static final byte TYPE_RESIZE = 3;
+    static final byte TYPE_ROTATE = 4;
+    static final byte TYPE_DELETE = 5;
+    /**
+     * 矩形移到最上层，绘制顺序和遮挡关系依赖列表顺序
+     */
+    static final byte TYPE_RAISE = 6;
+    static final byte TYPE_RADIUS = 7;
+    static final byte TYPE_SIGN_DATA = 8;
+
+    private static Executor sharedExecutor;
+
+    /**
+     * 重放得到的一个矩形
+     */
+    static final class Entry {
+        final int id;
+        final RectF rect = new RectF();
+        float rotation;
+        float blurRadius = Float.NaN;
+        @Nullable
+        String signData;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+
+    private final File file;
+    private final Executor executor;
+
+    // 以下字段只在后台线程访问
+    @Nullable
+    private RandomAccessFile raf;
+    @Nullable
+    private MappedByteBuffer buffer;
+    private int recordCount;
+    /**
+     * 日志中还存在的矩形，决定什么时候压缩
+     */
+    private final Set<Integer> liveIds = new HashSet<>();
+    /**
+     * 关闭或者写入失败后不再记录
+     */
+    private boolean stopped;
+
+    BlurEditJournal(@NonNull File file) {
+        this(file, sharedExecutor());
+    }
+
+    BlurEditJournal(@NonNull File file, @NonNull Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    // ------------------------主线程：编码记录------------
+
+    void add(int id, @NonNull RectF rect, float rotation, float blurRadius, @Nullable String signData) {
+        byte[] sign = signData != null ? signData.getBytes(StandardCharsets.UTF_8) : null;
+        if (isTooLarge(id, sign)) {
+            return;
+        }
+        ByteBuffer record = record(TYPE_ADD, ADD_SIZE + (sign != null ? sign.length : 0));
+        record.putInt(id).putFloat(rect.left).putFloat(rect.top).putFloat(rect.right).putFloat(rect.bottom)
+                .putFloat(rotation).putFloat(blurRadius);
+        putSignData(record, sign);
+        append(record);
+    }
+
+    void move(int id, float left, float top) {
+        append(record(TYPE_MOVE, 12).putInt(id).putFloat(left).putFloat(top));
+    }
+
+    void resize(int id, @NonNull RectF rect) {
+        append(record(TYPE_RESIZE, 20).putInt(id)
+                .putFloat(rect.left).putFloat(rect.top).putFloat(rect.right).putFloat(rect.bottom));
+    }
+
+    void rotate(int id, float rotation) {
+        append(record(TYPE_ROTATE, 8).putInt(id).putFloat(rotation));
+    }
+
+    void delete(int id) {
+        append(record(TYPE_DELETE, 4).putInt(id));
+    }
+
+    void raise(int id) {
+        append(record(TYPE_RAISE, 4).putInt(id));
+    }
+
+    void setBlurRadius(int id, float blurRadius) {
+        append(record(TYPE_RADIUS, 8).putInt(id).putFloat(blurRadius));
+    }
+
+    void setSignData(int id, @Nullable String signData) {
+        byte[] sign = signData != null ? signData.getBytes(StandardCharsets.UTF_8) : null;
+        if (isTooLarge(id, sign)) {
+            return;
+        }
+        ByteBuffer record = record(TYPE_SIGN_DATA, 8 + (sign != null ? sign.length : 0)).putInt(id);
+        putSignData(record, sign);
+        append(record);
+    }
+
+    /**
+     * 把映射区刷到磁盘并关闭文件，之后的操作不再记录
+     */
+    void close() {
+        executor.execute(() -> {
+            if (buffer != null) {
+                buffer.force();
+            }
+            closeFile();
+            stopped = true;
+        });
+    }
+
+    /**
+     * 签名数据太长的记录不写入，重放时这个矩形保持之前的状态
+     */
+    private static boolean isTooLarge(int id, @Nullable byte[] sign) {
+        if (sign == null || sign.length <= MAX_SIGN_DATA_SIZE) {
+            return false;
+        }
+        Log.w(BlurController.TAG, "Sign data of rect " + id + " is too large for the edit journal: "
+                + sign.length + " bytes");
+        return true;
+    }
+
+    /**
+     * @param size 内容的长度
+     * @return 已经写好长度和类型，留出了校验和位置的记录
+     */
+    @NonNull
+    private static ByteBuffer record(byte type, int size) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + size);
+        record.putInt(size).put(type);
+        return record;
+    }
+
+    private static void putSignData(@NonNull ByteBuffer record, @Nullable byte[] sign) {
+        if (sign == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(sign.length).put(sign);
+        }
+    }
+
+    private void append(@NonNull ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.position() - 4);
+        record.putInt((int) crc.getValue());
+        byte[] bytes = record.array();
+        executor.execute(() -> write(bytes));
+    }
+
+    // ------------------------后台线程：写入和压缩------------
+
+    private void write(@NonNull byte[] record) {
+        if (stopped) {
+            return;
+        }
+        try {
+            if (buffer == null) {
+                openFile();
+            }
+            if (buffer.remaining() < record.length + 4) {
+                remap(buffer.capacity() * 2L + record.length);
+            }
+            buffer.put(record);
+            recordCount++;
+            updateLiveIds(record);
+            if (recordCount > COMPACT_RECORDS && recordCount > liveIds.size() * COMPACT_RATIO) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            // 之后的记录无法接在正确的位置，停止记录，已经写入的部分仍然可以重放
+            Log.e(BlurController.TAG, "Error while writing the edit journal", e);
+            stopped = true;
+            closeFile();
+        }
+    }
+
+    /**
+     * 同一个 id 再次添加只是替换，不增加矩形数量
+     */
+    private void updateLiveIds(@NonNull byte[] record) {
+        byte type = record[4];
+        if (type == TYPE_ADD) {
+            liveIds.add(ByteBuffer.wrap(record).getInt(5));
+        } else if (type == TYPE_DELETE) {
+            liveIds.remove(ByteBuffer.wrap(record).getInt(5));
+        }
+    }
+
+    /**
+     * 打开日志，定位到最后一条完整记录之后；文件不存在或者文件头不对时重新开始
+     */
+    private void openFile() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        long length = raf.length();
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(length, MIN_CAPACITY));
+        Map<Integer, Entry> entries = new LinkedHashMap<>();
+        if (length >= HEADER_SIZE && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION) {
+            buffer.position(HEADER_SIZE);
+            recordCount = scan(buffer, entries);
+        } else {
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION);
+            recordCount = 0;
+        }
+        liveIds.clear();
+        liveIds.addAll(entries.keySet());
+        // 清掉崩溃时写到一半的记录，新记录后面必须是 0
+        for (int i = buffer.position(); i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private void remap(long capacity) throws IOException {
+        int position = buffer.position();
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.position(position);
+    }
+
+    /**
+     * 重放当前日志，把剩下的矩形写成新的日志，刷到磁盘后替换旧文件
+     */
+    private void compact() throws IOException {
+        buffer.position(HEADER_SIZE);
+        Map<Integer, Entry> entries = new LinkedHashMap<>();
+        scan(buffer, entries);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION);
+            out.write(header.array());
+            for (Entry entry : entries.values()) {
+                ByteBuffer record = encodeAdd(entry);
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), 4, record.position() - 4);
+                record.putInt((int) crc.getValue());
+                out.write(record.array());
+            }
+            out.getFD().sync();
+        }
+        closeFile();
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Can't replace " + file);
+        }
+        openFile();
+    }
+
+    @NonNull
+    private static ByteBuffer encodeAdd(@NonNull Entry entry) {
+        byte[] sign = entry.signData != null ? entry.signData.getBytes(StandardCharsets.UTF_8) : null;
+        ByteBuffer record = record(TYPE_ADD, ADD_SIZE + (sign != null ? sign.length : 0));
+        record.putInt(entry.id).putFloat(entry.rect.left).putFloat(entry.rect.top)
+                .putFloat(entry.rect.right).putFloat(entry.rect.bottom)
+                .putFloat(entry.rotation).putFloat(entry.blurRadius);
+        putSignData(record, sign);
+        return record;
+    }
+
+    private void closeFile() {
+        buffer = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                Log.w(BlurController.TAG, "Error while closing the edit journal", e);
+            }
+            raf = null;
+        }
+    }
+
+    // ------------------------重放------------
+
+    interface ReplayCallback {
+        void onReplayed(@NonNull List<Entry> entries);
+    }
+
+    /**
+     * 在写入线程上重放日志，同一执行器上之前提交的记录和关闭都已经完成，不会漏掉还没写入的记录。
+     * 结果在主线程交给 callback
+     */
+    static void replay(@NonNull File file, @NonNull Executor executor, @NonNull ReplayCallback callback) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(() -> {
+            List<Entry> entries = replay(file);
+            mainHandler.post(() -> callback.onReplayed(entries));
+        });
+    }
+
+    /**
+     * 重放日志，得到按绘制顺序排列的矩形。文件不存在或者无法读取时返回空列表，
+     * 读到不完整或者校验和不对的记录时停在那里
+     */
+    @NonNull
+    static List<Entry> replay(@NonNull File file) {
+        Map<Integer, Entry> entries = new LinkedHashMap<>();
+        if (file.isFile()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long length = raf.length();
+                if (length >= HEADER_SIZE) {
+                    MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    if (buffer.getInt() == MAGIC && buffer.getInt() == FORMAT_VERSION) {
+                        scan(buffer, entries);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(BlurController.TAG, "Error while replaying the edit journal", e);
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * 从当前位置开始应用记录，结束时位置停在最后一条完整记录之后
+     *
+     * @return 应用的记录条数
+     */
+    private static int scan(@NonNull ByteBuffer buffer, @NonNull Map<Integer, Entry> entries) {
+        int count = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int start = buffer.position();
+            int size = buffer.getInt(start);
+            if (size <= 0 || size > MAX_RECORD_SIZE || buffer.remaining() < RECORD_OVERHEAD + size) {
+                break;
+            }
+            crc.reset();
+            for (int i = start + 4; i < start + 5 + size; i++) {
+                crc.update(buffer.get(i));
+            }
+            if ((int) crc.getValue() != buffer.getInt(start + 5 + size)) {
+                break;
+            }
+            buffer.position(start + 4);
+            byte type = buffer.get();
+            apply(type, buffer, entries);
+            buffer.position(start + RECORD_OVERHEAD + size);
+            count++;
+        }
+        return count;
+    }
+
+    private static void apply(byte type, @NonNull ByteBuffer buffer, @NonNull Map<Integer, Entry> entries) {
+        int id = buffer.getInt();
+        Entry entry = entries.get(id);
+        switch (type) {
+            case TYPE_ADD:
+                entry = new Entry(id);
+                entry.rect.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                entry.rotation = buffer.getFloat();
+                entry.blurRadius = buffer.getFloat();
+                entry.signData = getSignData(buffer);
+                entries.remove(id);
+                entries.put(id, entry);
+                break;
+            case TYPE_MOVE:
+                if (entry != null) {
+                    entry.rect.offsetTo(buffer.getFloat(), buffer.getFloat());
+                }
+                break;
+            case TYPE_RESIZE:
+                if (entry != null) {
+                    entry.rect.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                }
+                break;
+            case TYPE_ROTATE:
+                if (entry != null) {
+                    entry.rotation = buffer.getFloat();
+                }
+                break;
+            case TYPE_DELETE:
+                entries.remove(id);
+                break;
+            case TYPE_RAISE:
+                if (entry != null) {
+                    entries.remove(id);
+                    entries.put(id, entry);
+                }
+                break;
+            case TYPE_RADIUS:
+                if (entry != null) {
+                    entry.blurRadius = buffer.getFloat();
+                }
+                break;
+            case TYPE_SIGN_DATA:
+                if (entry != null) {
+                    entry.signData = getSignData(buffer);
+                }
+                break;
+            default:
+                // 新版本的记录类型，跳过
+                break;
+        }
+    }
+
+    @Nullable
+    private static String getSignData(@NonNull ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    static synchronized Executor sharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "BlurEditJournal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedExecutor;
+    }
+}
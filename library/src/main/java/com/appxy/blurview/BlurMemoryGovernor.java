@@ -0,0 +1,183 @@
+package com.appxy.blurview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * 进程内所有模糊位图的内存管理。
+ * <p>
+ * 控制器注册为 {@link Client}，统计位图占用的总字节数，超出预算或收到
+ * {@link ComponentCallbacks2#onTrimMemory(int)} 时：
+ * <ul>
+ * <li>先释放不可见（未 attach 或被隐藏）的模糊视图的位图</li>
+ * <li>压力较大时把缩放因子加倍（位图面积变为四分之一）</li>
+ * <li>压力更大时可见的模糊视图也释放位图，下次可见并绘制时按新的缩放因子重新模糊</li>
+ * </ul>
+ * 释放只是丢弃引用而不调用 {@link Bitmap#recycle()}，显示列表里可能仍引用着这些位图。
+ * {@link BlurBitmapPool} 里的位图也计入预算，并且最先被丢弃。
+ * <p>
+ * 只能在主线程访问。
+ */
+public final class BlurMemoryGovernor {
+
+    /**
+     * 降级时缩放因子放大的倍数
+     */
+    static final float DEGRADED_SCALE_MULTIPLIER = 2f;
+
+    /**
+     * 最近一次内存压力之后，这段时间内不恢复完整质量
+     */
+    private static final long PRESSURE_HOLD_MS = 30_000;
+
+    /**
+     * 由控制器实现，向管理器报告位图占用并响应释放
+     */
+    interface Client {
+        /**
+         * @return 当前持有的模糊位图的总字节数
+         */
+        long getCacheBytes();
+
+        /**
+         * @return 模糊视图是否 attach 并且可见
+         */
+        boolean isVisible();
+
+        /**
+         * 释放持有的位图，下次可见时重新创建和模糊
+         *
+         * @param degrade true 表示重新创建时使用更粗的缩放因子
+         */
+        void trimMemory(boolean degrade);
+    }
+
+    private static final ArrayList<Client> clients = new ArrayList<>();
+
+    private static long budgetBytes = Runtime.getRuntime().maxMemory() / 8;
+    private static long lastPressureTime = -PRESSURE_HOLD_MS;
+    private static boolean callbacksRegistered;
+
+    private static final ComponentCallbacks2 trimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            BlurMemoryGovernor.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
+
+    private BlurMemoryGovernor() {
+    }
+
+    /**
+     * @param bytes 所有模糊位图加起来的字节数上限，默认是最大堆内存的八分之一
+     */
+    public static void setBudgetBytes(long bytes) {
+        budgetBytes = bytes;
+        enforceBudget();
+    }
+
+    public static long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return 所有已注册的模糊视图当前持有的位图字节数，加上位图池里的
+     */
+    public static long getTotalBytes() {
+        long total = BlurBitmapPool.getBytes();
+        for (int i = 0; i < clients.size(); i++) {
+            total += clients.get(i).getCacheBytes();
+        }
+        return total;
+    }
+
+    static void register(@NonNull Context context, @NonNull Client client) {
+        if (!callbacksRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(trimCallbacks);
+            callbacksRegistered = true;
+        }
+        if (!clients.contains(client)) {
+            clients.add(client);
+        }
+    }
+
+    static void unregister(@NonNull Client client) {
+        clients.remove(client);
+    }
+
+    /**
+     * 控制器分配位图之后调用，超出预算时先释放不可见的模糊视图
+     */
+    static void enforceBudget() {
+        if (getTotalBytes() > budgetBytes) {
+            lastPressureTime = SystemClock.uptimeMillis();
+            BlurBitmapPool.clear();
+            if (getTotalBytes() > budgetBytes) {
+                shed(false, true);
+            }
+        }
+    }
+
+    /**
+     * 降级后的模糊视图重新创建位图时用来决定是否恢复完整质量
+     *
+     * @param bytes 恢复完整质量需要的字节数
+     */
+    static boolean canRestoreQuality(long bytes) {
+        return SystemClock.uptimeMillis() - lastPressureTime >= PRESSURE_HOLD_MS
+                && getTotalBytes() + bytes <= budgetBytes;
+    }
+
+    static void onTrimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        lastPressureTime = SystemClock.uptimeMillis();
+        // 整个应用都不可见或内存紧张，停止的界面不会很快回来
+        BlurBitmapPool.clear();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // 进程随时可能被杀，全部释放并降级
+            shed(true, true);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // 界面不可见了，回来时再按完整质量模糊
+            shed(true, false);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            shed(true, true);
+        } else {
+            shed(false, true);
+        }
+    }
+
+    private static void shed(boolean includeVisible, boolean degrade) {
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (includeVisible || !client.isVisible()) {
+                client.trimMemory(degrade);
+            }
+        }
+    }
+
+    /**
+     * @return 位图占用的字节数，null 或已回收时为 0
+     */
+    static long bytesOf(@Nullable Bitmap bitmap) {
+        return bitmap == null || bitmap.isRecycled() ? 0 : bitmap.getAllocationByteCount();
+    }
+}
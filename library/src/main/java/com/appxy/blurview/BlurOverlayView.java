@@ -6,28 +6,40 @@ import static com.appxy.blurview.BlurController.DEFAULT_SCALE_FACTOR;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PointF;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
+import android.graphics.Shader;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ViewTreeLifecycleOwner;
 
 import com.appxy.tinyscanner.R;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class BlurOverlayView extends View {
 
@@ -37,6 +49,23 @@ public class BlurOverlayView extends View {
     // 模糊图层管理
     private final List<BlurRect> blurRectList = new ArrayList<>();
     private BlurRect selectedBlurRect = null;
+    /**
+     * 下一个新矩形的 id，从日志恢复后从最大的 id 之后继续
+     */
+    private int nextRectId;
+    /**
+     * 编辑日志，见 {@link #restoreFromJournal(File, OnJournalRestoredListener)}
+     */
+    @Nullable
+    private BlurEditJournal editJournal;
+    /**
+     * 写入和重放日志的线程，所有日志共用一个，保证重放在之前日志的记录写完之后进行
+     */
+    private Executor journalExecutor = BlurEditJournal.sharedExecutor();
+    /**
+     * 每次恢复或关闭日志时增加，之前发出的恢复结果作废
+     */
+    private int journalGeneration;
 
     // 触摸状态
     private static final int MODE_NONE = 0;
@@ -51,6 +80,10 @@ public class BlurOverlayView extends View {
     private float lastX, lastY;
     private final RectF dragRect = new RectF();
     private float SLOP_PX = 10f;
+    /**
+     * 拖动速度，用于预测拖动方向，提前模糊更大的区域
+     */
+    private VelocityTracker velocityTracker;
 
     // 尺寸转换
     private float defaultSize;
@@ -75,6 +108,10 @@ public class BlurOverlayView extends View {
     private Bitmap deleteIcon;
     private Bitmap leftRotateIcon;
     private Bitmap rightRotateIcon;
+    /**
+     * 是否持有 SharedTextures 中图标的引用，detach 时释放，重新 attach 时再次获取
+     */
+    private boolean iconsAcquired;
     private final Paint previewPaint = new Paint();
     private Paint menuPaint;
     private Paint selectionPaint; // 选中状态边框
@@ -82,7 +119,83 @@ public class BlurOverlayView extends View {
 
     private BlurController blurController = new NoOpController();
     private int overlayColor = 0;
+    /**
+     * 噪点用 SRC_ATOP 直接混合到屏幕画布上，只有这种情况才需要按矩形开离屏图层
+     */
+    private boolean rectLayerNeeded;
     private boolean blurAutoUpdate = true;
+    /**
+     * 重叠矩形的合并和遮挡，簇位图按控制器的缩放因子缩小，见 {@link BlurController#getRegionScale()}
+     */
+    private final BlurRectClusters rectClusters = new BlurRectClusters();
+    private final Paint clusterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * 宿主（Activity/Fragment）停止时释放模糊位图，重新开始时恢复
+     */
+    @Nullable
+    private Lifecycle lifecycle;
+    private final DefaultLifecycleObserver lifecycleObserver = new DefaultLifecycleObserver() {
+        @Override
+        public void onStart(@NonNull LifecycleOwner owner) {
+            blurController.onStart();
+        }
+
+        @Override
+        public void onStop(@NonNull LifecycleOwner owner) {
+            blurController.onStop();
+            releaseBrushBuffers();
+            rectClusters.release();
+        }
+    };
+
+    // ------------------------涂抹模糊------------
+    /**
+     * 模糊图层相对视图缩小的倍数，模糊后的内容没有细节，低分辨率放大后看不出差别
+     */
+    private static final float BRUSH_LAYER_SCALE = 4f;
+    /**
+     * dab 位图的尺寸按这个值向上取整，只增不减，涂抹过程中不再分配
+     */
+    private static final int DAB_SIZE_STEP = 32;
+    private boolean brushMode;
+    /**
+     * 笔刷直径
+     */
+    private float brushSize;
+    private final List<BrushStroke> brushStrokes = new ArrayList<>();
+    @Nullable
+    private BrushStroke currentStroke;
+    private float brushLastX, brushLastY;
+    /**
+     * 所有笔画的遮罩（ALPHA_8，视图尺寸），每次移动只画新增的一段
+     */
+    @Nullable
+    private Bitmap brushMask;
+    @Nullable
+    private Canvas brushMaskCanvas;
+    /**
+     * 笔画下方内容模糊后的图层（缩小 BRUSH_LAYER_SCALE 倍），每次移动只模糊新增一段的外接框
+     */
+    @Nullable
+    private Bitmap brushLayer;
+    @Nullable
+    private Canvas brushLayerCanvas;
+    /**
+     * 交给控制器截图和模糊的位图，覆盖新增一段的外接框加上模糊半径的光晕
+     */
+    @Nullable
+    private Bitmap dabBitmap;
+    private final Paint brushMaskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    /**
+     * 以模糊图层为着色器绘制遮罩，一次绘制合成所有笔画，和笔画数量无关
+     */
+    private final Paint brushPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint dabPaint = new Paint();
+    private final RectF dabInner = new RectF();
+    private final RectF dabRegion = new RectF();
+    private final RectF strokeBounds = new RectF();
+    private final Matrix brushShaderMatrix = new Matrix();
 
     public BlurOverlayView(Context context) {
         super(context);
@@ -101,14 +214,15 @@ public class BlurOverlayView extends View {
         rectMin = 18 * density;
         copyRectOffset = 16 * density;
         frameMargin = 6 * density;
+        brushSize = 24 * density;
 
-        // 创建操作图标
-        copyIcon = getBitmapFromSvg(R.drawable.blurview_copy);
-        deleteIcon = getBitmapFromSvg(R.drawable.blurview_delete);
-        leftRotateIcon = getBitmapFromSvg(R.drawable.blurview_left);
-        rightRotateIcon = getBitmapFromSvg(R.drawable.blurview_right);
-        handleSize = leftRotateIcon.getWidth();
-        copyDeleteBtnSize = copyIcon.getWidth();
+        // 涂抹遮罩的笔画
+        brushMaskPaint.setStyle(Paint.Style.STROKE);
+        brushMaskPaint.setStrokeCap(Paint.Cap.ROUND);
+        brushMaskPaint.setStrokeJoin(Paint.Join.ROUND);
+        dabPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+
+        // 操作图标在 attach 时获取，只创建不 attach 的视图不会一直持有共享图标
         overlayColor = ContextCompat.getColor(getContext(), R.color.overlay);
 
         // 模糊效果
@@ -132,9 +246,6 @@ public class BlurOverlayView extends View {
         // 添加触摸灵敏度设置
         ViewConfiguration vc = ViewConfiguration.get(getContext());
         SLOP_PX = vc.getScaledTouchSlop();
-
-        // 硬件加速开启
-        setLayerType(LAYER_TYPE_HARDWARE, null);
     }
 
     // ------------------------设置模糊图层的代码------------
@@ -147,6 +258,12 @@ public class BlurOverlayView extends View {
         } else {
             blurController = new BlurRectController(this, target, overlayColor, algorithm, scaleFactor, blurRadius, applyNoise);
         }
+        // BlurRectController 把噪点画在自己的位图上，不需要图层
+        rectLayerNeeded = applyNoise && BlurTarget.canUseHardwareRendering;
+        rectClusters.release();
+        if (lifecycle != null && !lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            blurController.onStop();
+        }
         return blurController;
     }
 
@@ -166,21 +283,46 @@ public class BlurOverlayView extends View {
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        if (iconsAcquired) {
+            SharedTextures.releaseIcons(getContext());
+            iconsAcquired = false;
+        }
         blurController.setBlurAutoUpdate(false);
+        if (lifecycle != null) {
+            lifecycle.removeObserver(lifecycleObserver);
+            lifecycle = null;
+        }
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
         for (BlurRect blurRect : blurRectList) {
             blurRect.recycle();
         }
         blurRectList.clear();
+        releaseBrushBuffers();
+        rectClusters.release();
+        // 矩形已经清空，之后的操作不属于这份日志
+        closeJournal();
     }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        if (!iconsAcquired) {
+            acquireIcons();
+        }
         if (!isHardwareAccelerated()) {
             Log.e("BlurView", "BlurView can't be used in not hardware-accelerated window!");
         } else {
             blurController.setBlurAutoUpdate(this.blurAutoUpdate);
         }
+        LifecycleOwner owner = ViewTreeLifecycleOwner.get(this);
+        if (owner != null) {
+            // 宿主已经 STARTED 时会马上收到 ON_START
+            lifecycle = owner.getLifecycle();
+            lifecycle.addObserver(lifecycleObserver);
+        }
     }
 
     public BlurViewFacade setBlurRadius(float radius) {
@@ -195,6 +337,34 @@ public class BlurOverlayView extends View {
         return blurController.setOverlayColor(overlayColor);
     }
 
+    /**
+     * @see BlurViewFacade#setSharedSnapshotBlur(boolean)
+     */
+    public BlurViewFacade setSharedSnapshotBlur(boolean enabled) {
+        return blurController.setSharedSnapshotBlur(enabled);
+    }
+
+    /**
+     * @see BlurViewFacade#setSourceBitmap(Bitmap, Matrix)
+     */
+    public BlurViewFacade setSourceBitmap(@Nullable Bitmap bitmap, @Nullable Matrix viewToBitmap) {
+        return blurController.setSourceBitmap(bitmap, viewToBitmap);
+    }
+
+    /**
+     * @see BlurViewFacade#setPageCacheEnabled(boolean)
+     */
+    public BlurViewFacade setPageCacheEnabled(boolean enabled) {
+        return blurController.setPageCacheEnabled(enabled);
+    }
+
+    /**
+     * @see BlurViewFacade#setPageDiskCacheSize(long)
+     */
+    public BlurViewFacade setPageDiskCacheSize(long maxBytes) {
+        return blurController.setPageDiskCacheSize(maxBytes);
+    }
+
     /**
      * @see BlurViewFacade#setBlurAutoUpdate(boolean)
      */
@@ -245,12 +415,27 @@ public class BlurOverlayView extends View {
         // 设置边框矩形（留出边距）
         borderRect.set(0, 0, w, h);
         blurController.updateBlurViewSize();
+        // 遮罩和图层按视图尺寸创建，下次绘制时按新尺寸重建
+        releaseBrushBuffers();
+        rectClusters.release();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        // 1. 合并重叠的矩形，每个簇只截图、模糊一次；被不透明矩形完全盖住的矩形不模糊
+        if (!(canvas instanceof BlurViewCanvas)) {
+            boolean interacting = touchMode == MODE_MOVE || touchMode == MODE_ROTATE || touchMode == MODE_RESIZE;
+            rectClusters.update(blurRectList, borderRect, interacting ? selectedBlurRect : null,
+                    blurController.canCoalesceRects(), blurController.isRectOpaque());
+            long delay = rectClusters.blur(blurController, blurRectList);
+            if (delay > 0) {
+                // 质量档位限制了更新频率，到时间后补一次更新
+                postInvalidateDelayed(delay);
+            }
+        }
+
         // 2. 绘制所有模糊矩形
         for (BlurRect rect : blurRectList) {
             if (rect.isVisible(borderRect)) {
@@ -262,7 +447,10 @@ public class BlurOverlayView extends View {
             }
         }
 
-        // 3. 绘制拖动预览
+        // 3. 绘制涂抹区域
+        drawBrush(canvas);
+
+        // 4. 绘制拖动预览
         if (touchMode == MODE_ADD_BY_DRAG) {
             drawDragPreview(canvas);
         }
@@ -285,6 +473,19 @@ public class BlurOverlayView extends View {
         float x = event.getX();
         float y = event.getY();
 
+        if (brushMode) {
+            handleBrushTouch(event.getActionMasked(), x, y);
+            return true;
+        }
+
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            velocityTracker.clear();
+        }
+        velocityTracker.addMovement(event);
+
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
                 handleTouchDown(x, y);
@@ -299,6 +500,9 @@ public class BlurOverlayView extends View {
                 return true;
 
             case MotionEvent.ACTION_CANCEL:
+                blurController.onRectDragEnd();
+                blurController.setInteracting(false);
+                journalInteraction();
                 touchMode = MODE_NONE;
                 selectedBlurRect = null;
                 invalidate(); // 确保重绘
@@ -377,6 +581,9 @@ public class BlurOverlayView extends View {
 
         if (isRemove) {
             blurRectList.add(selectedBlurRect);
+            if (editJournal != null) {
+                editJournal.raise(selectedBlurRect.id);
+            }
             invalidate();
             return;
         }
@@ -393,6 +600,9 @@ public class BlurOverlayView extends View {
                     float dx = x - lastX;
                     float dy = y - lastY;
                     selectedBlurRect.mRect.offset(dx, dy);
+                    velocityTracker.computeCurrentVelocity(1000);
+                    blurController.onRectDrag(selectedBlurRect,
+                            velocityTracker.getXVelocity(), velocityTracker.getYVelocity());
                     invalidate();
                 }
                 break;
@@ -417,6 +627,7 @@ public class BlurOverlayView extends View {
                     // 应用旋转
                     selectedBlurRect.setRotation(finalRotation);
 
+                    blurController.setInteracting(true);
                     invalidate();
                 }
                 break;
@@ -445,6 +656,7 @@ public class BlurOverlayView extends View {
             case MODE_RESIZE:
                 if (selectedBlurRect != null && selectedBlurRect.isVisible(borderRect)) {
                     selectedBlurRect.resize(x, y);
+                    blurController.setInteracting(true);
                     invalidate();
                 }
                 break;
@@ -455,6 +667,13 @@ public class BlurOverlayView extends View {
     }
 
     private void handleTouchUp(float x, float y) {
+        journalInteraction();
+        if (touchMode == MODE_MOVE) {
+            blurController.onRectDragEnd();
+        } else if (touchMode == MODE_RESIZE || touchMode == MODE_ROTATE) {
+            // 交互结束，恢复完整质量
+            blurController.setInteracting(false);
+        }
         if (touchMode == MODE_ADD_BY_DRAG) {
             RectF selectionRect = new RectF(dragRect);
             if (selectionRect.width() < rectMin) {
@@ -497,6 +716,23 @@ public class BlurOverlayView extends View {
         invalidate();
     }
 
+    /**
+     * 移动、调整大小、旋转在手势结束时记录一次，拖动过程中不写日志
+     */
+    private void journalInteraction() {
+        if (editJournal == null || selectedBlurRect == null) {
+            return;
+        }
+        BlurRect rect = selectedBlurRect;
+        if (touchMode == MODE_MOVE && (lastX != dragStartPoint.x || lastY != dragStartPoint.y)) {
+            editJournal.move(rect.id, rect.mRect.left, rect.mRect.top);
+        } else if (touchMode == MODE_RESIZE) {
+            editJournal.resize(rect.id, rect.mRect);
+        } else if (touchMode == MODE_ROTATE) {
+            editJournal.rotate(rect.id, rect.rotation);
+        }
+    }
+
     private boolean isPointInAnyRect(float x, float y) {
         for (BlurRect rect : blurRectList) {
             if (rect.isVisible(borderRect) && rect.contains(x, y)) {
@@ -509,9 +745,12 @@ public class BlurOverlayView extends View {
     public void addBlurRect(RectF selectionRect, float angle, String signData) {
         BlurRect rect = new BlurRect(selectionRect);
         rect.setRotation(angle);
-        rect.setSignData(signData);
+        rect.signData = signData;
         blurRectList.add(rect);
         selectedBlurRect = rect;
+        if (editJournal != null) {
+            editJournal.add(rect.id, rect.mRect, rect.rotation, rect.blurRadius, signData);
+        }
     }
 
     // 复制选中矩形
@@ -521,6 +760,9 @@ public class BlurOverlayView extends View {
             // 向右下偏移
             copy.mRect.offset(copyRectOffset, copyRectOffset);
             blurRectList.add(copy);
+            if (editJournal != null) {
+                editJournal.add(copy.id, copy.mRect, copy.rotation, copy.blurRadius, null);
+            }
             blurController.setBlurRect(copy);
             selectedBlurRect = copy;
             invalidate();
@@ -532,24 +774,32 @@ public class BlurOverlayView extends View {
         if (selectedBlurRect != null) {
             selectedBlurRect.recycle();
             blurRectList.remove(selectedBlurRect);
+            if (editJournal != null) {
+                editJournal.delete(selectedBlurRect.id);
+            }
             selectedBlurRect = null;
             invalidate();
         }
     }
 
     public Bitmap getBitmapFromSvg(@DrawableRes int drawableId) {
-        Drawable drawable = ContextCompat.getDrawable(getContext(), drawableId);
-        if (drawable == null) {
-            return null;
-        }
-
         // 创建一个Bitmap，大小与Drawable相同
-        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        drawable.draw(canvas);
-        return bitmap;
+        return SharedTextures.rasterize(getContext(), drawableId);
+    }
+
+    /**
+     * 从共享缓存获取操作图标，进程内同一密度只光栅化一次
+     */
+    private void acquireIcons() {
+        Context context = getContext();
+        SharedTextures.acquireIcons(context);
+        iconsAcquired = true;
+        copyIcon = SharedTextures.icon(context, R.drawable.blurview_copy);
+        deleteIcon = SharedTextures.icon(context, R.drawable.blurview_delete);
+        leftRotateIcon = SharedTextures.icon(context, R.drawable.blurview_left);
+        rightRotateIcon = SharedTextures.icon(context, R.drawable.blurview_right);
+        handleSize = leftRotateIcon.getWidth();
+        copyDeleteBtnSize = copyIcon.getWidth();
     }
 
     public void cancelSelect() {
@@ -563,8 +813,283 @@ public class BlurOverlayView extends View {
         return blurRectList;
     }
 
+    /**
+     * @return 簇位图占用的字节数，控制器报告给 {@link BlurMemoryGovernor}
+     */
+    long getClusterBytes() {
+        return rectClusters.getBytes();
+    }
+
+    /**
+     * 内存紧张时丢弃簇位图，不放进位图池
+     */
+    void trimClusters() {
+        rectClusters.trim();
+    }
+
+    // ------------------------编辑日志------------
+
+    public interface OnJournalRestoredListener {
+        /**
+         * @param count 恢复的矩形数量
+         */
+        void onJournalRestored(int count);
+    }
+
+    /**
+     * 用日志中的矩形替换当前所有矩形，之后的添加、移动、调整大小、旋转、删除都追加到这份日志。
+     * 文件不存在时从空列表开始。日志在后台线程上等之前的日志写完后再读取，读完在主线程替换矩形，
+     * 替换之前的编辑不会记录，也会被替换掉。之后的记录由后台线程写入，不阻塞触摸处理。视图 detach 时关闭日志
+     *
+     * @param listener 矩形替换完成后在主线程调用，可以为 null
+     */
+    public void restoreFromJournal(@NonNull File file, @Nullable OnJournalRestoredListener listener) {
+        closeJournal();
+        int generation = journalGeneration;
+        BlurEditJournal.replay(file, journalExecutor, entries -> {
+            if (generation != journalGeneration) {
+                return;
+            }
+            onJournalReplayed(file, entries);
+            if (listener != null) {
+                listener.onJournalRestored(entries.size());
+            }
+        });
+    }
+
+    private void onJournalReplayed(@NonNull File file, @NonNull List<BlurEditJournal.Entry> entries) {
+        for (BlurRect rect : blurRectList) {
+            rect.recycle();
+        }
+        blurRectList.clear();
+        selectedBlurRect = null;
+        nextRectId = 0;
+        for (BlurEditJournal.Entry entry : entries) {
+            BlurRect rect = new BlurRect(entry.id, entry.rect);
+            rect.rotation = entry.rotation;
+            rect.blurRadius = entry.blurRadius;
+            rect.signData = entry.signData;
+            blurRectList.add(rect);
+            nextRectId = Math.max(nextRectId, entry.id + 1);
+        }
+        editJournal = new BlurEditJournal(file, journalExecutor);
+        invalidate();
+    }
+
+    /**
+     * 停止记录，已经提交的记录由后台线程写完后刷到磁盘。还没完成的恢复不再替换矩形
+     */
+    public void closeJournal() {
+        journalGeneration++;
+        if (editJournal != null) {
+            editJournal.close();
+            editJournal = null;
+        }
+    }
+
+    void setJournalExecutor(@NonNull Executor executor) {
+        journalExecutor = executor;
+    }
+
+    // ------------------------涂抹模糊------------
+
+    /**
+     * 涂抹模式下触摸绘制笔画，笔画经过的区域被模糊；关闭后恢复矩形的添加和编辑
+     */
+    public void setBrushMode(boolean enabled) {
+        if (brushMode == enabled) {
+            return;
+        }
+        brushMode = enabled;
+        currentStroke = null;
+        touchMode = MODE_NONE;
+        cancelSelect();
+    }
+
+    public boolean isBrushMode() {
+        return brushMode;
+    }
+
+    /**
+     * @param size 笔刷直径（像素），只影响之后的笔画
+     */
+    public void setBrushSize(float size) {
+        brushSize = size;
+    }
+
+    public float getBrushSize() {
+        return brushSize;
+    }
+
+    public List<BrushStroke> getBrushStrokes() {
+        return brushStrokes;
+    }
+
+    public void clearBrushStrokes() {
+        brushStrokes.clear();
+        currentStroke = null;
+        releaseBrushBuffers();
+        invalidate();
+    }
+
+    /**
+     * 笔画下方的内容变化后重新模糊整个涂抹区域
+     */
+    public void refreshBrush() {
+        releaseBrushBuffers();
+        invalidate();
+    }
+
+    private void handleBrushTouch(int action, float x, float y) {
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                if (!ensureBrushBuffers()) {
+                    return;
+                }
+                currentStroke = new BrushStroke(brushSize);
+                currentStroke.path.moveTo(x, y);
+                currentStroke.path.lineTo(x, y);
+                brushStrokes.add(currentStroke);
+                paintStrokeSegment(currentStroke, x, y, x, y);
+                brushLastX = x;
+                brushLastY = y;
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (currentStroke == null || (x == brushLastX && y == brushLastY)) {
+                    return;
+                }
+                currentStroke.path.lineTo(x, y);
+                paintStrokeSegment(currentStroke, brushLastX, brushLastY, x, y);
+                brushLastX = x;
+                brushLastY = y;
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                currentStroke = null;
+                break;
+        }
+    }
+
+    /**
+     * 新增的一段画到遮罩上，只模糊这一段的外接框
+     */
+    private void paintStrokeSegment(@NonNull BrushStroke stroke, float x0, float y0, float x1, float y1) {
+        brushMaskPaint.setStrokeWidth(stroke.width);
+        if (x0 == x1 && y0 == y1) {
+            brushMaskCanvas.drawPoint(x1, y1, brushMaskPaint);
+        } else {
+            brushMaskCanvas.drawLine(x0, y0, x1, y1, brushMaskPaint);
+        }
+        float radius = stroke.width / 2f;
+        dabInner.set(Math.min(x0, x1) - radius, Math.min(y0, y1) - radius,
+                Math.max(x0, x1) + radius, Math.max(y0, y1) + radius);
+        blurIntoLayer(dabInner);
+        invalidate();
+    }
+
+    /**
+     * 遮罩和模糊图层在第一次涂抹或重建时创建，已有笔画按路径重新绘制
+     *
+     * @return false 表示视图还没有尺寸
+     */
+    private boolean ensureBrushBuffers() {
+        if (brushMask != null) {
+            return true;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return false;
+        }
+        brushMask = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        brushMaskCanvas = new Canvas(brushMask);
+        brushLayer = Bitmap.createBitmap((int) Math.ceil(width / BRUSH_LAYER_SCALE),
+                (int) Math.ceil(height / BRUSH_LAYER_SCALE), Bitmap.Config.ARGB_8888);
+        brushLayerCanvas = new Canvas(brushLayer);
+        BitmapShader shader = new BitmapShader(brushLayer, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        brushShaderMatrix.setScale(BRUSH_LAYER_SCALE, BRUSH_LAYER_SCALE);
+        shader.setLocalMatrix(brushShaderMatrix);
+        brushPaint.setShader(shader);
+
+        if (brushStrokes.isEmpty()) {
+            return true;
+        }
+        strokeBounds.setEmpty();
+        for (BrushStroke stroke : brushStrokes) {
+            brushMaskPaint.setStrokeWidth(stroke.width);
+            brushMaskCanvas.drawPath(stroke.path, brushMaskPaint);
+            stroke.path.computeBounds(dabInner, true);
+            dabInner.inset(-stroke.width / 2f, -stroke.width / 2f);
+            strokeBounds.union(dabInner);
+        }
+        blurIntoLayer(strokeBounds);
+        return true;
+    }
+
+    /**
+     * 截取并模糊 inner 外扩光晕后的区域，只把 inner 内的结果写入模糊图层，光晕部分混入了区域外的空白
+     */
+    private void blurIntoLayer(@NonNull RectF inner) {
+        float halo = blurController.getRegionHalo();
+        // 对齐到图层像素，dab 位图按整数像素写回图层
+        int left = (int) Math.floor((inner.left - halo) / BRUSH_LAYER_SCALE);
+        int top = (int) Math.floor((inner.top - halo) / BRUSH_LAYER_SCALE);
+        int width = (int) Math.ceil((inner.right + halo) / BRUSH_LAYER_SCALE) - left;
+        int height = (int) Math.ceil((inner.bottom + halo) / BRUSH_LAYER_SCALE) - top;
+        if (dabBitmap == null || dabBitmap.getWidth() < width || dabBitmap.getHeight() < height) {
+            int dabWidth = roundUpToStep(Math.max(width, dabBitmap == null ? 0 : dabBitmap.getWidth()));
+            int dabHeight = roundUpToStep(Math.max(height, dabBitmap == null ? 0 : dabBitmap.getHeight()));
+            dabBitmap = Bitmap.createBitmap(dabWidth, dabHeight, Bitmap.Config.ARGB_8888);
+        }
+        // 区域扩大到 dab 位图的尺寸，多截一些内容不影响结果
+        dabRegion.set(left * BRUSH_LAYER_SCALE, top * BRUSH_LAYER_SCALE,
+                (left + dabBitmap.getWidth()) * BRUSH_LAYER_SCALE, (top + dabBitmap.getHeight()) * BRUSH_LAYER_SCALE);
+        if (!blurController.blurRegion(dabRegion, dabBitmap)) {
+            return;
+        }
+        brushLayerCanvas.save();
+        brushLayerCanvas.clipRect(inner.left / BRUSH_LAYER_SCALE, inner.top / BRUSH_LAYER_SCALE,
+                inner.right / BRUSH_LAYER_SCALE, inner.bottom / BRUSH_LAYER_SCALE);
+        brushLayerCanvas.drawBitmap(dabBitmap, left, top, dabPaint);
+        if (overlayColor != 0) {
+            brushLayerCanvas.drawColor(overlayColor);
+        }
+        brushLayerCanvas.restore();
+    }
+
+    private static int roundUpToStep(int size) {
+        return (size + DAB_SIZE_STEP - 1) / DAB_SIZE_STEP * DAB_SIZE_STEP;
+    }
+
+    private void drawBrush(Canvas canvas) {
+        // 截图时不画自己，避免模糊结果被再次模糊
+        if (brushStrokes.isEmpty() || canvas instanceof BlurViewCanvas || !ensureBrushBuffers()) {
+            return;
+        }
+        // ALPHA_8 位图用画笔的着色器上色，遮罩内显示模糊图层
+        canvas.drawBitmap(brushMask, 0, 0, brushPaint);
+    }
+
+    /**
+     * 丢弃遮罩和模糊图层，笔画保留，下次绘制时重建
+     */
+    private void releaseBrushBuffers() {
+        brushMask = null;
+        brushMaskCanvas = null;
+        brushLayer = null;
+        brushLayerCanvas = null;
+        brushPaint.setShader(null);
+        dabBitmap = null;
+    }
+
     // 模糊矩形类
     public class BlurRect {
+        /**
+         * 在这个覆盖层内唯一，编辑日志用它标识矩形
+         */
+        final int id;
         /**
          * 模糊位图坐标
          */
@@ -611,18 +1136,49 @@ public class BlurOverlayView extends View {
         private final Matrix inverseRotationMatrix = new Matrix();
         private final RectF selectionRect = new RectF();
         Bitmap blurBitmap;
+        /**
+         * blurBitmap 上的画布，以及创建 blurBitmap 时的矩形尺寸和缩放因子，尺寸不变时每帧复用
+         */
+        BlurViewCanvas blurCanvas;
+        float blurSourceWidth, blurSourceHeight, blurScaleFactor;
+        /**
+         * 上次模糊更新的时间和当时矩形的位置、角度，限制更新频率时用来判断能否跳过
+         */
+        long blurUpdateTime;
+        float blurSourceLeft, blurSourceTop, blurSourceRotation;
+        /**
+         * 上次模糊时源位图的版本，见 {@link BlurViewFacade#setSourceBitmap(Bitmap, Matrix)}
+         */
+        int blurSourceVersion = -1;
+        /**
+         * 这个矩形自己的模糊半径，NaN 表示使用覆盖层统一的半径
+         */
+        float blurRadius = Float.NaN;
+        /**
+         * 这一帧所属的簇，null 表示单独模糊；occluded 表示被上层不透明矩形完全盖住，不需要模糊
+         */
+        @Nullable
+        BlurRectClusters.Cluster cluster;
+        boolean occluded;
         private String signData;
 
 
         BlurRect(RectF source) {
+            this(nextRectId++, source);
+        }
+
+        BlurRect(int id, RectF source) {
+            this.id = id;
             mRect = new RectF(source);
             init();
         }
 
         // 复制构造
         BlurRect(BlurRect source) {
+            id = nextRectId++;
             mRect = new RectF(source.mRect);
             rotation = source.rotation;
+            blurRadius = source.blurRadius;
             init();
         }
 
@@ -635,6 +1191,19 @@ public class BlurOverlayView extends View {
             );
         }
 
+        /**
+         * 从簇的共享模糊结果中取这个矩形的部分，叠加色只盖住矩形本身
+         */
+        private void drawFromCluster(Canvas canvas) {
+            cluster.draw(canvas, this, clusterPaint);
+            if (overlayColor != 0) {
+                canvas.save();
+                canvas.clipRect(mRect);
+                canvas.drawColor(overlayColor);
+                canvas.restore();
+            }
+        }
+
         // 更新旋转矩阵
         private void updateRotationMatrix() {
             rotationMatrix.reset();
@@ -794,8 +1363,20 @@ public class BlurOverlayView extends View {
 //            menuPaint.setColor(Color.argb(100, 200, 0, 0));
 //            menuPaint.setStyle(Paint.Style.FILL);
 //            canvas.drawRect(mRect, menuPaint);
-            blurController.setBlurRect(this);
-            blurController.draw(canvas);
+            // 不再给整个视图开硬件图层（每次拖动都要重绘全屏大小的离屏缓冲），
+            // 模糊内容、选中框和按钮直接画到视图画布上，只在需要混合时给当前矩形开一个同样大小的图层
+            if (!occluded) {
+                int layerCount = rectLayerNeeded ? canvas.saveLayer(mRect, null) : -1;
+                if (cluster != null && !(canvas instanceof BlurViewCanvas)) {
+                    drawFromCluster(canvas);
+                } else {
+                    blurController.setBlurRect(this);
+                    blurController.draw(canvas);
+                }
+                if (layerCount != -1) {
+                    canvas.restoreToCount(layerCount);
+                }
+            }
 
             // 绘制选中状态
             if (isSelected) {
@@ -806,7 +1387,7 @@ public class BlurOverlayView extends View {
                 canvas.drawRect(selectionRect, selectionPaint);
 
                 // 绘制两个旋转手柄（在矩形边框线外侧）
-                if (touchMode == MODE_ROTATE) {
+                if (touchMode == MODE_ROTATE && iconsAcquired) {
                     canvas.drawBitmap(leftRotateIcon,
                             rotateHandleTopRight.left,
                             rotateHandleTopRight.top, null);
@@ -825,8 +1406,8 @@ public class BlurOverlayView extends View {
 
             canvas.restore();
 
-            // 在原始坐标系绘制按钮（不受旋转影响）
-            if (isSelected && showButtons) {
+            // 在原始坐标系绘制按钮（不受旋转影响），未 attach 时没有图标可画
+            if (isSelected && showButtons && iconsAcquired) {
                 canvas.save();
                 // 旋转画布
                 canvas.rotate(rotation, mRect.centerX(), mRect.centerY());
@@ -1073,6 +1654,17 @@ public class BlurOverlayView extends View {
                 blurBitmap.recycle();
                 blurBitmap = null;
             }
+            blurCanvas = null;
+        }
+
+        /**
+         * @return true 表示 blurBitmap 是按当前尺寸和缩放因子创建的，可以直接复用
+         */
+        boolean canReuseBlurBitmap(float scaleFactor) {
+            return blurBitmap != null && !blurBitmap.isRecycled()
+                    && blurSourceWidth == mRect.width()
+                    && blurSourceHeight == mRect.height()
+                    && blurScaleFactor == scaleFactor;
         }
 
         /**
@@ -1094,13 +1686,72 @@ public class BlurOverlayView extends View {
             return rotation;
         }
 
+        /**
+         * 单独设置这个矩形的模糊半径，含义和 {@link BlurViewFacade#setBlurRadius(float)} 相同。
+         * 传入 NaN 恢复使用覆盖层统一的半径。
+         * 开启 {@link BlurViewFacade#setSharedSnapshotBlur(boolean)} 时任意半径都不需要额外的截图
+         */
+        public void setBlurRadius(float radius) {
+            if (Float.compare(blurRadius, radius) == 0) {
+                return;
+            }
+            blurRadius = radius;
+            // 半径变了，不能跳过下一次更新
+            blurUpdateTime = 0;
+            if (editJournal != null && blurRectList.contains(this)) {
+                editJournal.setBlurRadius(id, radius);
+            }
+            invalidate();
+        }
+
+        /**
+         * @return 这个矩形自己的模糊半径，没有单独设置时为 NaN
+         */
+        public float getBlurRadius() {
+            return blurRadius;
+        }
+
+        boolean hasBlurRadius() {
+            return !Float.isNaN(blurRadius);
+        }
+
         public void setSignData(String signData) {
             this.signData = signData;
+            if (editJournal != null && blurRectList.contains(this)) {
+                editJournal.setSignData(id, signData);
+            }
         }
 
         public String getSignData() {
             return signData;
         }
+
+        /**
+         * @return 在这个覆盖层内唯一的 id，从编辑日志恢复后保持不变
+         */
+        public int getId() {
+            return id;
+        }
+    }
+
+    /**
+     * 涂抹模式下的一笔，路径是视图坐标系下经过的点
+     */
+    public static final class BrushStroke {
+        final Path path = new Path();
+        final float width;
+
+        BrushStroke(float width) {
+            this.width = width;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public float getWidth() {
+            return width;
+        }
     }
 
     public Bitmap createBitmap(Bitmap originalBitmap, RectF regionInView) {
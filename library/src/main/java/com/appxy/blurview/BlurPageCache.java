@@ -0,0 +1,412 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 源位图模式下的整页模糊缓存：每个模糊半径把整页模糊一次，得到逐级减半的金字塔，每一级切成小块存放。
+ * 矩形绘制时从最接近屏幕密度的一级采样，移动、缩放、旋转、复制矩形都只是一次贴图，
+ * 和矩形的数量、大小无关，不需要截图和模糊。
+ * <p>
+ * 第 0 级的每个像素对应控制器缩放因子那么多视图像素，和单独模糊矩形的清晰度相同；
+ * 模糊过的内容没有高频细节，后面各级直接由上一级 2x2 平均得到。
+ * 缩小、模糊、生成各级和切块都在后台线程完成，完成前调用方继续按原来的方式模糊。
+ * 生成失败后按指数退避等待一段时间再重试。
+ * <p>
+ * 占用的内存计入控制器向 {@link BlurMemoryGovernor} 报告的字节数，内存紧张时只保留最近生成的一个金字塔。
+ * <p>
+ * 可以再用 {@link BlurTileDiskCache} 把金字塔保存到磁盘，重新打开同一页时直接读取。
+ * <p>
+ * 除了后台任务，只能在主线程访问。
+ */
+final class BlurPageCache {
+    /**
+     * 每块的边长（不含四周各 1 像素的重叠），双线性采样在块的边缘读取重叠像素，拼接处没有接缝
+     */
+    static final int TILE_SIZE = 128;
+    private static final int GUTTER = 1;
+    /**
+     * 最多同时保留几个半径的金字塔，矩形单独设置的半径各占一个
+     */
+    private static final int MAX_PYRAMIDS = 3;
+    /**
+     * 生成失败后第一次重试前等待的时间，之后每次失败加倍
+     */
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private static Executor sharedExecutor;
+
+    /**
+     * 金字塔的一级，按块存放
+     */
+    static final class Level {
+        final int width, height;
+        final int columns, rows;
+        final Bitmap[] tiles;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+            tiles = new Bitmap[columns * rows];
+        }
+
+        @NonNull
+        Bitmap tile(int column, int row) {
+            return tiles[row * columns + column];
+        }
+
+        /**
+         * 块在这一级中的像素范围，包含四周的重叠像素
+         */
+        void tileBounds(int column, int row, @NonNull Rect out) {
+            out.set(Math.max(0, column * TILE_SIZE - GUTTER), Math.max(0, row * TILE_SIZE - GUTTER),
+                    Math.min(width, (column + 1) * TILE_SIZE + GUTTER), Math.min(height, (row + 1) * TILE_SIZE + GUTTER));
+        }
+    }
+
+    /**
+     * 某个源位图内容、某个模糊半径的整页金字塔
+     */
+    static final class Pyramid {
+        final int contentVersion;
+        /**
+         * 位图坐标系下的模糊半径
+         */
+        final float radius;
+        /**
+         * 第 0 级每个像素对应的位图像素
+         */
+        final float texelWidth, texelHeight;
+        final Level[] levels;
+        long lastUse;
+
+        Pyramid(int contentVersion, float radius, float texelWidth, float texelHeight, @NonNull Level[] levels) {
+            this.contentVersion = contentVersion;
+            this.radius = radius;
+            this.texelWidth = texelWidth;
+            this.texelHeight = texelHeight;
+            this.levels = levels;
+        }
+
+        long getBytes() {
+            long bytes = 0;
+            for (Level level : levels) {
+                for (Bitmap tile : level.tiles) {
+                    bytes += BlurMemoryGovernor.bytesOf(tile);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 只在后台线程使用，任务串行执行
+     */
+    private final RecursiveGaussianBlur blur = new RecursiveGaussianBlur(1);
+    private final List<Pyramid> pyramids = new ArrayList<>();
+    @Nullable
+    private Runnable onReady;
+    @Nullable
+    private BlurTileDiskCache diskCache;
+
+    /**
+     * 正在后台生成金字塔，同一时间只生成一个
+     */
+    private boolean building;
+    /**
+     * 上次生成失败后，在这个时间（uptimeMillis）之前不再重试
+     */
+    private long retryTime;
+    private long retryDelay = RETRY_DELAY_MS;
+    /**
+     * release 后增加，之前发出的任务结果作废
+     */
+    private int requestGeneration;
+    private long useCounter;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint buildPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix canvasMatrix = new Matrix();
+    private final float[] values = new float[9];
+    private final Rect clip = new Rect();
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+
+    BlurPageCache() {
+        this(sharedExecutor());
+    }
+
+    BlurPageCache(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param onReady 后台生成完一个金字塔后在主线程调用，通常用来重绘
+     */
+    void setOnReadyListener(@Nullable Runnable onReady) {
+        this.onReady = onReady;
+    }
+
+    /**
+     * @param diskCache 生成前先从磁盘读取，生成后写入磁盘，null 表示只缓存在内存中
+     */
+    void setDiskCache(@Nullable BlurTileDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * 画布当前是视图坐标系并且已经裁剪到要绘制的区域。金字塔还没有生成时发出后台任务并返回 false
+     *
+     * @param viewRadius  视图坐标系下的模糊半径
+     * @param scaleFactor 第 0 级每个像素对应的视图像素
+     */
+    boolean draw(@NonNull Canvas canvas, @NonNull BitmapSource source, float viewRadius, float scaleFactor) {
+        float pageScale = source.getScale();
+        float radius = viewRadius * pageScale;
+        int content = source.getContentVersion();
+        Pyramid pyramid = find(content, radius);
+        if (pyramid == null) {
+            request(source, content, radius, Math.max(1f, scaleFactor * pageScale));
+            return false;
+        }
+        pyramid.lastUse = ++useCounter;
+
+        canvas.save();
+        canvas.concat(source.getBitmapToView());
+        canvas.scale(pyramid.texelWidth, pyramid.texelHeight);
+        // 每个屏幕像素覆盖多少第 0 级像素，决定用哪一级
+        canvas.getMatrix(canvasMatrix);
+        canvasMatrix.getValues(values);
+        double determinant = Math.abs(values[Matrix.MSCALE_X] * values[Matrix.MSCALE_Y]
+                - values[Matrix.MSKEW_X] * values[Matrix.MSKEW_Y]);
+        int index = 0;
+        if (determinant > 0) {
+            double texelsPerPixel = 1 / Math.sqrt(determinant);
+            index = Math.max(0, (int) Math.floor(Math.log(texelsPerPixel) / Math.log(2)));
+            index = Math.min(index, pyramid.levels.length - 1);
+        }
+        Level level = pyramid.levels[index];
+        float levelScale = 1 << index;
+        canvas.scale(levelScale, levelScale);
+        if (canvas.getClipBounds(clip)) {
+            drawTiles(canvas, level);
+        }
+        canvas.restore();
+        return true;
+    }
+
+    /**
+     * 只画和裁剪区域相交的块，画布当前是这一级的像素坐标
+     */
+    private void drawTiles(@NonNull Canvas canvas, @NonNull Level level) {
+        int firstColumn = Math.max(0, clip.left / TILE_SIZE);
+        int lastColumn = Math.min(level.columns - 1, clip.right / TILE_SIZE);
+        int firstRow = Math.max(0, clip.top / TILE_SIZE);
+        int lastRow = Math.min(level.rows - 1, clip.bottom / TILE_SIZE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int left = column * TILE_SIZE;
+                int top = row * TILE_SIZE;
+                int right = Math.min(left + TILE_SIZE, level.width);
+                int bottom = Math.min(top + TILE_SIZE, level.height);
+                // 第一行、第一列的块左上没有重叠像素
+                int srcLeft = column == 0 ? 0 : GUTTER;
+                int srcTop = row == 0 ? 0 : GUTTER;
+                src.set(srcLeft, srcTop, srcLeft + right - left, srcTop + bottom - top);
+                dst.set(left, top, right, bottom);
+                canvas.drawBitmap(level.tile(column, row), src, dst, paint);
+            }
+        }
+    }
+
+    @Nullable
+    private Pyramid find(int content, float radius) {
+        for (int i = 0; i < pyramids.size(); i++) {
+            Pyramid pyramid = pyramids.get(i);
+            if (pyramid.contentVersion == content && pyramid.radius == radius) {
+                return pyramid;
+            }
+        }
+        return null;
+    }
+
+    private void request(@NonNull BitmapSource source, int content, float radius, float texelSize) {
+        if (building || SystemClock.uptimeMillis() < retryTime) {
+            // 正在生成的完成后会重绘，那时再发出新的请求
+            return;
+        }
+        building = true;
+        int generation = requestGeneration;
+        Bitmap bitmap = source.getBitmap();
+        BlurTileDiskCache disk = diskCache;
+        executor.execute(() -> {
+            Level[] levels;
+            float texelWidth, texelHeight;
+            try {
+                Bitmap base = BitmapSource.downsample(bitmap, texelSize);
+                texelWidth = (float) bitmap.getWidth() / base.getWidth();
+                texelHeight = (float) bitmap.getHeight() / base.getHeight();
+                String key = disk != null ? disk.keyOf(base, radius / texelWidth, texelWidth, texelHeight) : null;
+                levels = key != null ? disk.read(key) : null;
+                if (levels == null) {
+                    levels = build(base, radius / texelWidth);
+                    if (key != null) {
+                        disk.write(key, levels);
+                    }
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                Log.e(BlurController.TAG, "Error while building the page cache", e);
+                mainHandler.post(() -> onFailed(generation));
+                return;
+            }
+            Pyramid pyramid = new Pyramid(content, radius, texelWidth, texelHeight, levels);
+            mainHandler.post(() -> onBuilt(generation, pyramid));
+        });
+    }
+
+    private void onBuilt(int generation, @NonNull Pyramid pyramid) {
+        if (generation != requestGeneration) {
+            return;
+        }
+        building = false;
+        retryTime = 0;
+        retryDelay = RETRY_DELAY_MS;
+        // 内容变化后旧内容的金字塔不会再用到
+        for (int i = pyramids.size() - 1; i >= 0; i--) {
+            if (pyramids.get(i).contentVersion != pyramid.contentVersion) {
+                pyramids.remove(i);
+            }
+        }
+        // 最近内存紧张时其他半径的金字塔不再保留
+        int limit = BlurMemoryGovernor.canRestoreQuality(pyramid.getBytes()) ? MAX_PYRAMIDS : 1;
+        while (pyramids.size() >= limit) {
+            int oldest = 0;
+            for (int i = 1; i < pyramids.size(); i++) {
+                if (pyramids.get(i).lastUse < pyramids.get(oldest).lastUse) {
+                    oldest = i;
+                }
+            }
+            pyramids.remove(oldest);
+        }
+        pyramid.lastUse = ++useCounter;
+        pyramids.add(pyramid);
+        BlurMemoryGovernor.enforceBudget();
+        if (onReady != null) {
+            onReady.run();
+        }
+    }
+
+    /**
+     * 生成失败，等待一段时间后重绘，那时再重试
+     */
+    private void onFailed(int generation) {
+        if (generation != requestGeneration) {
+            return;
+        }
+        building = false;
+        retryTime = SystemClock.uptimeMillis() + retryDelay;
+        if (onReady != null) {
+            mainHandler.postDelayed(() -> {
+                if (generation == requestGeneration && onReady != null) {
+                    onReady.run();
+                }
+            }, retryDelay);
+        }
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+    }
+
+    /**
+     * 后台线程：模糊第 0 级，逐级减半直到一块能放下，再把每一级切块
+     */
+    @NonNull
+    private Level[] build(@NonNull Bitmap base, float radius) {
+        Bitmap current = blur.blur(base, radius);
+        List<Level> levels = new ArrayList<>();
+        Canvas canvas = new Canvas();
+        while (true) {
+            levels.add(cut(current));
+            if (current.getWidth() <= TILE_SIZE && current.getHeight() <= TILE_SIZE) {
+                break;
+            }
+            Bitmap next = Bitmap.createBitmap((current.getWidth() + 1) / 2, (current.getHeight() + 1) / 2,
+                    Bitmap.Config.ARGB_8888);
+            canvas.setBitmap(next);
+            canvas.save();
+            // 正好缩小一半时双线性采样就是 2x2 的平均
+            canvas.scale((float) next.getWidth() / current.getWidth(), (float) next.getHeight() / current.getHeight());
+            canvas.drawBitmap(current, 0, 0, buildPaint);
+            canvas.restore();
+            current = next;
+        }
+        canvas.setBitmap(null);
+        blur.release();
+        return levels.toArray(new Level[0]);
+    }
+
+    @NonNull
+    private static Level cut(@NonNull Bitmap bitmap) {
+        Level level = new Level(bitmap.getWidth(), bitmap.getHeight());
+        Rect bounds = new Rect();
+        for (int row = 0; row < level.rows; row++) {
+            for (int column = 0; column < level.columns; column++) {
+                level.tileBounds(column, row, bounds);
+                level.tiles[row * level.columns + column] =
+                        Bitmap.createBitmap(bitmap, bounds.left, bounds.top, bounds.width(), bounds.height());
+            }
+        }
+        return level;
+    }
+
+    long getBytes() {
+        long bytes = 0;
+        for (int i = 0; i < pyramids.size(); i++) {
+            bytes += pyramids.get(i).getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 丢弃所有金字塔，正在生成的结果也不再使用
+     */
+    void release() {
+        pyramids.clear();
+        building = false;
+        retryTime = 0;
+        retryDelay = RETRY_DELAY_MS;
+        requestGeneration++;
+    }
+
+    @NonNull
+    private static synchronized Executor sharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "BlurPageCache");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return sharedExecutor;
+    }
+}
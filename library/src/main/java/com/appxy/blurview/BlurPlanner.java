@@ -0,0 +1,47 @@
+package com.appxy.blurview;
+
+/**
+ * 根据模糊半径和模糊算法的限制选择缩放因子，代替固定的缩放因子。
+ * <p>
+ * 模糊本身就是低通滤波，只要缩小后的模糊半径不小于 {@link #QUALITY_RADIUS}，
+ * 缩小截图带来的精度损失在模糊后是看不出来的。缩小后像素数按缩放因子的平方减少，
+ * 模糊半径也同比减小，所以大半径的模糊会便宜很多，超过算法上限的半径也能正确生效。
+ * <p>
+ * 这里没有按算法估算开销，是一个简化：现有算法每个像素的开销随半径不变（递推高斯、RenderEffect）
+ * 或者随半径增加（RenderScript），像素数又随缩放因子的平方减少，所以任何算法都是缩得越小越便宜，
+ * 开销模型只会选出质量允许的最大缩放因子，也就是缩小后半径正好是 {@link #QUALITY_RADIUS}。
+ * 算法之间只有最大半径不同，通过 {@link BlurAlgorithm#getMaxBlurRadius()} 传入。
+ * 如果以后加入开销随缩小反而增加的算法（比如有固定的每次调用开销），或者不同核形状需要不同的质量半径，
+ * 再在这里加入按算法的估算。
+ */
+final class BlurPlanner {
+
+    /**
+     * 缩小后的模糊半径（位图像素）的目标值
+     */
+    static final float QUALITY_RADIUS = 8f;
+
+    /**
+     * 规划出的缩放因子（视图像素 / 位图像素）
+     */
+    float scaleFactor = BlurController.DEFAULT_SCALE_FACTOR;
+
+    /**
+     * 规划出的模糊半径（位图像素）
+     */
+    float blurRadius = BlurController.DEFAULT_BLUR_RADIUS;
+
+    /**
+     * @param blurRadius     外部设置的模糊半径，和以前一样真实的模糊半径为 blurRadius * minScaleFactor
+     * @param minScaleFactor 外部设置的缩放因子，规划结果不会比它更精细
+     * @param maxBlurRadius  模糊算法支持的最大半径，见 {@link BlurAlgorithm#getMaxBlurRadius()}
+     */
+    void plan(float blurRadius, float minScaleFactor, float maxBlurRadius) {
+        // 视图坐标系下的模糊半径
+        float viewRadius = blurRadius * minScaleFactor;
+        float targetRadius = Math.min(QUALITY_RADIUS, maxBlurRadius);
+        float scale = Math.max(minScaleFactor, viewRadius / targetRadius);
+        this.scaleFactor = scale;
+        this.blurRadius = viewRadius / scale;
+    }
+}
@@ -0,0 +1,177 @@
+package com.appxy.blurview;
+
+import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * 根据设备温度（{@link PowerManager#getCurrentThermalStatus()}，API 29+）和省电模式选择模糊质量档位。
+ * <p>
+ * 温度升高或开启省电模式时降低模糊的更新频率并放大缩放因子，条件恢复后回到完整质量。
+ * 控制器通过 {@link Listener} 接收档位变化，没有监听者时不注册任何系统回调。
+ * <p>
+ * 只能在主线程访问。
+ */
+public final class BlurQualityPolicy {
+
+    /**
+     * 模糊质量档位
+     */
+    public enum Tier {
+        /**
+         * 每帧更新，使用规划的缩放因子
+         */
+        FULL(1f, 0),
+        /**
+         * 省电模式或温度中等：缩放因子 x1.5，最多 30 帧/秒
+         */
+        REDUCED(1.5f, 33),
+        /**
+         * 温度严重：缩放因子 x2，最多 15 帧/秒
+         */
+        MINIMAL(2f, 66);
+
+        /**
+         * 缩放因子放大的倍数，模糊半径同比缩小，视觉上的模糊程度不变
+         */
+        public final float scaleMultiplier;
+        /**
+         * 两次模糊更新之间的最小间隔，0 表示每帧都更新
+         */
+        public final long minUpdateIntervalMs;
+
+        Tier(float scaleMultiplier, long minUpdateIntervalMs) {
+            this.scaleMultiplier = scaleMultiplier;
+            this.minUpdateIntervalMs = minUpdateIntervalMs;
+        }
+    }
+
+    interface Listener {
+        void onTierChanged(@NonNull Tier tier);
+    }
+
+    private static final ArrayList<Listener> listeners = new ArrayList<>();
+
+    private static Tier tier = Tier.FULL;
+
+    @Nullable
+    private static PowerManager powerManager;
+    @Nullable
+    private static Context appContext;
+    @Nullable
+    private static Object thermalListener;
+
+    private static final BroadcastReceiver powerSaveReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateTier();
+        }
+    };
+
+    private BlurQualityPolicy() {
+    }
+
+    /**
+     * @return 当前的质量档位
+     */
+    @NonNull
+    public static Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * 开始接收档位变化，第一个监听者注册时开始监听系统状态
+     */
+    static void addListener(@NonNull Context context, @NonNull Listener listener) {
+        if (listeners.contains(listener)) {
+            return;
+        }
+        listeners.add(listener);
+        if (listeners.size() == 1) {
+            startWatching(context);
+        }
+    }
+
+    static void removeListener(@NonNull Listener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            stopWatching();
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private static void startWatching(@NonNull Context context) {
+        appContext = context.getApplicationContext();
+        powerManager = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+        appContext.registerReceiver(powerSaveReceiver, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager.OnThermalStatusChangedListener listener = status -> updateTier();
+            powerManager.addThermalStatusListener(appContext.getMainExecutor(), listener);
+            thermalListener = listener;
+        }
+        updateTier();
+    }
+
+    @SuppressLint("NewApi")
+    private static void stopWatching() {
+        if (appContext != null && powerManager != null) {
+            appContext.unregisterReceiver(powerSaveReceiver);
+            if (thermalListener != null) {
+                powerManager.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalListener);
+                thermalListener = null;
+            }
+        }
+        powerManager = null;
+        appContext = null;
+        tier = Tier.FULL;
+    }
+
+    private static void updateTier() {
+        if (powerManager == null) {
+            return;
+        }
+        Tier newTier = selectTier(thermalStatus(powerManager), powerManager.isPowerSaveMode());
+        if (newTier == tier) {
+            return;
+        }
+        tier = newTier;
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).onTierChanged(newTier);
+        }
+    }
+
+    @SuppressLint("InlinedApi")
+    private static int thermalStatus(@NonNull PowerManager powerManager) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return powerManager.getCurrentThermalStatus();
+        }
+        // 没有温度信息，按正常处理
+        return PowerManager.THERMAL_STATUS_NONE;
+    }
+
+    /**
+     * @param thermalStatus {@link PowerManager} 的 THERMAL_STATUS_* 值
+     */
+    @NonNull
+    @SuppressLint("InlinedApi")
+    static Tier selectTier(int thermalStatus, boolean powerSaveMode) {
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+            return Tier.MINIMAL;
+        }
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE || powerSaveMode) {
+            return Tier.REDUCED;
+        }
+        return Tier.FULL;
+    }
+}
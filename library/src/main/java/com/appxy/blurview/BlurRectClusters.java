@@ -0,0 +1,334 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 合并重叠的模糊矩形：旋转后外接框相交的矩形组成一个簇，整个簇的区域只截图、模糊一次，
+ * 每个成员从共享的结果中取自己的部分，重叠部分不再重复截图和模糊。
+ * 完全被后面（绘制顺序在上层）的不透明矩形盖住的矩形不需要模糊。
+ * <p>
+ * 簇位图按控制器的缩放因子截图，和单独模糊的矩形清晰度、模糊程度相同；位图从 {@link BlurBitmapPool} 取得，
+ * 占用的内存由控制器报告给 {@link BlurMemoryGovernor}。质量档位限制了更新频率时，区域不变的簇在间隔内不再重新模糊。
+ * <p>
+ * 簇、位图和临时数组在帧之间复用，矩形数量不增加时不再分配。只能在主线程访问。
+ */
+final class BlurRectClusters {
+    /**
+     * 簇位图的尺寸按这个值向上取整，只增不减，矩形小幅移动、缩放时不再分配
+     */
+    private static final int SIZE_STEP = 32;
+    /**
+     * 判断覆盖时允许的误差，旋转后的角点有浮点误差
+     */
+    private static final float COVER_EPSILON = 0.5f;
+
+    static final class Cluster {
+        /**
+         * 所有成员旋转后外接框的并集，覆盖层坐标
+         */
+        final RectF bounds = new RectF();
+        /**
+         * bitmap 对应的覆盖层区域，比 bounds 多出模糊半径的光晕并对齐到位图像素
+         */
+        final RectF region = new RectF();
+        @Nullable
+        Bitmap bitmap;
+        /**
+         * bitmap 中是 region 的模糊结果
+         */
+        boolean blurred;
+        long blurTime;
+
+        /**
+         * 画布已经按矩形的角度旋转，先裁剪到矩形，再转回覆盖层坐标绘制共享的模糊结果
+         */
+        void draw(@NonNull Canvas canvas, @NonNull BlurOverlayView.BlurRect rect, @NonNull Paint paint) {
+            RectF mRect = rect.mRect;
+            canvas.save();
+            canvas.clipRect(mRect);
+            canvas.rotate(-rect.rotation, mRect.centerX(), mRect.centerY());
+            canvas.drawBitmap(bitmap, null, region, paint);
+            canvas.restore();
+        }
+    }
+
+    private final List<Cluster> clusters = new ArrayList<>();
+    private int clusterCount;
+    /**
+     * 并查集，-1 表示矩形不可见或被遮挡
+     */
+    private int[] parent = new int[0];
+    private int[] memberCount = new int[0];
+    private RectF[] bounds = new RectF[0];
+    private final Matrix matrix = new Matrix();
+    private final float[] corners = new float[8];
+    private final RectF region = new RectF();
+
+    /**
+     * 重新计算每个矩形所属的簇和是否被遮挡，结果写在 {@link BlurOverlayView.BlurRect#cluster}
+     * 和 {@link BlurOverlayView.BlurRect#occluded} 上
+     *
+     * @param rects    按绘制顺序排列的矩形
+     * @param boundary 覆盖层的可见区域
+     * @param excluded 不参与合并的矩形，正在交互的矩形由控制器用预模糊的光晕绘制
+     * @param coalesce 控制器能否合并模糊，见 {@link BlurController#canCoalesceRects()}
+     * @param opaque   矩形是否不透明，见 {@link BlurController#isRectOpaque()}
+     */
+    void update(@NonNull List<BlurOverlayView.BlurRect> rects, @NonNull RectF boundary,
+                @Nullable BlurOverlayView.BlurRect excluded, boolean coalesce, boolean opaque) {
+        int count = rects.size();
+        ensureCapacity(count);
+        clusterCount = 0;
+        for (int i = 0; i < count; i++) {
+            BlurOverlayView.BlurRect rect = rects.get(i);
+            rect.cluster = null;
+            rect.occluded = false;
+            if (rect.isVisible(boundary)) {
+                parent[i] = i;
+                rotatedBounds(rect, bounds[i]);
+            } else {
+                parent[i] = -1;
+            }
+        }
+
+        if (opaque) {
+            for (int i = 0; i < count; i++) {
+                if (parent[i] < 0) {
+                    continue;
+                }
+                for (int j = i + 1; j < count; j++) {
+                    if (parent[j] >= 0 && bounds[j].contains(bounds[i]) && covers(rects.get(j), rects.get(i))) {
+                        rects.get(i).occluded = true;
+                        parent[i] = -1;
+                        break;
+                    }
+                }
+            }
+        }
+        if (!coalesce) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!canJoin(rects.get(i), i, excluded)) {
+                continue;
+            }
+            for (int j = i + 1; j < count; j++) {
+                if (canJoin(rects.get(j), j, excluded) && RectF.intersects(bounds[i], bounds[j])) {
+                    union(i, j);
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            memberCount[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            if (canJoin(rects.get(i), i, excluded)) {
+                memberCount[find(i)]++;
+            }
+        }
+        // 只有一个成员的簇和单独模糊没有区别，仍然走控制器
+        for (int i = 0; i < count; i++) {
+            if (!canJoin(rects.get(i), i, excluded)) {
+                continue;
+            }
+            int root = find(i);
+            if (memberCount[root] < 2) {
+                continue;
+            }
+            BlurOverlayView.BlurRect rootRect = rects.get(root);
+            if (rootRect.cluster == null) {
+                Cluster cluster = obtainCluster();
+                cluster.bounds.set(bounds[root]);
+                rootRect.cluster = cluster;
+            }
+            Cluster cluster = rootRect.cluster;
+            cluster.bounds.union(bounds[i]);
+            rects.get(i).cluster = cluster;
+        }
+    }
+
+    /**
+     * 每个簇的区域截图、模糊一次。模糊失败的簇，成员回退到单独模糊
+     *
+     * @return 被质量档位跳过的簇最早需要在多少毫秒后重新模糊，0 表示没有跳过
+     */
+    long blur(@NonNull BlurController controller, @NonNull List<BlurOverlayView.BlurRect> rects) {
+        if (clusterCount == 0) {
+            return 0;
+        }
+        float scale = controller.getRegionScale();
+        float halo = controller.getRegionHalo();
+        long interval = controller.getMinUpdateIntervalMs();
+        long now = SystemClock.uptimeMillis();
+        long delay = 0;
+        boolean allocated = false;
+        for (int i = 0; i < clusterCount; i++) {
+            Cluster cluster = clusters.get(i);
+            RectF bounds = cluster.bounds;
+            int left = (int) Math.floor((bounds.left - halo) / scale);
+            int top = (int) Math.floor((bounds.top - halo) / scale);
+            int width = (int) Math.ceil((bounds.right + halo) / scale) - left;
+            int height = (int) Math.ceil((bounds.bottom + halo) / scale) - top;
+            Bitmap bitmap = cluster.bitmap;
+            if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() < height) {
+                int bitmapWidth = roundUpToStep(Math.max(width, bitmap == null ? 0 : bitmap.getWidth()));
+                int bitmapHeight = roundUpToStep(Math.max(height, bitmap == null ? 0 : bitmap.getHeight()));
+                BlurBitmapPool.park(bitmap);
+                cluster.bitmap = BlurBitmapPool.obtain(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+                cluster.blurred = false;
+                allocated = true;
+            }
+            // 区域扩大到位图的尺寸，多截一些内容不影响结果
+            region.set(left * scale, top * scale,
+                    (left + cluster.bitmap.getWidth()) * scale, (top + cluster.bitmap.getHeight()) * scale);
+            if (cluster.blurred && interval > 0 && region.equals(cluster.region)) {
+                long elapsed = now - cluster.blurTime;
+                if (elapsed < interval) {
+                    delay = delay == 0 ? interval - elapsed : Math.min(delay, interval - elapsed);
+                    continue;
+                }
+            }
+            cluster.region.set(region);
+            cluster.blurred = controller.blurRegion(cluster.region, cluster.bitmap);
+            cluster.blurTime = now;
+        }
+        if (allocated) {
+            // 超出预算时不可见的模糊视图先释放，簇位图也可能被丢弃
+            BlurMemoryGovernor.enforceBudget();
+        }
+        for (BlurOverlayView.BlurRect rect : rects) {
+            if (rect.cluster != null && (!rect.cluster.blurred || rect.cluster.bitmap == null)) {
+                rect.cluster = null;
+            }
+        }
+        return delay;
+    }
+
+    long getBytes() {
+        long bytes = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            bytes += BlurMemoryGovernor.bytesOf(clusters.get(i).bitmap);
+        }
+        return bytes;
+    }
+
+    /**
+     * 所有簇的位图放进位图池，下次绘制时重新取得
+     */
+    void release() {
+        for (Cluster cluster : clusters) {
+            BlurBitmapPool.park(cluster.bitmap);
+        }
+        trim();
+    }
+
+    /**
+     * 丢弃所有簇的位图，不放进位图池
+     */
+    void trim() {
+        for (Cluster cluster : clusters) {
+            cluster.bitmap = null;
+            cluster.blurred = false;
+        }
+        clusterCount = 0;
+    }
+
+    /**
+     * 单独设置了半径的矩形和其他矩形的模糊程度不同，不能共享结果
+     */
+    private boolean canJoin(@NonNull BlurOverlayView.BlurRect rect, int index, @Nullable BlurOverlayView.BlurRect excluded) {
+        return parent[index] >= 0 && rect != excluded && !rect.hasBlurRadius();
+    }
+
+    @NonNull
+    private Cluster obtainCluster() {
+        if (clusterCount == clusters.size()) {
+            clusters.add(new Cluster());
+        }
+        // blurred 保留上一帧的状态，区域不变时可以继续使用上次的结果
+        return clusters.get(clusterCount++);
+    }
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            // 根保持为下标最小的成员，和绘制顺序无关，只是让结果稳定
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    private void rotatedBounds(@NonNull BlurOverlayView.BlurRect rect, @NonNull RectF out) {
+        out.set(rect.mRect);
+        if (rect.rotation != 0) {
+            matrix.setRotate(rect.rotation, rect.mRect.centerX(), rect.mRect.centerY());
+            matrix.mapRect(out);
+        }
+    }
+
+    /**
+     * @return inner 旋转后的四个角都在 outer 旋转后的矩形内
+     */
+    private boolean covers(@NonNull BlurOverlayView.BlurRect outer, @NonNull BlurOverlayView.BlurRect inner) {
+        RectF rect = inner.mRect;
+        corners[0] = rect.left;
+        corners[1] = rect.top;
+        corners[2] = rect.right;
+        corners[3] = rect.top;
+        corners[4] = rect.right;
+        corners[5] = rect.bottom;
+        corners[6] = rect.left;
+        corners[7] = rect.bottom;
+        matrix.setRotate(inner.rotation, rect.centerX(), rect.centerY());
+        // 转到 outer 未旋转的坐标系
+        matrix.postRotate(-outer.rotation, outer.mRect.centerX(), outer.mRect.centerY());
+        matrix.mapPoints(corners);
+        RectF target = outer.mRect;
+        for (int i = 0; i < corners.length; i += 2) {
+            if (corners[i] < target.left - COVER_EPSILON || corners[i] > target.right + COVER_EPSILON
+                    || corners[i + 1] < target.top - COVER_EPSILON || corners[i + 1] > target.bottom + COVER_EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int count) {
+        if (parent.length >= count) {
+            return;
+        }
+        parent = new int[count];
+        memberCount = new int[count];
+        RectF[] grown = new RectF[count];
+        System.arraycopy(bounds, 0, grown, 0, bounds.length);
+        for (int i = bounds.length; i < count; i++) {
+            grown[i] = new RectF();
+        }
+        bounds = grown;
+    }
+
+    private static int roundUpToStep(int size) {
+        return (size + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+    }
+}
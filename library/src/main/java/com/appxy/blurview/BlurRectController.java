@@ -1,10 +1,19 @@
 package com.appxy.blurview;
 
+import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -12,6 +21,9 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.util.List;
+
 /**
  * 用于管理模糊效果的生命周期和操作
  */
@@ -23,6 +35,12 @@ public final class BlurRectController implements BlurController {
     @ColorInt
     public static final int TRANSPARENT = 0;
 
+    /**
+     * 截图失败时覆盖在模糊区域上的颜色
+     */
+    @ColorInt
+    private static final int EXCEPTION_COLOR = 0xEFFFFFFF;
+
     /**
      * 模糊半径，默认值在接口中定义
      */
@@ -38,11 +56,21 @@ public final class BlurRectController implements BlurController {
      */
     private final float scaleFactor;
 
+    /**
+     * 根据模糊半径规划实际的缩放因子和位图坐标系下的模糊半径
+     */
+    private final BlurPlanner planner = new BlurPlanner();
+
     /**
      * 是否添加噪点（提升视觉效果）
      */
     private final boolean applyNoise;
 
+    /**
+     * applyNoise 时持有共享的噪点纹理，destroy 时释放
+     */
+    private boolean noiseAcquired;
+
     /**
      * 用于在内部位图上绘制的画布
      */
@@ -79,6 +107,170 @@ public final class BlurRectController implements BlurController {
      */
     private final int[] blurViewLocation = new int[2];
 
+    /**
+     * 模糊图层所在覆盖层相对于根视图的偏移
+     */
+    private float overlayOffsetX, overlayOffsetY;
+
+    /**
+     * 截图区域（根视图坐标系），旋转后矩形的外接框加上模糊半径的光晕
+     */
+    private final RectF captureBounds = new RectF();
+    private final Matrix captureMatrix = new Matrix();
+
+    /**
+     * API 29-30 上用 HardwareRenderer 截图，避免软件绘制整个视图树。
+     * HardwareSnapshot 只有在连续几次请求的矩阵和裁剪区域都相同时才返回像素，所以每个截图来源各用一个：
+     * 键是矩形的 id 或者 {@link #SNAPSHOT_KEY_HALO}。
+     * 涂抹和合并的区域不使用，每个区域都只截一次，永远等不到可用的结果；共享截图也不使用，见 blurFromSharedSnapshot
+     */
+    private final SparseArray<HardwareSnapshot> hardwareSnapshots = new SparseArray<>();
+    private static final int SNAPSHOT_KEY_HALO = -1;
+    private final Matrix snapshotMatrix = new Matrix();
+
+    /**
+     * 涂抹模式下截图和模糊任意区域时使用，目标位图不变时复用画布
+     */
+    @Nullable
+    private BlurViewCanvas regionCanvas;
+    @Nullable
+    private Bitmap regionBitmap;
+
+    /**
+     * 开启共享截图时，整个覆盖层的截图和积分图，内容不变时所有矩形都从它模糊，见 {@link SummedAreaTableBlur}
+     */
+    @Nullable
+    private SummedAreaTableBlur sharedSnapshot;
+    private final RectF sharedBounds = new RectF();
+    /**
+     * 直接替换像素，结果可能带透明度
+     */
+    private final Paint sharedSnapshotPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * 设置了源位图时直接从位图读取内容，不再截取视图树，见 {@link #setSourceBitmap(Bitmap, Matrix)}
+     */
+    @Nullable
+    private BitmapSource bitmapSource;
+    /**
+     * 源位图模式下整页按半径预先模糊的金字塔，矩形直接从中采样，见 {@link #setPageCacheEnabled(boolean)}
+     */
+    @Nullable
+    private BlurPageCache pageCache;
+    /**
+     * 整页模糊缓存的磁盘缓存，见 {@link #setPageDiskCacheSize(long)}
+     */
+    @Nullable
+    private BlurTileDiskCache tileDiskCache;
+
+    // ------------------------拖动时的预模糊区域------------
+    /**
+     * 按拖动速度预留多长时间（秒）的移动距离
+     */
+    private static final float DRAG_LOOKAHEAD_SECONDS = 0.2f;
+    /**
+     * 预模糊区域在每个方向上可以额外扩展的距离，相对矩形较长边的比例
+     */
+    private static final float DRAG_MARGIN_RATIO = 0.5f;
+
+    /**
+     * 正在拖动的矩形，为空时不使用预模糊区域
+     */
+    @Nullable
+    private BlurOverlayView.BlurRect draggingRect;
+    private float dragVelocityX, dragVelocityY;
+
+    /**
+     * 预模糊区域的位图，比矩形大，按运动方向扩展
+     */
+    @Nullable
+    private Bitmap haloBitmap;
+    private BlurViewCanvas haloCanvas;
+
+    /**
+     * 预模糊区域，矩形局部坐标系（原点为截图时的矩形中心，坐标轴随矩形旋转）
+     */
+    private final RectF haloRegion = new RectF();
+
+    /**
+     * 截图时矩形的中心（覆盖层坐标系）、尺寸和旋转角度，用于判断预模糊区域是否还能用
+     */
+    private float haloCenterX, haloCenterY;
+    private float haloRectWidth, haloRectHeight;
+    private float haloRotation;
+    private boolean haloValid;
+
+    /**
+     * 当前矩形相对截图时的位移（矩形局部坐标系）
+     */
+    private float haloOffsetX, haloOffsetY;
+
+    // ------------------------交互时的渐进质量------------
+    /**
+     * 交互（调整大小、旋转）过程中缩放因子放大的倍数，1 表示不启用
+     */
+    private float interactionScaleMultiplier = 1f;
+    private long idleDelayMs = DEFAULT_IDLE_DELAY_MS;
+    private boolean interacting;
+
+    /**
+     * 内存压力下缩放因子放大的倍数，见 {@link BlurMemoryGovernor}
+     */
+    private float memoryScaleMultiplier = 1f;
+
+    /**
+     * 当前的质量档位，见 {@link BlurQualityPolicy}
+     */
+    private BlurQualityPolicy.Tier qualityTier = BlurQualityPolicy.Tier.FULL;
+    private boolean adaptiveQuality;
+
+    private final BlurQualityPolicy.Listener qualityListener = tier -> {
+        // 缩放因子变了，矩形的位图在下次绘制时按新尺寸重新创建
+        qualityTier = tier;
+        blurView.invalidate();
+    };
+
+    private final BlurMemoryGovernor.Client memoryClient = new BlurMemoryGovernor.Client() {
+        @Override
+        public long getCacheBytes() {
+            long bytes = BlurMemoryGovernor.bytesOf(haloBitmap);
+            if (sharedSnapshot != null) {
+                bytes += sharedSnapshot.getBytes();
+            }
+            if (bitmapSource != null) {
+                bytes += bitmapSource.getBytes();
+            }
+            if (pageCache != null) {
+                bytes += pageCache.getBytes();
+            }
+            if (blurView instanceof BlurOverlayView) {
+                for (BlurOverlayView.BlurRect rect : ((BlurOverlayView) blurView).getBlurRectList()) {
+                    bytes += BlurMemoryGovernor.bytesOf(rect.blurBitmap);
+                }
+                bytes += ((BlurOverlayView) blurView).getClusterBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public boolean isVisible() {
+            return blurView.isAttachedToWindow() && blurView.isShown();
+        }
+
+        @Override
+        public void trimMemory(boolean degrade) {
+            trimBitmaps(degrade);
+        }
+    };
+
+    /**
+     * 交互停顿一段时间后恢复完整质量
+     */
+    private final Runnable idleRunnable = () -> {
+        interacting = false;
+        blurView.invalidate();
+    };
+
     public static final String TAG = "BlurView";
     private boolean isHasException = false;
 
@@ -122,27 +314,59 @@ public final class BlurRectController implements BlurController {
         this.blurAlgorithm = algorithm;
         this.scaleFactor = scaleFactor;
         this.applyNoise = applyNoise;
+        if (applyNoise) {
+            SharedTextures.acquireNoise(blurView.getContext());
+            noiseAcquired = true;
+        }
         this.blurRadius = blurRadius;
+        planner.plan(blurRadius, scaleFactor, algorithm.getMaxBlurRadius());
+        BlurMemoryGovernor.register(blurView.getContext(), memoryClient);
+        setAdaptiveQuality(true);
     }
 
     public void setBlurRect(BlurOverlayView.BlurRect blurRect) {
         this.blurRect = blurRect;
         float rectWidth = blurRect.mRect.width();
         float rectHeight = blurRect.mRect.height();
+        float scale = effectiveScaleFactor();
+        // 每帧都会调用，尺寸和缩放因子没变时复用矩形上的位图和画布，不做任何分配
+        if (blurRect.canReuseBlurBitmap(scale)) {
+            blurBitmap = blurRect.blurBitmap;
+            internalCanvas = blurRect.blurCanvas;
+            initialized = true;
+            return;
+        }
         if (blurRect.blurBitmap != null) {
             blurRect.recycle();
         }
+        // 内存压力过去之后，重新创建位图时恢复完整质量
+        if (memoryScaleMultiplier > 1f && BlurMemoryGovernor.canRestoreQuality(
+                (long) Math.ceil(rectWidth / planner.scaleFactor) * (long) Math.ceil(rectHeight / planner.scaleFactor) * 4)) {
+            memoryScaleMultiplier = 1f;
+            scale = effectiveScaleFactor();
+        }
         // 计算缩放后的位图尺寸（目标区域尺寸 / scaleFactor）
-        SizeScaler sizeScaler = new SizeScaler(scaleFactor);
+        SizeScaler sizeScaler = new SizeScaler(scale, blurAlgorithm.getStrideAlignment());
         if (sizeScaler.isZeroSized(rectWidth, rectHeight)) {
+            blurBitmap = null;
             return;
         }
         SizeScaler.Size size = sizeScaler.scale(rectWidth, rectHeight);
         // 创建缩放后的位图（用于模糊计算）
-        blurBitmap = Bitmap.createBitmap(size.width, size.height, blurAlgorithm.getSupportedBitmapConfig());
+        blurBitmap = BlurBitmapPool.obtain(size.width, size.height, blurAlgorithm.getSupportedBitmapConfig());
        // blurBitmap = Bitmap.createBitmap((int) rectWidth, (int) rectHeight, blurAlgorithm.getSupportedBitmapConfig());
         internalCanvas = new BlurViewCanvas(blurBitmap);
         this.blurRect.blurBitmap = blurBitmap;
+        this.blurRect.blurCanvas = internalCanvas;
+        this.blurRect.blurSourceWidth = rectWidth;
+        this.blurRect.blurSourceHeight = rectHeight;
+        this.blurRect.blurScaleFactor = scale;
+        this.blurRect.blurUpdateTime = 0;
+        BlurMemoryGovernor.enforceBudget();
+        if (blurRect.blurBitmap == null) {
+            // 还不可见就超出了预算，等可见时再创建
+            return;
+        }
         initialized = true;
     }
 
@@ -170,19 +394,335 @@ public final class BlurRectController implements BlurController {
         }
         // 设置画布变换矩阵，使得画布上的绘制从blurView的位置开始
         setupInternalCanvasMatrix();
-        try {
-            // 整个根视图及其子树的界面内容绘制到内部画布
-            rootView.draw(internalCanvas);
-        } catch (Exception e) {
-            // Can potentially fail on rendering Hardware Bitmaps or something like that
-            Log.e("BlurView", "Error during snapshot capturing", e);
-            isHasException = true;
+        // 裁剪到截图区域，区域外的子视图会被快速剔除，截图开销只和模糊区域大小有关
+        setupCaptureBounds();
+        internalCanvas.clipRect(captureBounds);
+        if (sharedSnapshot != null && blurFromSharedSnapshot()) {
+            internalCanvas.restore();
+            return;
+        }
+        if (!drawSourceBitmap(internalCanvas, overlayOffsetX, overlayOffsetY)
+                && !captureWithHardwareSnapshot(internalCanvas, blurBitmap, captureBounds, blurRect.id)) {
+            try {
+                // 整个根视图及其子树的界面内容绘制到内部画布
+                rootView.draw(internalCanvas);
+            } catch (Exception e) {
+                // Can potentially fail on rendering Hardware Bitmaps or something like that
+                Log.e("BlurView", "Error during snapshot capturing", e);
+                isHasException = true;
+            }
         }
         // 恢复画布状态
         internalCanvas.restore();
 
         // 使用模糊算法对内部位图进行模糊
-        blurBitmap = blurAlgorithm.blur(blurBitmap, blurRadius);
+        blurBitmap = blurAlgorithm.blur(blurBitmap, effectiveBlurRadius());
+    }
+
+    /**
+     * 内容没有变化时直接用积分图模糊矩形的外接框，再按矩形的旋转和缩放画到矩形的位图上。
+     * 调用时 internalCanvas 已经设置好了根视图坐标到矩形位图的变换
+     *
+     * @return false 表示无法使用共享截图，需要单独截图
+     */
+    private boolean blurFromSharedSnapshot() {
+        if (bitmapSource == null && !(rootView instanceof BlurTarget)) {
+            return false;
+        }
+        int width = blurView.getWidth();
+        int height = blurView.getHeight();
+        // 不跟随交互时的缩放倍数，否则每次交互都要重建积分图
+        float scale = planner.scaleFactor * memoryScaleMultiplier * qualityTier.scaleMultiplier;
+        int snapshotWidth = (int) Math.ceil(width / scale);
+        int snapshotHeight = (int) Math.ceil(height / scale);
+        if (snapshotWidth == 0 || snapshotHeight == 0) {
+            return false;
+        }
+        // 源位图模式下截图内容只随源位图变化
+        int generation = bitmapSource != null ? bitmapSource.getVersion() : ((BlurTarget) rootView).getContentGeneration();
+        if (!sharedSnapshot.isValid(generation, snapshotWidth, snapshotHeight, scale)) {
+            BlurViewCanvas canvas = sharedSnapshot.prepareSnapshot(snapshotWidth, snapshotHeight);
+            canvas.save();
+            canvas.scale(1 / scale, 1 / scale);
+            canvas.translate(-overlayOffsetX, -overlayOffsetY);
+            sharedBounds.set(overlayOffsetX, overlayOffsetY, overlayOffsetX + width, overlayOffsetY + height);
+            canvas.clipRect(sharedBounds);
+            // 积分图一直用到内容下次变化，必须是当前内容的截图。HardwareSnapshot 返回的是之前请求的结果，这里不用
+            if (!drawSourceBitmap(canvas, overlayOffsetX, overlayOffsetY)) {
+                try {
+                    rootView.draw(canvas);
+                } catch (Exception e) {
+                    Log.e("BlurView", "Error during snapshot capturing", e);
+                    canvas.restore();
+                    return false;
+                }
+            }
+            canvas.restore();
+            sharedSnapshot.build(generation, scale);
+            BlurMemoryGovernor.enforceBudget();
+            if (!sharedSnapshot.isValid(generation, snapshotWidth, snapshotHeight, scale)) {
+                // 超出预算被释放了
+                return false;
+            }
+        }
+
+        // 矩形旋转后的外接框，换算到截图像素
+        RectF rect = blurRect.mRect;
+        sharedBounds.set(rect);
+        if (blurRect.rotation != 0) {
+            captureMatrix.setRotate(blurRect.rotation, rect.centerX(), rect.centerY());
+            captureMatrix.mapRect(sharedBounds);
+        }
+        sharedBounds.set(sharedBounds.left / scale, sharedBounds.top / scale,
+                sharedBounds.right / scale, sharedBounds.bottom / scale);
+        Bitmap blurred = sharedSnapshot.blur(sharedBounds, viewBlurRadius() / scale);
+        if (blurred == null) {
+            return false;
+        }
+        Rect region = sharedSnapshot.getRegion();
+        sharedBounds.set(region.left * scale + overlayOffsetX, region.top * scale + overlayOffsetY,
+                region.right * scale + overlayOffsetX, region.bottom * scale + overlayOffsetY);
+        blurBitmap.eraseColor(TRANSPARENT);
+        internalCanvas.drawBitmap(blurred, sharedSnapshot.getOutputBounds(), sharedBounds, sharedSnapshotPaint);
+        return true;
+    }
+
+    @Override
+    public BlurViewFacade setPageCacheEnabled(boolean enabled) {
+        if (enabled == (pageCache != null)) {
+            return this;
+        }
+        if (enabled) {
+            pageCache = new BlurPageCache();
+            pageCache.setOnReadyListener(blurView::invalidate);
+            pageCache.setDiskCache(tileDiskCache);
+        } else {
+            pageCache.release();
+            pageCache = null;
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setPageDiskCacheSize(long maxBytes) {
+        tileDiskCache = maxBytes > 0
+                ? new BlurTileDiskCache(new File(blurView.getContext().getCacheDir(), BlurTileDiskCache.DIRECTORY), maxBytes)
+                : null;
+        if (pageCache != null) {
+            pageCache.setDiskCache(tileDiskCache);
+        }
+        return this;
+    }
+
+    /**
+     * 从整页模糊缓存中取矩形的部分，叠加色和噪点直接画在画布上
+     *
+     * @return false 表示没有开启缓存或者缓存还在后台生成
+     */
+    private boolean drawFromPageCache(Canvas canvas) {
+        if (pageCache == null || bitmapSource == null || isHasException) {
+            return false;
+        }
+        RectF rect = blurRect.mRect;
+        // 画布已经按矩形旋转过，裁剪到矩形后转回视图坐标系
+        canvas.save();
+        canvas.clipRect(rect);
+        canvas.rotate(-blurRect.rotation, rect.centerX(), rect.centerY());
+        boolean drawn = pageCache.draw(canvas, bitmapSource, viewBlurRadius(), planner.scaleFactor);
+        canvas.restore();
+        if (!drawn) {
+            return false;
+        }
+        canvas.save();
+        canvas.clipRect(rect);
+        if (applyNoise) {
+            Noise.apply(canvas, blurView.getContext(), blurView.getWidth(), blurView.getHeight());
+        }
+        if (overlayColor != TRANSPARENT) {
+            canvas.drawColor(overlayColor);
+        }
+        canvas.restore();
+        return true;
+    }
+
+    @Override
+    public BlurViewFacade setSharedSnapshotBlur(boolean enabled) {
+        if (enabled == (sharedSnapshot != null)) {
+            return this;
+        }
+        if (enabled) {
+            sharedSnapshot = new SummedAreaTableBlur();
+            sharedSnapshotPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        } else {
+            sharedSnapshot.release();
+            sharedSnapshot = null;
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    /**
+     * 视图坐标系下的模糊半径，矩形单独设置的半径优先
+     */
+    private float viewBlurRadius() {
+        if (blurRect != null && blurRect.hasBlurRadius()) {
+            return blurRect.blurRadius * scaleFactor;
+        }
+        return planner.blurRadius * planner.scaleFactor;
+    }
+
+    /**
+     * 位图坐标系下的模糊半径，不超过模糊算法的上限
+     */
+    private float plannedRadius() {
+        if (blurRect != null && blurRect.hasBlurRadius()) {
+            return Math.min(viewBlurRadius() / planner.scaleFactor, blurAlgorithm.getMaxBlurRadius());
+        }
+        return planner.blurRadius;
+    }
+
+    /**
+     * 截取并模糊覆盖层上的任意区域，从源位图或者软件绘制根视图截图，区域每次都不同，不使用 HardwareSnapshot。
+     * 模糊算法必须直接修改位图，{@link RenderEffectBlur} 只在绘制时生效，得到的是未模糊的内容
+     */
+    @Override
+    public boolean blurRegion(@NonNull RectF region, @NonNull Bitmap out) {
+        if (!blurEnabled || region.isEmpty()) {
+            return false;
+        }
+        if (regionCanvas == null || regionBitmap != out) {
+            regionCanvas = new BlurViewCanvas(out);
+            regionBitmap = out;
+        }
+        rootView.getLocationOnScreen(rootLocation);
+        blurView.getLocationOnScreen(blurViewLocation);
+        float offsetX = blurViewLocation[0] - rootLocation[0];
+        float offsetY = blurViewLocation[1] - rootLocation[1];
+        float scaleX = out.getWidth() / region.width();
+        float scaleY = out.getHeight() / region.height();
+
+        out.eraseColor(TRANSPARENT);
+        regionCanvas.save();
+        regionCanvas.scale(scaleX, scaleY);
+        regionCanvas.translate(-(region.left + offsetX), -(region.top + offsetY));
+        captureBounds.set(region);
+        captureBounds.offset(offsetX, offsetY);
+        regionCanvas.clipRect(captureBounds);
+        if (!drawSourceBitmap(regionCanvas, offsetX, offsetY)) {
+            try {
+                rootView.draw(regionCanvas);
+            } catch (Exception e) {
+                Log.e("BlurView", "Error during snapshot capturing", e);
+                regionCanvas.restore();
+                return false;
+            }
+        }
+        regionCanvas.restore();
+
+        float radius = Math.min(getRegionHalo() * Math.max(scaleX, scaleY), blurAlgorithm.getMaxBlurRadius());
+        Bitmap blurred = blurAlgorithm.blur(out, radius);
+        if (blurred != out) {
+            regionCanvas.drawBitmap(blurred, 0, 0, null);
+        }
+        return true;
+    }
+
+    /**
+     * 和矩形的模糊程度一致：位图坐标系下的半径乘以缩放因子
+     */
+    @Override
+    public float getRegionHalo() {
+        return planner.blurRadius * planner.scaleFactor;
+    }
+
+    /**
+     * 和矩形位图相同的缩放因子，不跟随交互时的缩放倍数，否则每次交互都要重建簇位图。
+     * 按这个缩放因子截图时 {@link #blurRegion(RectF, Bitmap)} 的半径就是 viewBlurRadius() / 缩放因子，和单独模糊的矩形一致
+     */
+    @Override
+    public float getRegionScale() {
+        return planner.scaleFactor * memoryScaleMultiplier * qualityTier.scaleMultiplier;
+    }
+
+    @Override
+    public long getMinUpdateIntervalMs() {
+        return qualityTier.minUpdateIntervalMs;
+    }
+
+    /**
+     * 噪点画在各个矩形自己的位图上，共享截图和源位图时每个矩形都不需要截图，这些情况不合并
+     */
+    @Override
+    public boolean canCoalesceRects() {
+        return blurEnabled && !applyNoise && sharedSnapshot == null && bitmapSource == null
+                && blurAlgorithm.canModifyBitmap();
+    }
+
+    /**
+     * 根视图不透明时模糊结果也不透明，不透明的叠加色同样会盖住下面的内容
+     */
+    @Override
+    public boolean isRectOpaque() {
+        return rootView.isOpaque() || Color.alpha(overlayColor) == 255;
+    }
+
+    /**
+     * 用GPU回放BlurTarget已录制的RenderNode来截图，变换矩阵和裁剪区域与软件绘制相同
+     *
+     * @param key 截图来源，见 {@link #hardwareSnapshots}
+     * @return false 表示无法用GPU截图，需要回退到软件绘制
+     */
+    @SuppressLint("NewApi")
+    @SuppressWarnings("deprecation")
+    private boolean captureWithHardwareSnapshot(BlurViewCanvas canvas, Bitmap bitmap, RectF clip, int key) {
+        if (!BlurTarget.canRecordRenderNode || !(rootView instanceof BlurTarget) || !blurView.isHardwareAccelerated()
+                // 子视图设置了截图模式时只有软件绘制会处理，GPU 截图会在代理和真实内容之间切换
+                || ((BlurTarget) rootView).hasSnapshotOverrides()) {
+            return false;
+        }
+        // 第一次截图时才创建 HardwareRenderer
+        HardwareSnapshot hardwareSnapshot = hardwareSnapshots.get(key);
+        if (hardwareSnapshot == null) {
+            destroyRemovedSnapshots();
+            hardwareSnapshot = new HardwareSnapshot();
+            hardwareSnapshots.put(key, hardwareSnapshot);
+        }
+        canvas.getMatrix(snapshotMatrix);
+        return hardwareSnapshot.capture((BlurTarget) rootView, snapshotMatrix, clip, bitmap);
+    }
+
+    /**
+     * 销毁已经删除的矩形的截图，只在创建新的截图时检查
+     */
+    @SuppressLint("NewApi")
+    private void destroyRemovedSnapshots() {
+        if (!(blurView instanceof BlurOverlayView)) {
+            return;
+        }
+        List<BlurOverlayView.BlurRect> rects = ((BlurOverlayView) blurView).getBlurRectList();
+        for (int i = hardwareSnapshots.size() - 1; i >= 0; i--) {
+            int key = hardwareSnapshots.keyAt(i);
+            if (key < 0) {
+                continue;
+            }
+            boolean found = false;
+            for (int j = 0; j < rects.size() && !found; j++) {
+                found = rects.get(j).id == key;
+            }
+            if (!found) {
+                hardwareSnapshots.valueAt(i).destroy();
+                hardwareSnapshots.removeAt(i);
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void destroyHardwareSnapshots() {
+        for (int i = 0; i < hardwareSnapshots.size(); i++) {
+            hardwareSnapshots.valueAt(i).destroy();
+        }
+        hardwareSnapshots.clear();
     }
 
     /**
@@ -195,6 +735,8 @@ public final class BlurRectController implements BlurController {
         // 获取根视图和模糊图层在屏幕上的位置
         rootView.getLocationOnScreen(rootLocation);
         blurView.getLocationOnScreen(blurViewLocation);
+        overlayOffsetX = blurViewLocation[0] - rootLocation[0];
+        overlayOffsetY = blurViewLocation[1] - rootLocation[1];
         blurViewLocation[0] = (int) blurRect.mRect.left + blurViewLocation[0];
         blurViewLocation[1] = (int) blurRect.mRect.top + blurViewLocation[1];
 
@@ -217,11 +759,390 @@ public final class BlurRectController implements BlurController {
 
     }
 
+    /**
+     * 计算截图区域：矩形按旋转角度旋转后的外接框，平移到根视图坐标系，再外扩模糊半径
+     */
+    private void setupCaptureBounds() {
+        RectF rect = blurRect.mRect;
+        captureBounds.set(rect);
+        if (blurRect.rotation != 0) {
+            captureMatrix.setRotate(blurRect.rotation, rect.centerX(), rect.centerY());
+            captureMatrix.mapRect(captureBounds);
+        }
+        captureBounds.offset(overlayOffsetX, overlayOffsetY);
+        // 模糊半径是位图坐标系下的值，换算回视图坐标系作为光晕
+        float halo = effectiveBlurRadius() * Math.max(rect.width() / blurBitmap.getWidth(), rect.height() / blurBitmap.getHeight());
+        captureBounds.inset(-halo, -halo);
+    }
+
+    /**
+     * 交互过程中使用更粗的缩放因子
+     */
+    private float effectiveScaleFactor() {
+        float scale = planner.scaleFactor * memoryScaleMultiplier * qualityTier.scaleMultiplier;
+        return interacting ? scale * interactionScaleMultiplier : scale;
+    }
+
+    /**
+     * 模糊半径是位图坐标系下的值，位图缩小后半径也要同比缩小，视觉上的模糊程度才不变
+     */
+    private float effectiveBlurRadius() {
+        float radius = plannedRadius() / (memoryScaleMultiplier * qualityTier.scaleMultiplier);
+        return interacting ? radius / interactionScaleMultiplier : radius;
+    }
+
+    /**
+     * 质量档位限制了更新频率时，矩形没有移动、距离上次更新不够间隔就跳过模糊，继续显示上一次的结果
+     */
+    private boolean isUpdateThrottled() {
+        long interval = qualityTier.minUpdateIntervalMs;
+        BlurOverlayView.BlurRect rect = blurRect;
+        if (interval == 0 || rect.blurUpdateTime == 0
+                || rect.blurSourceLeft != rect.mRect.left
+                || rect.blurSourceTop != rect.mRect.top
+                || rect.blurSourceRotation != rect.rotation) {
+            return false;
+        }
+        long elapsed = SystemClock.uptimeMillis() - rect.blurUpdateTime;
+        if (elapsed < interval) {
+            // 内容在这之后可能不再变化，到时间后补一次更新
+            blurView.postInvalidateDelayed(interval - elapsed);
+            return true;
+        }
+        return false;
+    }
+
+    private void markUpdated() {
+        blurRect.blurUpdateTime = SystemClock.uptimeMillis();
+        blurRect.blurSourceLeft = blurRect.mRect.left;
+        blurRect.blurSourceTop = blurRect.mRect.top;
+        blurRect.blurSourceRotation = blurRect.rotation;
+        blurRect.blurSourceVersion = bitmapSource != null ? bitmapSource.getVersion() : -1;
+    }
+
+    /**
+     * 源位图模式下矩形没有移动、旋转，源位图和模糊参数也没有变化时，上次的结果可以继续使用。
+     * 尺寸和缩放因子变化时位图会重新创建，blurUpdateTime 归零
+     */
+    private boolean isSourceBlurCurrent() {
+        BlurOverlayView.BlurRect rect = blurRect;
+        return bitmapSource != null && rect.blurUpdateTime != 0
+                && rect.blurSourceVersion == bitmapSource.getVersion()
+                && rect.blurSourceLeft == rect.mRect.left
+                && rect.blurSourceTop == rect.mRect.top
+                && rect.blurSourceRotation == rect.rotation;
+    }
+
+    /**
+     * 画布当前是根视图坐标系，平移到覆盖层的坐标系后画上源位图
+     *
+     * @return false 表示没有设置源位图
+     */
+    private boolean drawSourceBitmap(Canvas canvas, float offsetX, float offsetY) {
+        if (bitmapSource == null) {
+            return false;
+        }
+        canvas.save();
+        canvas.translate(offsetX, offsetY);
+        bitmapSource.draw(canvas);
+        canvas.restore();
+        return true;
+    }
+
+    @Override
+    public BlurViewFacade setSourceBitmap(@Nullable Bitmap bitmap, @Nullable Matrix viewToBitmap) {
+        if (bitmap == null) {
+            bitmapSource = null;
+        } else if (bitmapSource == null || !bitmapSource.isOf(bitmap)) {
+            bitmapSource = new BitmapSource(bitmap, viewToBitmap);
+        } else {
+            bitmapSource.setMatrix(viewToBitmap);
+        }
+        // 共享截图按内容版本缓存，切换内容来源后版本不再可比
+        if (sharedSnapshot != null) {
+            sharedSnapshot.release();
+        }
+        if (bitmap == null && pageCache != null) {
+            pageCache.release();
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    @Override
+    public BlurViewFacade setAdaptiveQuality(boolean enabled) {
+        if (adaptiveQuality == enabled) {
+            return this;
+        }
+        adaptiveQuality = enabled;
+        if (enabled) {
+            BlurQualityPolicy.addListener(blurView.getContext(), qualityListener);
+            qualityTier = BlurQualityPolicy.getTier();
+        } else {
+            BlurQualityPolicy.removeListener(qualityListener);
+            qualityTier = BlurQualityPolicy.Tier.FULL;
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public BlurQualityPolicy.Tier getQualityTier() {
+        return qualityTier;
+    }
+
+    /**
+     * 丢弃所有矩形的位图引用（不回收，显示列表可能还在用），下次绘制矩形时重新创建
+     *
+     * @param degrade 重新创建时放大缩放因子
+     */
+    private void trimBitmaps(boolean degrade) {
+        if (blurView instanceof BlurOverlayView) {
+            for (BlurOverlayView.BlurRect rect : ((BlurOverlayView) blurView).getBlurRectList()) {
+                rect.blurBitmap = null;
+                rect.blurCanvas = null;
+            }
+            ((BlurOverlayView) blurView).trimClusters();
+        }
+        blurBitmap = null;
+        internalCanvas = null;
+        haloBitmap = null;
+        haloCanvas = null;
+        haloValid = false;
+        if (sharedSnapshot != null) {
+            sharedSnapshot.release();
+        }
+        if (bitmapSource != null) {
+            bitmapSource.release();
+        }
+        if (pageCache != null) {
+            pageCache.release();
+        }
+        if (degrade) {
+            memoryScaleMultiplier = BlurMemoryGovernor.DEGRADED_SCALE_MULTIPLIER;
+        }
+        blurView.invalidate();
+    }
+
+    @Override
+    public BlurViewFacade setProgressiveQuality(float interactionScaleMultiplier, long idleDelayMs) {
+        this.interactionScaleMultiplier = Math.max(1f, interactionScaleMultiplier);
+        this.idleDelayMs = idleDelayMs;
+        return this;
+    }
+
+    @Override
+    public void setInteracting(boolean interacting) {
+        blurView.removeCallbacks(idleRunnable);
+        if (interactionScaleMultiplier <= 1f) {
+            return;
+        }
+        if (interacting) {
+            this.interacting = true;
+            blurView.postDelayed(idleRunnable, idleDelayMs);
+        } else if (this.interacting) {
+            // 交互结束，做一次完整质量的模糊
+            this.interacting = false;
+            blurView.invalidate();
+        }
+    }
+
+    @Override
+    public void onRectDrag(@NonNull BlurOverlayView.BlurRect blurRect, float velocityX, float velocityY) {
+        if (draggingRect != blurRect) {
+            haloValid = false;
+        }
+        draggingRect = blurRect;
+        dragVelocityX = velocityX;
+        dragVelocityY = velocityY;
+    }
+
+    @Override
+    public void onRectDragEnd() {
+        draggingRect = null;
+        haloValid = false;
+        // 上一帧的显示列表可能还在 RenderThread 上引用光晕位图，不能回收，放进位图池
+        BlurBitmapPool.park(haloBitmap);
+        haloBitmap = null;
+        haloCanvas = null;
+    }
+
+    /**
+     * 拖动中的矩形只在预模糊区域内移动采样窗口，接近区域边缘时才重新截图和模糊
+     *
+     * @return false 表示无法使用预模糊区域，需要走普通的模糊流程
+     */
+    private boolean drawFromHalo(Canvas canvas) {
+        RectF rect = blurRect.mRect;
+        boolean sameShape = haloValid
+                && rect.width() == haloRectWidth
+                && rect.height() == haloRectHeight
+                && blurRect.rotation == haloRotation;
+        if (sameShape) {
+            updateHaloOffset();
+        }
+        if (!sameShape || !isWindowInsideHalo()) {
+            if (!captureHalo()) {
+                return false;
+            }
+            haloOffsetX = 0;
+            haloOffsetY = 0;
+        }
+
+        float haloScaleW = haloRegion.width() / haloBitmap.getWidth();
+        float haloScaleH = haloRegion.height() / haloBitmap.getHeight();
+
+        // 画布已经按矩形旋转过，坐标轴和矩形局部坐标系一致
+        canvas.save();
+        canvas.clipRect(rect);
+        canvas.translate(rect.centerX() + haloRegion.left - haloOffsetX,
+                rect.centerY() + haloRegion.top - haloOffsetY);
+        canvas.scale(haloScaleW, haloScaleH);
+        blurAlgorithm.render(canvas, haloBitmap);
+        canvas.restore();
+
+        canvas.save();
+        canvas.clipRect(rect);
+        if (applyNoise) {
+            Noise.apply(canvas, blurView.getContext(), blurView.getWidth(), blurView.getHeight());
+        }
+        if (isHasException) {
+            canvas.drawColor(EXCEPTION_COLOR);
+        } else if (overlayColor != TRANSPARENT) {
+            canvas.drawColor(overlayColor);
+        }
+        canvas.restore();
+        return true;
+    }
+
+    /**
+     * 把矩形中心相对截图时的位移转换到矩形局部坐标系
+     */
+    private void updateHaloOffset() {
+        float dx = blurRect.mRect.centerX() - haloCenterX;
+        float dy = blurRect.mRect.centerY() - haloCenterY;
+        double radians = Math.toRadians(blurRect.rotation);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        haloOffsetX = dx * cos + dy * sin;
+        haloOffsetY = -dx * sin + dy * cos;
+    }
+
+    /**
+     * 采样窗口（矩形）加上模糊半径的边缘是否还在预模糊区域内，边缘处的模糊结果不准确
+     */
+    private boolean isWindowInsideHalo() {
+        float halfWidth = haloRectWidth / 2f;
+        float halfHeight = haloRectHeight / 2f;
+        float edge = viewBlurRadius();
+        return haloOffsetX - halfWidth - edge >= haloRegion.left
+                && haloOffsetX + halfWidth + edge <= haloRegion.right
+                && haloOffsetY - halfHeight - edge >= haloRegion.top
+                && haloOffsetY + halfHeight + edge <= haloRegion.bottom;
+    }
+
+    /**
+     * 截图并模糊比矩形更大的区域，多出的部分按拖动速度偏向运动方向
+     */
+    private boolean captureHalo() {
+        RectF rect = blurRect.mRect;
+        float width = rect.width();
+        float height = rect.height();
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        double radians = Math.toRadians(blurRect.rotation);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        // 速度转换到矩形局部坐标系
+        float localVelocityX = dragVelocityX * cos + dragVelocityY * sin;
+        float localVelocityY = -dragVelocityX * sin + dragVelocityY * cos;
+
+        // 两侧都保留模糊半径的边缘，剩余的扩展距离按速度分配到运动方向
+        float edge = viewBlurRadius();
+        float margin = DRAG_MARGIN_RATIO * Math.max(width, height);
+        float leadX = leadingShare(localVelocityX, margin);
+        float leadY = leadingShare(localVelocityY, margin);
+        haloRegion.set(
+                -width / 2f - edge - (margin - leadX),
+                -height / 2f - edge - (margin - leadY),
+                width / 2f + edge + leadX,
+                height / 2f + edge + leadY
+        );
+
+        int bitmapWidth = (int) Math.ceil(haloRegion.width() / planner.scaleFactor);
+        int bitmapHeight = (int) Math.ceil(haloRegion.height() / planner.scaleFactor);
+        if (haloBitmap == null || haloBitmap.getWidth() != bitmapWidth || haloBitmap.getHeight() != bitmapHeight) {
+            BlurBitmapPool.park(haloBitmap);
+            haloBitmap = BlurBitmapPool.obtain(bitmapWidth, bitmapHeight, blurAlgorithm.getSupportedBitmapConfig());
+            haloCanvas = new BlurViewCanvas(haloBitmap);
+        }
+
+        rootView.getLocationOnScreen(rootLocation);
+        blurView.getLocationOnScreen(blurViewLocation);
+        float centerX = blurViewLocation[0] - rootLocation[0] + rect.centerX();
+        float centerY = blurViewLocation[1] - rootLocation[1] + rect.centerY();
+
+        // 截图区域：预模糊区域旋转后的外接框（根视图坐标系）
+        captureBounds.set(haloRegion);
+        captureMatrix.setRotate(blurRect.rotation);
+        captureMatrix.mapRect(captureBounds);
+        captureBounds.offset(centerX, centerY);
+
+        haloCanvas.save();
+        haloCanvas.scale(bitmapWidth / haloRegion.width(), bitmapHeight / haloRegion.height());
+        haloCanvas.translate(-haloRegion.left, -haloRegion.top);
+        haloCanvas.rotate(-blurRect.rotation);
+        haloCanvas.translate(-centerX, -centerY);
+        haloCanvas.clipRect(captureBounds);
+        if (!drawSourceBitmap(haloCanvas, blurViewLocation[0] - rootLocation[0], blurViewLocation[1] - rootLocation[1])
+                && !captureWithHardwareSnapshot(haloCanvas, haloBitmap, captureBounds, SNAPSHOT_KEY_HALO)) {
+            try {
+                rootView.draw(haloCanvas);
+            } catch (Exception e) {
+                // Can potentially fail on rendering Hardware Bitmaps or something like that
+                Log.e("BlurView", "Error during snapshot capturing", e);
+                isHasException = true;
+            }
+        }
+        haloCanvas.restore();
+        haloBitmap = blurAlgorithm.blur(haloBitmap, plannedRadius());
+
+        haloCenterX = rect.centerX();
+        haloCenterY = rect.centerY();
+        haloRectWidth = width;
+        haloRectHeight = height;
+        haloRotation = blurRect.rotation;
+        haloValid = true;
+        return true;
+    }
+
+    /**
+     * @return 扩展距离中分配给运动方向一侧的部分，静止时两侧平分
+     */
+    private static float leadingShare(float velocity, float margin) {
+        float predicted = Math.max(-margin, Math.min(margin, velocity * DRAG_LOOKAHEAD_SECONDS));
+        return margin * (0.5f + 0.5f * predicted / margin);
+    }
+
     @Override
     public boolean draw(Canvas canvas) {
         if (canvas instanceof BlurViewCanvas || blurBitmap == null) return false;
         if (!blurEnabled || !initialized) return true;
-        updateBlur();
+        if (drawFromPageCache(canvas)) {
+            return true;
+        }
+        // 共享截图时移动矩形不需要截图，不用预模糊区域
+        if (blurRect == draggingRect && sharedSnapshot == null && drawFromHalo(canvas)) {
+            return true;
+        }
+        boolean updated = false;
+        if (!isUpdateThrottled() && !isSourceBlurCurrent()) {
+            updateBlur();
+            markUpdated();
+            updated = true;
+        }
         // 目标区域的尺寸和位置（来自BlurRect）
         float rectLeft = blurRect.mRect.left;
         float rectTop = blurRect.mRect.top;
@@ -237,13 +1158,16 @@ public final class BlurRectController implements BlurController {
         canvas.translate(rectLeft, rectTop); // 1. 平移到目标区域起点
         canvas.scale(scaleFactorW, scaleFactorH); // 2. 放大到目标区域尺寸
         blurAlgorithm.render(canvas, blurBitmap);
-        if (applyNoise) {
-            Noise.apply(internalCanvas, blurView.getContext(), (int) blurRect.mRect.width(), (int) blurRect.mRect.height());
-        }
-        if (isHasException) {
-            internalCanvas.drawColor(Color.parseColor("#EFFFFFFF"));
-        } else if (overlayColor != TRANSPARENT) {
-            internalCanvas.drawColor(overlayColor);
+        // 噪点和叠加色画在位图上，跳过模糊的帧位图里已经有了，再画会越叠越深
+        if (updated) {
+            if (applyNoise) {
+                Noise.apply(internalCanvas, blurView.getContext(), (int) blurRect.mRect.width(), (int) blurRect.mRect.height());
+            }
+            if (isHasException) {
+                internalCanvas.drawColor(EXCEPTION_COLOR);
+            } else if (overlayColor != TRANSPARENT) {
+                internalCanvas.drawColor(overlayColor);
+            }
         }
 
         // 3. 渲染模糊后的位图（缩放后的位图会被放大到原尺寸）
@@ -258,19 +1182,65 @@ public final class BlurRectController implements BlurController {
     public void updateBlurViewSize() {
     }
 
+    /**
+     * 各个矩形的位图放进共享的位图池，释放 RenderScript 和截图用的 HardwareRenderer。
+     * ON_START 之后矩形绘制时从池里取回位图并重新模糊
+     */
+    @Override
+    public void onStop() {
+        blurView.removeCallbacks(idleRunnable);
+        if (blurView instanceof BlurOverlayView) {
+            for (BlurOverlayView.BlurRect rect : ((BlurOverlayView) blurView).getBlurRectList()) {
+                BlurBitmapPool.park(rect.blurBitmap);
+            }
+        }
+        BlurBitmapPool.park(haloBitmap);
+        trimBitmaps(false);
+        blurAlgorithm.release();
+        destroyHardwareSnapshots();
+    }
+
+    @Override
+    public void onStart() {
+        // 重新录制显示列表，不再引用已经放进池里的位图
+        blurView.invalidate();
+    }
+
     /**
      * 销毁资源，移除监听器，销毁模糊算法。
      */
     @Override
+    @SuppressLint("NewApi")
     public void destroy() {
+        if (noiseAcquired) {
+            SharedTextures.releaseNoise();
+            noiseAcquired = false;
+        }
         setBlurAutoUpdate(false);
+        blurView.removeCallbacks(idleRunnable);
         blurAlgorithm.destroy();
+        destroyHardwareSnapshots();
+        if (sharedSnapshot != null) {
+            sharedSnapshot.release();
+            sharedSnapshot = null;
+        }
+        if (pageCache != null) {
+            pageCache.release();
+            pageCache = null;
+        }
+        BlurMemoryGovernor.unregister(memoryClient);
+        BlurQualityPolicy.removeListener(qualityListener);
         initialized = false;
     }
 
     @Override
     public BlurViewFacade setBlurRadius(float radius) {
         this.blurRadius = radius;
+        planner.plan(radius, scaleFactor, blurAlgorithm.getMaxBlurRadius());
+        if (bitmapSource != null) {
+            bitmapSource.invalidate();
+        }
+        blurView.invalidate();
         return this;
     }
 
@@ -300,6 +1270,9 @@ public final class BlurRectController implements BlurController {
     public BlurViewFacade setOverlayColor(int overlayColor) {
         if (this.overlayColor != overlayColor) {
             this.overlayColor = overlayColor;
+            if (bitmapSource != null) {
+                bitmapSource.invalidate();
+            }
             blurView.invalidate();
         }
         return this;
@@ -1,11 +1,20 @@
 package com.appxy.blurview;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RecordingCanvas;
+import android.graphics.RectF;
 import android.graphics.RenderNode;
 import android.os.Build;
+import android.util.ArrayMap;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
@@ -14,17 +23,66 @@ import androidx.annotation.Nullable;
 /**
  * A FrameLayout that records a snapshot of its children on a RenderNode.
  * This snapshot is used by the BlurView to apply blur effect.
+ * <p>
+ * Expensive children can be left out of the snapshot or replaced by a cheap proxy,
+ * see {@link #setSnapshotMode(View, SnapshotMode)}.
  */
 public class BlurTarget extends FrameLayout {
+
+    /**
+     * How a child is drawn into the snapshots taken for the blur
+     */
+    public enum SnapshotMode {
+        /**
+         * Drawn as is, the default
+         */
+        DRAW,
+        /**
+         * Not drawn at all, for children that don't matter once blurred
+         */
+        EXCLUDE,
+        /**
+         * Drawn from a downsampled bitmap of the child, updated only when the child is invalidated
+         */
+        PROXY_BITMAP,
+        /**
+         * Filled with the average color of the child, updated only when the child is invalidated
+         */
+        PROXY_COLOR
+    }
+
+    /**
+     * Size of the proxy bitmaps relative to the child. The snapshots are downscaled anyway,
+     * and the details are lost in the blur
+     */
+    private static final int PROXY_SCALE = 8;
+
     // Need both RenderNode (API 29) and RenderEffect (API 31) to be available for a full hardware rendering pipeline
     // Android 12 开始弃用 RenderScript
     static final boolean canUseHardwareRendering = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S;
 //    public static final boolean canUseHardwareRendering = false;
+    // RenderNode alone (API 29) is enough to record the snapshot and render it with HardwareRenderer,
+    // the blur itself is then done by the BlurAlgorithm. See HardwareSnapshot
+    static final boolean canRecordRenderNode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
 
     RenderNode renderNode;
 
+    // Reused for the snapshot culling, drawChild is called for every child on every capture
+    private final RectF childBounds = new RectF();
+
+    @Nullable
+    private SnapshotBroker snapshotBroker;
+
+    // Bumped whenever the content may have changed, lets the controllers reuse a snapshot until then
+    private int contentGeneration;
+
+    // Children with a SnapshotMode other than DRAW. ArrayMap lookups don't allocate
+    private final ArrayMap<View, SnapshotProxy> snapshotProxies = new ArrayMap<>();
+    private final Paint proxyPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect proxyDirty = new Rect();
+
     {
-        if (canUseHardwareRendering) {
+        if (canRecordRenderNode) {
             renderNode = new RenderNode("BlurViewHost node");
         }
     }
@@ -45,9 +103,122 @@ public class BlurTarget extends FrameLayout {
         super(context, attrs, defStyleAttr, defStyleRes);
     }
 
+    /**
+     * @return the broker that lets all BlurViews of this target share a single snapshot per frame
+     */
+    @NonNull
+    SnapshotBroker getSnapshotBroker() {
+        if (snapshotBroker == null) {
+            snapshotBroker = new SnapshotBroker(this);
+        }
+        return snapshotBroker;
+    }
+
+    /**
+     * @return a counter that changes whenever the content of this target may have changed
+     */
+    int getContentGeneration() {
+        return contentGeneration;
+    }
+
+    /**
+     * Sets how a direct child of this target is drawn into the snapshots. Only the snapshots drawn
+     * in software are affected. The RenderNode replayed by the RenderEffect controllers on API 31+
+     * always contains the full child, replaying it on the GPU is cheap anyway. On API 29-30 the
+     * GPU snapshots are not used while any child has a mode, so the blur doesn't switch between
+     * the proxy and the real child.
+     *
+     * @param child a direct child of this target
+     * @param mode  {@link SnapshotMode#DRAW} to draw the child normally again
+     */
+    public void setSnapshotMode(@NonNull View child, @NonNull SnapshotMode mode) {
+        if (child.getParent() != this) {
+            throw new IllegalArgumentException("Only direct children of the BlurTarget can have a snapshot mode");
+        }
+        if (mode == SnapshotMode.DRAW) {
+            snapshotProxies.remove(child);
+        } else {
+            SnapshotProxy proxy = snapshotProxies.get(child);
+            if (proxy == null) {
+                proxy = new SnapshotProxy();
+                snapshotProxies.put(child, proxy);
+            }
+            proxy.mode = mode;
+            proxy.valid = false;
+        }
+        contentGeneration++;
+    }
+
+    /**
+     * @return how the child is drawn into the snapshots, {@link SnapshotMode#DRAW} unless set otherwise
+     */
+    @NonNull
+    public SnapshotMode getSnapshotMode(@NonNull View child) {
+        SnapshotProxy proxy = snapshotProxies.get(child);
+        return proxy == null ? SnapshotMode.DRAW : proxy.mode;
+    }
+
+    /**
+     * @return whether any child has a {@link SnapshotMode} other than {@link SnapshotMode#DRAW},
+     * HardwareSnapshot can't honor them and the snapshots are drawn in software then
+     */
+    boolean hasSnapshotOverrides() {
+        return !snapshotProxies.isEmpty();
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        snapshotProxies.remove(child);
+    }
+
+    @Override
+    public void onDescendantInvalidated(@NonNull View child, @NonNull View target) {
+        super.onDescendantInvalidated(child, target);
+        markContentChanged(target);
+        // child is always the direct child that contains the invalidated view
+        SnapshotProxy proxy = snapshotProxies.get(child);
+        if (proxy != null) {
+            proxy.valid = false;
+        }
+    }
+
+    /**
+     * Called instead of onDescendantInvalidated before API 26 and for software rendering
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        contentGeneration++;
+        // Only the dirty region is known here, every proxy under it is redrawn.
+        // The dirty rect is still in the coordinates of the child at location, which is where super
+        // moves it to. Moving the proxies the other way instead leaves dirty untouched for super,
+        // the scroll offset cancels out on both sides
+        for (int i = 0; i < snapshotProxies.size(); i++) {
+            View child = snapshotProxies.keyAt(i);
+            proxyDirty.set(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+            proxyDirty.offset(-location[0], -location[1]);
+            if (Rect.intersects(proxyDirty, dirty)) {
+                snapshotProxies.valueAt(i).valid = false;
+            }
+        }
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    private void markContentChanged(@NonNull View invalidated) {
+        // The blur views redraw on every frame, that is not a change of the content behind them
+        if (!(invalidated instanceof BlurView) && !(invalidated instanceof BlurOverlayView)) {
+            contentGeneration++;
+        }
+    }
+
     @Override
     protected void dispatchDraw(@NonNull Canvas canvas) {
-        if (canUseHardwareRendering && canvas.isHardwareAccelerated()) {
+        // Snapshots draw the target as well, only a real redraw means the content changed
+        if (!(canvas instanceof BlurViewCanvas)) {
+            contentGeneration++;
+        }
+        if (canRecordRenderNode && canvas.isHardwareAccelerated()) {
             renderNode.setPosition(0, 0, getWidth(), getHeight());
             RecordingCanvas recordingCanvas = renderNode.beginRecording();
             super.dispatchDraw(recordingCanvas);
@@ -57,4 +228,126 @@ public class BlurTarget extends FrameLayout {
             super.dispatchDraw(canvas);
         }
     }
+
+    @Override
+    protected boolean drawChild(@NonNull Canvas canvas, View child, long drawingTime) {
+        // Controllers clip the snapshot canvas to the blurred region (plus the blur halo),
+        // so children outside of it can be skipped before running any of their draw code.
+        if (canvas instanceof BlurViewCanvas) {
+            if (isOutsideOfSnapshot(canvas, child)) {
+                return false;
+            }
+            SnapshotProxy proxy = snapshotProxies.get(child);
+            if (proxy != null) {
+                drawProxy(canvas, child, proxy);
+                return false;
+            }
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
+    private void drawProxy(@NonNull Canvas canvas, @NonNull View child, @NonNull SnapshotProxy proxy) {
+        if (proxy.mode == SnapshotMode.EXCLUDE || child.getVisibility() != VISIBLE
+                || child.getWidth() == 0 || child.getHeight() == 0) {
+            return;
+        }
+        if (!proxy.valid || proxy.width != child.getWidth() || proxy.height != child.getHeight()) {
+            proxy.update(child);
+        }
+        canvas.save();
+        canvas.translate(child.getLeft(), child.getTop());
+        Matrix childMatrix = child.getMatrix();
+        if (!childMatrix.isIdentity()) {
+            canvas.concat(childMatrix);
+        }
+        int alpha = Math.round(child.getAlpha() * 255);
+        if (proxy.mode == SnapshotMode.PROXY_COLOR) {
+            proxyPaint.setColor(proxy.color);
+            proxyPaint.setAlpha(Color.alpha(proxy.color) * alpha / 255);
+            canvas.drawRect(0, 0, child.getWidth(), child.getHeight(), proxyPaint);
+        } else {
+            proxyPaint.setAlpha(alpha);
+            canvas.scale((float) child.getWidth() / proxy.bitmap.getWidth(),
+                    (float) child.getHeight() / proxy.bitmap.getHeight());
+            canvas.drawBitmap(proxy.bitmap, 0, 0, proxyPaint);
+        }
+        canvas.restore();
+    }
+
+    /**
+     * The framework only quick-rejects children without transformations,
+     * here the child's matrix is taken into account as well.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean isOutsideOfSnapshot(@NonNull Canvas canvas, @NonNull View child) {
+        childBounds.set(0, 0, child.getWidth(), child.getHeight());
+        Matrix childMatrix = child.getMatrix();
+        if (!childMatrix.isIdentity()) {
+            childMatrix.mapRect(childBounds);
+        }
+        childBounds.offset(child.getLeft(), child.getTop());
+        return canvas.quickReject(childBounds, Canvas.EdgeType.BW);
+    }
+
+    /**
+     * Cached low detail version of a child, redrawn only after the child is invalidated
+     */
+    private static final class SnapshotProxy {
+        SnapshotMode mode = SnapshotMode.DRAW;
+        boolean valid;
+        int width, height;
+        @Nullable
+        Bitmap bitmap;
+        @Nullable
+        BlurViewCanvas canvas;
+        int color;
+        private int[] pixels = new int[0];
+
+        /**
+         * Draws the child downscaled. A BlurViewCanvas is used so that BlurViews inside of the child skip themselves
+         */
+        void update(@NonNull View child) {
+            width = child.getWidth();
+            height = child.getHeight();
+            int bitmapWidth = Math.max(1, width / PROXY_SCALE);
+            int bitmapHeight = Math.max(1, height / PROXY_SCALE);
+            if (bitmap == null || bitmap.getWidth() != bitmapWidth || bitmap.getHeight() != bitmapHeight) {
+                bitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+                canvas = new BlurViewCanvas(bitmap);
+            }
+            bitmap.eraseColor(Color.TRANSPARENT);
+            canvas.save();
+            canvas.scale((float) bitmapWidth / width, (float) bitmapHeight / height);
+            canvas.translate(-child.getScrollX(), -child.getScrollY());
+            child.draw(canvas);
+            canvas.restore();
+            if (mode == SnapshotMode.PROXY_COLOR) {
+                // The bitmap and canvas are kept for the next update, animated children are invalidated every frame
+                color = averageColor();
+            }
+            valid = true;
+        }
+
+        private int averageColor() {
+            int size = bitmap.getWidth() * bitmap.getHeight();
+            if (pixels.length < size) {
+                pixels = new int[size];
+            }
+            bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+            // Weighted by the alpha, transparent pixels don't pull the color towards black
+            long a = 0, r = 0, g = 0, b = 0;
+            for (int i = 0; i < size; i++) {
+                int pixel = pixels[i];
+                int alpha = pixel >>> 24;
+                a += alpha;
+                r += (long) Color.red(pixel) * alpha;
+                g += (long) Color.green(pixel) * alpha;
+                b += (long) Color.blue(pixel) * alpha;
+            }
+            if (a == 0) {
+                return Color.TRANSPARENT;
+            }
+            return Color.argb((int) (a / size), (int) (r / a), (int) (g / a), (int) (b / a));
+        }
+    }
 }
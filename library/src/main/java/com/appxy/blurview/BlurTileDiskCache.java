@@ -0,0 +1,252 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * {@link BlurPageCache} 的磁盘缓存：每个金字塔存成缓存目录下的一个文件，重新打开同一个文档时直接读取，不再模糊。
+ * <p>
+ * 文件名是模糊输入的摘要：缩小后的页面像素、模糊半径、模糊算法和缩放比例，输入相同时结果一定相同，
+ * 不需要额外的失效逻辑。文件通过内存映射读写，像素从映射区直接复制到块位图，中间没有额外的数组。
+ * 先写入临时文件并刷到磁盘，再原子地重命名，进程在写入途中被杀也不会留下不完整的缓存文件，
+ * 残留的临时文件在下次使用时删除。总大小超过上限时按最近使用时间删除最旧的文件，读取时更新文件的修改时间。
+ * <p>
+ * 只在 {@link BlurPageCache} 的后台线程访问。
+ */
+final class BlurTileDiskCache {
+    static final String DIRECTORY = "blurview-tiles";
+    private static final String SUFFIX = ".tiles";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x424C5443;
+    /**
+     * 文件格式或者模糊结果变化时增加，旧文件的摘要不再匹配，会被逐渐淘汰
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final String ALGORITHM = "RecursiveGaussianBlur";
+    /**
+     * 防止损坏的文件头导致分配巨大的数组
+     */
+    private static final int MAX_LEVELS = 32;
+
+    private final File directory;
+    private final long maxBytes;
+    private boolean opened;
+    private final Rect bounds = new Rect();
+
+    /**
+     * @param maxBytes 所有缓存文件的总大小上限
+     */
+    BlurTileDiskCache(@NonNull File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param base       缩小后还没有模糊的页面
+     * @param radius     第 0 级像素坐标下的模糊半径
+     * @param texelWidth 第 0 级每个像素对应的源位图像素
+     * @return 文件名使用的摘要，null 表示无法计算
+     */
+    @Nullable
+    String keyOf(@NonNull Bitmap base, float radius, float texelWidth, float texelHeight) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putInt(FORMAT_VERSION)
+                .putInt(base.getWidth())
+                .putInt(base.getHeight())
+                .putFloat(radius)
+                .putFloat(texelWidth)
+                .putFloat(texelHeight);
+        digest.update(header.array());
+        digest.update(ALGORITHM.getBytes());
+        ByteBuffer pixels = ByteBuffer.allocate(base.getByteCount());
+        base.copyPixelsToBuffer(pixels);
+        digest.update(pixels.array());
+
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return 缓存的各级，没有缓存或者文件损坏时返回 null（损坏的文件同时删除）
+     */
+    @Nullable
+    BlurPageCache.Level[] read(@NonNull String key) {
+        open();
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        BlurPageCache.Level[] levels;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            levels = readLevels(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.w(BlurController.TAG, "Unreadable page cache file " + file.getName(), e);
+            levels = null;
+        }
+        if (levels == null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+        // 修改时间作为最近使用时间
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return levels;
+    }
+
+    @Nullable
+    private BlurPageCache.Level[] readLevels(@NonNull MappedByteBuffer buffer) {
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        int count = buffer.getInt();
+        if (count < 1 || count > MAX_LEVELS || buffer.remaining() < count * 8) {
+            return null;
+        }
+        BlurPageCache.Level[] levels = new BlurPageCache.Level[count];
+        long pixelBytes = 0;
+        for (int i = 0; i < count; i++) {
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (width < 1 || height < 1) {
+                return null;
+            }
+            levels[i] = new BlurPageCache.Level(width, height);
+            pixelBytes += pixelBytesOf(levels[i]);
+        }
+        if (buffer.remaining() != pixelBytes) {
+            return null;
+        }
+        for (BlurPageCache.Level level : levels) {
+            for (int row = 0; row < level.rows; row++) {
+                for (int column = 0; column < level.columns; column++) {
+                    level.tileBounds(column, row, bounds);
+                    Bitmap tile = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+                    // 从映射区的当前位置复制，复制后位置前进到下一块
+                    tile.copyPixelsFromBuffer(buffer);
+                    level.tiles[row * level.columns + column] = tile;
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * 写入临时文件后重命名，再按总大小淘汰最旧的文件
+     */
+    void write(@NonNull String key, @NonNull BlurPageCache.Level[] levels) {
+        open();
+        long size = 12 + levels.length * 8L;
+        for (BlurPageCache.Level level : levels) {
+            size += pixelBytesOf(level);
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        File temp = new File(directory, key + TEMP_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(levels.length);
+            for (BlurPageCache.Level level : levels) {
+                buffer.putInt(level.width).putInt(level.height);
+            }
+            for (BlurPageCache.Level level : levels) {
+                for (Bitmap tile : level.tiles) {
+                    tile.copyPixelsToBuffer(buffer);
+                }
+            }
+            buffer.force();
+        } catch (IOException | RuntimeException e) {
+            Log.w(BlurController.TAG, "Error while writing the page cache", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(directory, key + SUFFIX))) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * 第一次使用时创建目录，删除上次进程写到一半留下的临时文件
+     */
+    private void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static long pixelBytesOf(@NonNull BlurPageCache.Level level) {
+        long bytes = 0;
+        Rect bounds = new Rect();
+        for (int row = 0; row < level.rows; row++) {
+            for (int column = 0; column < level.columns; column++) {
+                level.tileBounds(column, row, bounds);
+                bytes += (long) bounds.width() * bounds.height() * 4;
+            }
+        }
+        return bytes;
+    }
+}
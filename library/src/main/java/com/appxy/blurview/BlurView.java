@@ -7,7 +7,9 @@ import static com.appxy.blurview.PreDrawBlurController.TRANSPARENT;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -16,6 +18,11 @@ import android.widget.FrameLayout;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ViewTreeLifecycleOwner;
 
 import com.appxy.tinyscanner.R;
 
@@ -32,6 +39,21 @@ public class BlurView extends FrameLayout {
     private int overlayColor;
     private boolean blurAutoUpdate = true;
 
+    // Heavy resources are released while the hosting Activity/Fragment is stopped
+    @Nullable
+    private Lifecycle lifecycle;
+    private final DefaultLifecycleObserver lifecycleObserver = new DefaultLifecycleObserver() {
+        @Override
+        public void onStart(@NonNull LifecycleOwner owner) {
+            blurController.onStart();
+        }
+
+        @Override
+        public void onStop(@NonNull LifecycleOwner owner) {
+            blurController.onStop();
+        }
+    };
+
     public BlurView(Context context) {
         super(context);
         init(null, 0);
@@ -71,6 +93,10 @@ public class BlurView extends FrameLayout {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         blurController.setBlurAutoUpdate(false);
+        if (lifecycle != null) {
+            lifecycle.removeObserver(lifecycleObserver);
+            lifecycle = null;
+        }
     }
 
     @Override
@@ -81,6 +107,12 @@ public class BlurView extends FrameLayout {
         } else {
             blurController.setBlurAutoUpdate(this.blurAutoUpdate);
         }
+        LifecycleOwner owner = ViewTreeLifecycleOwner.get(this);
+        if (owner != null) {
+            // Dispatches ON_START right away if the owner is already started
+            lifecycle = owner.getLifecycle();
+            lifecycle.addObserver(lifecycleObserver);
+        }
     }
 
     /**
@@ -101,6 +133,9 @@ public class BlurView extends FrameLayout {
         } else {
             blurController = new PreDrawBlurController(this, target, overlayColor, algorithm, scaleFactor, blurRadius, applyNoise);
         }
+        if (lifecycle != null && !lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            blurController.onStop();
+        }
         return blurController;
     }
 
@@ -139,6 +174,13 @@ public class BlurView extends FrameLayout {
         return blurController.setOverlayColor(overlayColor);
     }
 
+    /**
+     * @see BlurViewFacade#setSourceBitmap(Bitmap, Matrix)
+     */
+    public BlurViewFacade setSourceBitmap(@Nullable Bitmap bitmap, @Nullable Matrix viewToBitmap) {
+        return blurController.setSourceBitmap(bitmap, viewToBitmap);
+    }
+
     /**
      * @see BlurViewFacade#setBlurAutoUpdate(boolean)
      */
@@ -1,8 +1,11 @@
 package com.appxy.blurview;
 
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.drawable.Drawable;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public interface BlurViewFacade {
@@ -33,6 +36,8 @@ public interface BlurViewFacade {
 
     /**
      * @param radius sets the blur radius. The real blur radius is radius * scaleFactor.
+     *               The snapshot may be downscaled further than the scaleFactor to keep large radii cheap,
+     *               the real blur radius stays the same.
      *               Default value is {@link BlurController#DEFAULT_BLUR_RADIUS}
      * @return {@link BlurViewFacade}
      */
@@ -45,4 +50,107 @@ public interface BlurViewFacade {
      * @return {@link BlurViewFacade}
      */
     BlurViewFacade setOverlayColor(@ColorInt int overlayColor);
+
+    /**
+     * Enables the progressive quality. While the user interacts with the blurred content
+     * (resizes or rotates a rect, scrolls the target) the blur is done at a coarser scale,
+     * and a single full quality blur is done once the interaction ends or stays idle.
+     * Disabled by default.
+     *
+     * @param interactionScaleMultiplier how much the scale factor is increased during the interaction.
+     *                                   1 disables the progressive quality.
+     * @param idleDelayMs                time without interaction events after which the full quality is restored.
+     * @return {@link BlurViewFacade}
+     */
+    default BlurViewFacade setProgressiveQuality(float interactionScaleMultiplier, long idleDelayMs) {
+        return this;
+    }
+
+    /**
+     * Follows {@link BlurQualityPolicy}: under thermal pressure or in battery saver mode
+     * the blur is updated less often and done at a coarser scale. Enabled by default.
+     *
+     * @param enabled false to always blur at full quality
+     * @return {@link BlurViewFacade}
+     */
+    default BlurViewFacade setAdaptiveQuality(boolean enabled) {
+        return this;
+    }
+
+    /**
+     * Only for {@link BlurOverlayView} on API &lt; 31. The content behind the whole overlay is captured once
+     * per content change into a summed-area table, every rect is then blurred from it with a cost
+     * independent of its radius, and moving or adding rects doesn't capture anything.
+     * The Gaussian is approximated with three box filters. Disabled by default.
+     *
+     * @param enabled true to blur the rects from the shared snapshot
+     * @return {@link BlurViewFacade}
+     */
+    default BlurViewFacade setSharedSnapshotBlur(boolean enabled) {
+        return this;
+    }
+
+    /**
+     * Temporal mode for backdrops that animate continuously. The content is captured and blurred
+     * only every {@code frameInterval} frames, the frames in between cross-fade from the previous
+     * blurred result to the latest one. Both results are shifted by how far the blurred view moved
+     * since they were captured. Lowers the blur cost by about {@code frameInterval} times,
+     * at the price of the blur lagging one interval behind the content. Disabled by default.
+     *
+     * @param frameInterval number of frames per blur, 1 blurs every frame
+     * @return {@link BlurViewFacade}
+     */
+    default BlurViewFacade setTemporalBlur(int frameInterval) {
+        return this;
+    }
+
+    /**
+     * Blurs the given bitmap instead of capturing the target, for targets that only show a static image
+     * such as a scanned page. The bitmap is downsampled through a chain of 2x2 averages, and the blur
+     * is only redone when the bitmap, its content or the matrix changes.
+     * Ignored by the RenderEffect based controllers on API 31+, where the capture is done on the GPU.
+     *
+     * @param bitmap       the image behind the blurred view, null to capture the target again
+     * @param viewToBitmap maps the coordinates of the blurred view to the pixels of the bitmap, null for identity
+     * @return {@link BlurViewFacade}
+     */
+    default BlurViewFacade setSourceBitmap(@Nullable Bitmap bitmap, @Nullable Matrix viewToBitmap) {
+        return this;
+    }
+
+    /**
+     * With a source bitmap set, blurs the whole bitmap once per blur radius on a background thread
+     * into a tiled pyramid of halved levels. Rects then draw from the level closest to the screen density,
+     * so moving, resizing, rotating or copying them costs a textured draw instead of a capture and a blur.
+     * Rects are blurred individually until the pyramid is ready. Disabled by default.
+     *
+     * @param enabled true to enable the page cache
+     * @return {@link BlurViewFacade}
+     * @see #setSourceBitmap(Bitmap, Matrix)
+     */
+    default BlurViewFacade setPageCacheEnabled(boolean enabled) {
+        return this;
+    }
+
+    /**
+     * Persists the page cache pyramids in memory-mapped files under the app cache directory,
+     * so reopening the same page reads the blurred tiles instead of blurring it again.
+     * Files are keyed by a hash of the downscaled page, the blur radius, the algorithm and the scale.
+     * They are written atomically and evicted least recently used first once they exceed {@code maxBytes}.
+     *
+     * @param maxBytes total size of the cache files, 0 to disable the disk cache
+     * @return {@link BlurViewFacade}
+     * @see #setPageCacheEnabled(boolean)
+     */
+    default BlurViewFacade setPageDiskCacheSize(long maxBytes) {
+        return this;
+    }
+
+    /**
+     * @return the quality tier the blur is currently done at
+     */
+    @NonNull
+    default BlurQualityPolicy.Tier getQualityTier() {
+        return BlurQualityPolicy.Tier.FULL;
+    }
 }
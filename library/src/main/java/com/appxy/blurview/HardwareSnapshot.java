@@ -0,0 +1,201 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.HardwareRenderer;
+import android.graphics.Matrix;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.RecordingCanvas;
+import android.graphics.RectF;
+import android.graphics.RenderNode;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders the RenderNode recorded by {@link BlurTarget} into a downscaled bitmap on the GPU.
+ * <p>
+ * Used on API 29-30, where RenderNode and HardwareRenderer already exist, but RenderEffect doesn't.
+ * The hierarchy is not re-drawn in software, the already recorded display list is replayed by the
+ * HardwareRenderer into an ImageReader, and the pixels are copied into the bitmap that is then
+ * blurred by the regular {@link BlurAlgorithm}.
+ * <p>
+ * The BlurTarget node holds the content of the last drawn frame, so the snapshot taken in a pre-draw
+ * listener is one frame behind the content that is about to be drawn.
+ * <p>
+ * The render request doesn't wait for the GPU, which would block the UI thread in pre-draw.
+ * Instead every capture copies the image rendered by an earlier capture and queues a new one,
+ * adding at most one more frame of latency. That image is only used when the earlier requests were
+ * recorded with the same matrix and clip, so a moving BlurView falls back to the software snapshot
+ * instead of showing content at a stale position.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+final class HardwareSnapshot {
+    private static final int MAX_IMAGES = 2;
+
+    private final RenderNode snapshotNode = new RenderNode("BlurView snapshot node");
+    private final HardwareRenderer renderer = new HardwareRenderer();
+
+    @Nullable
+    private ImageReader imageReader;
+    private int width;
+    private int height;
+
+    private final Matrix lastMatrix = new Matrix();
+    private final RectF lastClip = new RectF();
+    private boolean lastHadClip;
+    /**
+     * Number of consecutive requests rendered with the current matrix and clip
+     */
+    private int unchangedRequests;
+    /**
+     * Rows of the image packed without padding, used when the row stride doesn't match the bitmap
+     */
+    @Nullable
+    private ByteBuffer packedRows;
+
+    HardwareSnapshot() {
+        renderer.setContentRoot(snapshotNode);
+        renderer.setOpaque(false);
+    }
+
+    /**
+     * @param target BlurTarget which content should be captured
+     * @param matrix maps the target coordinates to the bitmap coordinates
+     * @param clip   optional region of the target to render, in target coordinates
+     * @param bitmap destination bitmap, must be {@link Bitmap.Config#ARGB_8888}
+     * @return false if the snapshot couldn't be taken on the GPU,
+     * the caller is expected to fall back to the software drawing in that case
+     */
+    boolean capture(@NonNull BlurTarget target, @NonNull Matrix matrix, @Nullable RectF clip, @NonNull Bitmap bitmap) {
+        RenderNode targetNode = target.renderNode;
+        if (targetNode == null || !targetNode.hasDisplayList()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || !bitmap.isMutable()) {
+            return false;
+        }
+        ensureSize(bitmap.getWidth(), bitmap.getHeight());
+        boolean unchanged = matrix.equals(lastMatrix)
+                && (clip == null ? !lastHadClip : lastHadClip && clip.equals(lastClip));
+        if (!unchanged) {
+            unchangedRequests = 0;
+            lastMatrix.set(matrix);
+            lastHadClip = clip != null;
+            if (clip != null) {
+                lastClip.set(clip);
+            }
+        }
+        // Any of the last MAX_IMAGES requests may have produced the latest image
+        boolean copied = copyLatestImage(bitmap, unchangedRequests >= MAX_IMAGES);
+
+        snapshotNode.setPosition(0, 0, width, height);
+        RecordingCanvas canvas = snapshotNode.beginRecording(width, height);
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            canvas.concat(matrix);
+            if (clip != null) {
+                canvas.clipRect(clip);
+            }
+            canvas.drawRenderNode(targetNode);
+        } finally {
+            snapshotNode.endRecording();
+        }
+
+        int result = renderer.createRenderRequest()
+                .setWaitForPresent(false)
+                .syncAndDraw();
+        if ((result & (HardwareRenderer.SYNC_LOST_SURFACE_REWARD_IF_FOUND
+                | HardwareRenderer.SYNC_CONTEXT_IS_STOPPED
+                | HardwareRenderer.SYNC_FRAME_DROPPED)) != 0) {
+            unchangedRequests = 0;
+        } else {
+            unchangedRequests++;
+        }
+        return copied;
+    }
+
+    /**
+     * Always drains the reader, so that the next capture gets a fresh image
+     *
+     * @param usable whether the latest image was rendered with the current matrix and clip
+     */
+    private boolean copyLatestImage(@NonNull Bitmap bitmap, boolean usable) {
+        Image image = imageReader.acquireLatestImage();
+        if (image == null) {
+            return false;
+        }
+        try {
+            if (!usable) {
+                return false;
+            }
+            Image.Plane plane = image.getPlanes()[0];
+            if (plane.getPixelStride() != 4) {
+                return false;
+            }
+            ByteBuffer buffer = plane.getBuffer();
+            buffer.rewind();
+            int rowBytes = bitmap.getRowBytes();
+            if (plane.getRowStride() == rowBytes) {
+                bitmap.copyPixelsFromBuffer(buffer);
+            } else {
+                // The buffer pads its rows, copy them one by one into a packed buffer
+                bitmap.copyPixelsFromBuffer(packRows(buffer, plane.getRowStride(), rowBytes, bitmap.getHeight()));
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(BlurController.TAG, "Error during hardware snapshot readback", e);
+            return false;
+        } finally {
+            image.close();
+        }
+    }
+
+    @NonNull
+    private ByteBuffer packRows(@NonNull ByteBuffer buffer, int rowStride, int rowBytes, int rows) {
+        if (packedRows == null || packedRows.capacity() != rowBytes * rows) {
+            packedRows = ByteBuffer.allocateDirect(rowBytes * rows);
+        }
+        packedRows.clear();
+        for (int row = 0; row < rows; row++) {
+            buffer.limit(row * rowStride + rowBytes);
+            buffer.position(row * rowStride);
+            packedRows.put(buffer);
+        }
+        packedRows.rewind();
+        return packedRows;
+    }
+
+    private void ensureSize(int width, int height) {
+        if (imageReader != null && this.width == width && this.height == height) {
+            return;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+        }
+        this.width = width;
+        this.height = height;
+        unchangedRequests = 0;
+        packedRows = null;
+        imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGES,
+                HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_CPU_READ_OFTEN);
+        renderer.setSurface(imageReader.getSurface());
+    }
+
+    void destroy() {
+        renderer.destroy();
+        snapshotNode.discardDisplayList();
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+        packedRows = null;
+    }
+}
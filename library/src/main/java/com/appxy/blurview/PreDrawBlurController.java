@@ -1,8 +1,15 @@
 package com.appxy.blurview;
 
+import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -38,6 +45,11 @@ public final class PreDrawBlurController implements BlurController {
      */
     private final float scaleFactor;
 
+    /**
+     * 根据模糊半径规划实际的缩放因子和位图坐标系下的模糊半径
+     */
+    private final BlurPlanner planner = new BlurPlanner();
+
     /**
      *  是否添加噪点（提升视觉效果）
      */
@@ -53,6 +65,132 @@ public final class PreDrawBlurController implements BlurController {
      */
     private Bitmap internalBitmap;
 
+    /**
+     * 完整质量的位图和画布，internalBitmap/internalCanvas 指向当前使用的一组
+     */
+    private Bitmap fullQualityBitmap;
+    private BlurViewCanvas fullQualityCanvas;
+
+    /**
+     * 交互（滚动）过程中使用的低分辨率位图和画布
+     */
+    @Nullable
+    private Bitmap coarseBitmap;
+    private BlurViewCanvas coarseCanvas;
+
+    /**
+     * 交互过程中缩放因子放大的倍数，1 表示不启用渐进质量
+     */
+    private float interactionScaleMultiplier = 1f;
+    private long idleDelayMs = DEFAULT_IDLE_DELAY_MS;
+    private boolean interacting;
+
+    /**
+     * 时间累积模式：每 temporalInterval 帧才截图、模糊一次，中间帧混合最近两次的模糊结果，
+     * 见 {@link #setTemporalBlur(int)}。1 表示每帧都模糊
+     */
+    private int temporalInterval = 1;
+    private int framesSinceBlur;
+    /**
+     * 上一次的模糊结果，新的模糊开始前从 internalBitmap 复制过来
+     */
+    @Nullable
+    private Bitmap previousBitmap;
+    @Nullable
+    private BlurViewCanvas previousCanvas;
+    private boolean latestValid, previousValid;
+    /**
+     * 两份结果截图时模糊视图相对根视图的位置，中间帧按当前位置平移（重投影），模糊视图自己移动时不需要重新截图
+     */
+    private int latestLeft, latestTop, previousLeft, previousTop;
+    private int viewLeft, viewTop;
+    /**
+     * 上次录制显示列表时的混合比例和位置，变化时才需要重新绘制
+     */
+    private float drawnBlend = 1f;
+    private int drawnLeft, drawnTop;
+    private final Paint temporalCopyPaint = new Paint();
+
+    /**
+     * 设置了源位图时直接从位图读取内容，不再截取视图树，见 {@link #setSourceBitmap(Bitmap, Matrix)}
+     */
+    @Nullable
+    private BitmapSource bitmapSource;
+    /**
+     * 上次模糊时源位图的版本，版本没变就不需要重新模糊
+     */
+    private int sourceBlurVersion = -1;
+
+    /**
+     * 停止滚动一段时间后恢复完整质量
+     */
+    private final Runnable idleRunnable = () -> {
+        interacting = false;
+        invalidateSource();
+        blurView.invalidate();
+    };
+
+    /**
+     * 内存压力下缩放因子放大的倍数，见 {@link BlurMemoryGovernor}
+     */
+    private float memoryScaleMultiplier = 1f;
+
+    /**
+     * 位图被 BlurMemoryGovernor 释放了，下次可见时重新创建
+     */
+    private boolean trimmed;
+
+    /**
+     * 宿主处于 ON_STOP，位图已经放进 BlurBitmapPool，ON_START 之后再恢复
+     */
+    private boolean stopped;
+
+    /**
+     * 当前的质量档位，见 {@link BlurQualityPolicy}
+     */
+    private BlurQualityPolicy.Tier qualityTier = BlurQualityPolicy.Tier.FULL;
+    private boolean adaptiveQuality = true;
+    private long lastUpdateTime;
+
+    private final BlurQualityPolicy.Listener qualityListener = tier -> {
+        qualityTier = tier;
+        invalidateSource();
+        // 缩放因子变了，重新创建位图
+        if (!trimmed) {
+            updateBlurViewSize();
+        }
+        blurView.invalidate();
+    };
+
+    /**
+     * 限制更新频率时跳过的帧，到时间后再触发一帧来补上
+     */
+    private final Runnable deferredUpdate = () -> blurView.invalidate();
+
+    private final BlurMemoryGovernor.Client memoryClient = new BlurMemoryGovernor.Client() {
+        @Override
+        public long getCacheBytes() {
+            return BlurMemoryGovernor.bytesOf(fullQualityBitmap) + BlurMemoryGovernor.bytesOf(coarseBitmap)
+                    + BlurMemoryGovernor.bytesOf(previousBitmap)
+                    + (bitmapSource != null ? bitmapSource.getBytes() : 0);
+        }
+
+        @Override
+        public boolean isVisible() {
+            return blurView.isAttachedToWindow() && blurView.isShown();
+        }
+
+        @Override
+        public void trimMemory(boolean degrade) {
+            trimBitmaps(degrade);
+        }
+    };
+
+    /**
+     * 根视图内发生滚动时进入交互状态
+     */
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener = () -> setInteracting(true);
+
     /**
      * 应用模糊效果的视图
      */
@@ -79,6 +217,29 @@ public final class PreDrawBlurController implements BlurController {
      */
     private final int[] blurViewLocation = new int[2];
 
+    /**
+     * 截图区域（根视图坐标系），模糊视图的范围加上模糊半径的光晕
+     */
+    private final RectF captureBounds = new RectF();
+
+    /**
+     * API 29-30 上用 HardwareRenderer 截图，避免软件绘制整个视图树。为空时走软件绘制
+     */
+    @Nullable
+    private HardwareSnapshot hardwareSnapshot;
+    private final Matrix snapshotMatrix = new Matrix();
+
+    /**
+     * 根视图是BlurTarget时，多个模糊视图共享同一帧的截图
+     */
+    @Nullable
+    private SnapshotBroker snapshotBroker;
+
+    /**
+     * 从共享截图裁剪时使用，直接替换像素而不是叠加
+     */
+    private final Paint cropPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
     private float denisity;
     public static final String TAG = "BlurView";
 
@@ -92,8 +253,25 @@ public final class PreDrawBlurController implements BlurController {
             // This relies on the HW accelerated bitmap drawing behavior in Android
             // If the bitmap was drawn on HW accelerated canvas, it holds a reference to it and on next
             // drawing pass the updated content of the bitmap will be rendered on the screen
+            // 被内存管理释放过的位图，等视图可见时再重新创建并模糊
+            if (trimmed) {
+                if (blurView.isShown() && !stopped) {
+                    restoreAfterTrim();
+                }
+                return true;
+            }
+            if (isUpdateThrottled() || isSourceBlurCurrent()) {
+                return true;
+            }
+            if (skipTemporalFrame()) {
+                invalidateTemporalFrame();
+                return true;
+            }
             // 在绘制前更新模糊
             updateBlur();
+            if (temporalInterval > 1) {
+                invalidateTemporalFrame();
+            }
             return true;
         }
     };
@@ -108,6 +286,16 @@ public final class PreDrawBlurController implements BlurController {
      */
     private boolean initialized;
 
+    /**
+     * 截图、共享截图订阅和各种监听在第一次拿到非零尺寸时才创建，见 {@link #setUpOnce()}
+     */
+    private boolean setUp;
+
+    /**
+     * 是否自动更新，布局完成前只记录，setUp 之后才真正注册预绘制监听
+     */
+    private boolean blurAutoUpdate = true;
+
     /**
      * 可选的用于清除帧的Drawable
      */
@@ -137,24 +325,63 @@ public final class PreDrawBlurController implements BlurController {
         this.scaleFactor = scaleFactor;
         this.applyNoise = applyNoise;
         this.blurRadius = blurRadius;
+        planBlur();
 
-        int measuredWidth = blurView.getMeasuredWidth();
-        int measuredHeight = blurView.getMeasuredHeight();
         denisity = blurView.getResources().getDisplayMetrics().density;
-        init(measuredWidth, measuredHeight);
+        // 在 onCreate 里调用时视图还没有布局，等 onSizeChanged -> updateBlurViewSize 再初始化，
+        // 启动时只分配一次位图、模糊一次
+        if (blurView.isLaidOut()) {
+            init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
+        } else {
+            blurView.setWillNotDraw(true);
+        }
+    }
+
+    /**
+     * 第一次拿到非零尺寸时创建截图工具、订阅共享截图并注册监听，之后再调用没有效果
+     */
+    private void setUpOnce() {
+        if (setUp) {
+            return;
+        }
+        setUp = true;
+        if (rootView instanceof BlurTarget) {
+            snapshotBroker = ((BlurTarget) rootView).getSnapshotBroker();
+            snapshotBroker.subscribe(this, planner.scaleFactor);
+            cropPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+        BlurMemoryGovernor.register(blurView.getContext(), memoryClient);
+        if (adaptiveQuality) {
+            BlurQualityPolicy.addListener(blurView.getContext(), qualityListener);
+            qualityTier = BlurQualityPolicy.getTier();
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
     void init(int measuredWidth, int measuredHeight) {
-        setBlurAutoUpdate(true);
-        SizeScaler sizeScaler = new SizeScaler(scaleFactor);
-        if (sizeScaler.isZeroSized(measuredWidth, measuredHeight)) {
+        if (blurAlgorithm == null) {
+            Log.d(TAG, "------没有模糊算法,参数传递错误");
+            return;
+        }
+        if (measuredWidth == 0 || measuredHeight == 0) {
             // 如果尺寸为0，则先不绘制，等尺寸变化时再初始化
             blurView.setWillNotDraw(true);
             return;
         }
-        if (blurAlgorithm == null) {
-            Log.d(TAG, "------没有模糊算法,参数传递错误");
+        if (stopped) {
+            // 停止期间不分配位图，ON_START 之后再创建
+            trimmed = true;
+            return;
+        }
+        trimmed = false;
+        setUpOnce();
+        setBlurAutoUpdate(blurAutoUpdate);
+        if (memoryScaleMultiplier > 1f && BlurMemoryGovernor.canRestoreQuality(estimateBytes(measuredWidth, measuredHeight))) {
+            memoryScaleMultiplier = 1f;
+        }
+        SizeScaler sizeScaler = new SizeScaler(planner.scaleFactor * qualityScaleMultiplier(), blurAlgorithm.getStrideAlignment());
+        if (sizeScaler.isZeroSized(measuredWidth, measuredHeight)) {
+            blurView.setWillNotDraw(true);
             return;
         }
 
@@ -162,24 +389,34 @@ public final class PreDrawBlurController implements BlurController {
         // 计算缩放后的位图尺寸（降低分辨率提升性能）
         SizeScaler.Size newBitmapSize = sizeScaler.scale(measuredWidth, measuredHeight);
         // 检查是否需要重新创建位图
-        if (internalBitmap == null || internalBitmap.getWidth() != newBitmapSize.width
-                || internalBitmap.getHeight() != newBitmapSize.height) {
+        if (fullQualityBitmap == null || fullQualityBitmap.getWidth() != newBitmapSize.width
+                || fullQualityBitmap.getHeight() != newBitmapSize.height) {
 
             // 回收旧位图
-            if (internalBitmap != null && !internalBitmap.isRecycled()) {
-                internalBitmap.recycle();
+            if (fullQualityBitmap != null && !fullQualityBitmap.isRecycled()) {
+                fullQualityBitmap.recycle();
             }
 
             // 创建新位图（使用模糊算法支持的配置）
-            internalBitmap = Bitmap.createBitmap(newBitmapSize.width, newBitmapSize.height, blurAlgorithm.getSupportedBitmapConfig());
+            fullQualityBitmap = BlurBitmapPool.obtain(newBitmapSize.width, newBitmapSize.height, blurAlgorithm.getSupportedBitmapConfig());
             // 创建画布
-            internalCanvas = new BlurViewCanvas(internalBitmap);
+            fullQualityCanvas = new BlurViewCanvas(fullQualityBitmap);
+            latestValid = false;
+            previousValid = false;
+            BlurMemoryGovernor.enforceBudget();
+            if (trimmed) {
+                // 还不可见就超出了预算，等可见时再创建
+                return;
+            }
         }
+        selectQuality();
         Log.d(TAG, "-----imageWidth=" + internalBitmap.getWidth() + ",imageHeight=" + internalBitmap.getHeight());
 
         initialized = true; // 标记已初始化
-        // 初始更新模糊
-        updateBlur();
+        // 自动更新时马上就有一次预绘制，这里不用重复模糊
+        if (!blurAutoUpdate) {
+            updateBlur();
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -194,23 +431,352 @@ public final class PreDrawBlurController implements BlurController {
 //            // 使用这个 Drawable绘制到内部画布（internalCanvas）上
 //            frameClearDrawable.draw(internalCanvas);
 //        }
+        selectQuality();
         // 保存画布状态
         internalCanvas.save();
         // 设置画布变换矩阵，使得画布上的绘制从blurView的位置开始
         setupInternalCanvasMatrix();
-        try {
-            // 整个根视图及其子树的界面内容绘制到内部画布
-            rootView.draw(internalCanvas);
-        } catch (Exception e) {
-            // Can potentially fail on rendering Hardware Bitmaps or something like that
-            Log.e("BlurView", "Error during snapshot capturing", e);
+        latestLeft = blurViewLocation[0] - rootLocation[0];
+        latestTop = blurViewLocation[1] - rootLocation[1];
+        // 裁剪到截图区域，区域外的子视图会被快速剔除，截图开销只和模糊区域大小有关
+        internalCanvas.clipRect(captureBounds);
+        if (!drawSourceBitmap() && !cropFromSharedSnapshot() && !captureWithHardwareSnapshot()) {
+            try {
+                // 整个根视图及其子树的界面内容绘制到内部画布
+                rootView.draw(internalCanvas);
+            } catch (Exception e) {
+                // Can potentially fail on rendering Hardware Bitmaps or something like that
+                Log.e("BlurView", "Error during snapshot capturing", e);
+            }
         }
         // 恢复画布状态
         internalCanvas.restore();
 
         // 使用模糊算法对内部位图进行模糊
-        internalBitmap = blurAlgorithm.blur(internalBitmap, blurRadius);
-        Log.d(TAG, "-------blurRadius=" + blurRadius);
+        // 模糊半径是位图坐标系下的值，低分辨率位图上半径同比缩小
+        float radius = planner.blurRadius / qualityScaleMultiplier();
+        if (internalBitmap != fullQualityBitmap) {
+            radius /= interactionScaleMultiplier;
+        }
+        internalBitmap = blurAlgorithm.blur(internalBitmap, radius);
+        latestValid = true;
+        if (bitmapSource != null) {
+            sourceBlurVersion = bitmapSource.getVersion();
+        }
+    }
+
+    /**
+     * @return true 表示源位图和模糊参数都没有变化，上次的结果可以继续使用
+     */
+    private boolean isSourceBlurCurrent() {
+        return bitmapSource != null && initialized && latestValid && sourceBlurVersion == bitmapSource.getVersion();
+    }
+
+    /**
+     * 画布当前是根视图坐标系，平移到模糊视图的坐标系后画上源位图
+     *
+     * @return false 表示没有设置源位图
+     */
+    private boolean drawSourceBitmap() {
+        if (bitmapSource == null) {
+            return false;
+        }
+        internalCanvas.save();
+        internalCanvas.translate(latestLeft, latestTop);
+        bitmapSource.draw(internalCanvas);
+        internalCanvas.restore();
+        return true;
+    }
+
+    private void invalidateSource() {
+        if (bitmapSource != null) {
+            bitmapSource.invalidate();
+        }
+    }
+
+    @Override
+    public BlurViewFacade setSourceBitmap(@Nullable Bitmap bitmap, @Nullable Matrix viewToBitmap) {
+        if (bitmap == null) {
+            bitmapSource = null;
+        } else if (bitmapSource == null || !bitmapSource.isOf(bitmap)) {
+            bitmapSource = new BitmapSource(bitmap, viewToBitmap);
+            sourceBlurVersion = -1;
+        } else {
+            bitmapSource.setMatrix(viewToBitmap);
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    /**
+     * 时间累积模式下，不到间隔的帧跳过模糊；到了间隔先保留当前结果作为上一次的结果，再由调用方重新模糊
+     *
+     * @return true 表示这一帧不需要模糊
+     */
+    private boolean skipTemporalFrame() {
+        if (temporalInterval <= 1 || !initialized) {
+            return false;
+        }
+        framesSinceBlur++;
+        if (framesSinceBlur < temporalInterval && latestValid) {
+            return true;
+        }
+        framesSinceBlur = 0;
+        keepPreviousBlur();
+        return false;
+    }
+
+    private void keepPreviousBlur() {
+        if (!latestValid) {
+            return;
+        }
+        Bitmap latest = internalBitmap;
+        if (previousBitmap == null || previousBitmap.getWidth() != latest.getWidth()
+                || previousBitmap.getHeight() != latest.getHeight()) {
+            previousBitmap = BlurBitmapPool.obtain(latest.getWidth(), latest.getHeight(), latest.getConfig());
+            previousCanvas = new BlurViewCanvas(previousBitmap);
+        }
+        previousCanvas.drawBitmap(latest, 0, 0, temporalCopyPaint);
+        previousLeft = latestLeft;
+        previousTop = latestTop;
+        previousValid = true;
+    }
+
+    /**
+     * 新的结果在 interval - 1 帧内从 0 过渡到 1，最后一帧和上一帧相同，不再安排新的帧，
+     * 背景静止时不会一直重绘
+     */
+    private float temporalBlend() {
+        if (!previousValid) {
+            return 1f;
+        }
+        return Math.min(1f, (framesSinceBlur + 1f) / Math.max(1, temporalInterval - 1));
+    }
+
+    /**
+     * 位图内容的更新不需要重新录制显示列表，但混合比例和平移量需要
+     */
+    private void invalidateTemporalFrame() {
+        updateViewOffset();
+        if (temporalBlend() != drawnBlend || viewLeft != drawnLeft || viewTop != drawnTop) {
+            blurView.invalidate();
+        }
+    }
+
+    private void updateViewOffset() {
+        rootView.getLocationOnScreen(rootLocation);
+        blurView.getLocationOnScreen(blurViewLocation);
+        viewLeft = blurViewLocation[0] - rootLocation[0];
+        viewTop = blurViewLocation[1] - rootLocation[1];
+    }
+
+    @Override
+    public BlurViewFacade setTemporalBlur(int frameInterval) {
+        int interval = Math.max(1, frameInterval);
+        if (interval == temporalInterval) {
+            return this;
+        }
+        temporalInterval = interval;
+        framesSinceBlur = 0;
+        if (interval == 1) {
+            previousBitmap = null;
+            previousCanvas = null;
+            previousValid = false;
+        } else {
+            temporalCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+        blurView.invalidate();
+        return this;
+    }
+
+    /**
+     * 丢弃位图引用（不回收，显示列表可能还在用），可见的视图在下一帧重新创建
+     *
+     * @param degrade 重新创建时放大缩放因子
+     */
+    private void trimBitmaps(boolean degrade) {
+        if (fullQualityBitmap == null) {
+            return;
+        }
+        fullQualityBitmap = null;
+        fullQualityCanvas = null;
+        coarseBitmap = null;
+        coarseCanvas = null;
+        internalBitmap = null;
+        internalCanvas = null;
+        previousBitmap = null;
+        previousCanvas = null;
+        latestValid = false;
+        previousValid = false;
+        if (bitmapSource != null) {
+            bitmapSource.release();
+        }
+        initialized = false;
+        trimmed = true;
+        if (degrade) {
+            memoryScaleMultiplier = BlurMemoryGovernor.DEGRADED_SCALE_MULTIPLIER;
+        }
+        blurView.invalidate();
+    }
+
+    /**
+     * 内存压力和质量档位一起决定的缩放因子倍数
+     */
+    private float qualityScaleMultiplier() {
+        return memoryScaleMultiplier * qualityTier.scaleMultiplier;
+    }
+
+    /**
+     * 质量档位限制了更新频率时，距离上次更新不够间隔的帧跳过模糊，继续显示上一次的结果
+     */
+    private boolean isUpdateThrottled() {
+        long interval = qualityTier.minUpdateIntervalMs;
+        if (interval == 0) {
+            return false;
+        }
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastUpdateTime;
+        if (elapsed < interval) {
+            // 内容在这之后可能不再变化，到时间后补一次更新
+            blurView.removeCallbacks(deferredUpdate);
+            blurView.postDelayed(deferredUpdate, interval - elapsed);
+            return true;
+        }
+        lastUpdateTime = now;
+        return false;
+    }
+
+    @Override
+    public BlurViewFacade setAdaptiveQuality(boolean enabled) {
+        if (adaptiveQuality == enabled) {
+            return this;
+        }
+        adaptiveQuality = enabled;
+        if (!setUp) {
+            // setUpOnce 时再注册
+            return this;
+        }
+        if (enabled) {
+            BlurQualityPolicy.addListener(blurView.getContext(), qualityListener);
+            qualityTier = BlurQualityPolicy.getTier();
+        } else {
+            BlurQualityPolicy.removeListener(qualityListener);
+            qualityTier = BlurQualityPolicy.Tier.FULL;
+        }
+        if (initialized) {
+            updateBlurViewSize();
+        }
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public BlurQualityPolicy.Tier getQualityTier() {
+        return qualityTier;
+    }
+
+    private void restoreAfterTrim() {
+        init(blurView.getMeasuredWidth(), blurView.getMeasuredHeight());
+        updateBlur();
+        blurView.invalidate();
+    }
+
+    /**
+     * @return 完整质量下位图大约占用的字节数
+     */
+    private long estimateBytes(int width, int height) {
+        return (long) Math.ceil(width / planner.scaleFactor) * (long) Math.ceil(height / planner.scaleFactor) * 4;
+    }
+
+    /**
+     * 交互过程中切换到低分辨率位图，否则使用完整质量的位图
+     */
+    private void selectQuality() {
+        if (!interacting || interactionScaleMultiplier <= 1f) {
+            internalBitmap = fullQualityBitmap;
+            internalCanvas = fullQualityCanvas;
+            return;
+        }
+        int width = Math.max(1, (int) Math.ceil(fullQualityBitmap.getWidth() / interactionScaleMultiplier));
+        int height = Math.max(1, (int) Math.ceil(fullQualityBitmap.getHeight() / interactionScaleMultiplier));
+        if (coarseBitmap == null || coarseBitmap.getWidth() != width || coarseBitmap.getHeight() != height) {
+            if (coarseBitmap != null) {
+                coarseBitmap.recycle();
+            }
+            coarseBitmap = Bitmap.createBitmap(width, height, blurAlgorithm.getSupportedBitmapConfig());
+            coarseCanvas = new BlurViewCanvas(coarseBitmap);
+        }
+        internalBitmap = coarseBitmap;
+        internalCanvas = coarseCanvas;
+    }
+
+    @Override
+    public BlurViewFacade setProgressiveQuality(float interactionScaleMultiplier, long idleDelayMs) {
+        this.interactionScaleMultiplier = Math.max(1f, interactionScaleMultiplier);
+        this.idleDelayMs = idleDelayMs;
+        return this;
+    }
+
+    @Override
+    public void setInteracting(boolean interacting) {
+        blurView.removeCallbacks(idleRunnable);
+        if (interactionScaleMultiplier <= 1f) {
+            return;
+        }
+        if (interacting) {
+            if (!this.interacting) {
+                invalidateSource();
+            }
+            this.interacting = true;
+            blurView.postDelayed(idleRunnable, idleDelayMs);
+        } else if (this.interacting) {
+            // 交互结束，做一次完整质量的模糊
+            this.interacting = false;
+            invalidateSource();
+            blurView.invalidate();
+        }
+    }
+
+    /**
+     * 同一个BlurTarget上有多个模糊视图时，从共享截图中裁剪出本视图的区域。
+     * 只有一个模糊视图时，直接按裁剪区域截图开销更小
+     *
+     * @return false 表示没有使用共享截图
+     */
+    private boolean cropFromSharedSnapshot() {
+        if (snapshotBroker == null || snapshotBroker.getSubscriberCount() < 2) {
+            return false;
+        }
+        Bitmap snapshot = snapshotBroker.capture();
+        if (snapshot == null) {
+            return false;
+        }
+        // 画布当前是根视图坐标系，共享截图坐标 * scale = 根视图坐标
+        float snapshotScale = snapshotBroker.getScale();
+        internalCanvas.scale(snapshotScale, snapshotScale);
+        internalCanvas.drawBitmap(snapshot, 0, 0, cropPaint);
+        return true;
+    }
+
+    /**
+     * 用GPU回放BlurTarget已录制的RenderNode来截图，变换矩阵和裁剪区域与软件绘制相同
+     *
+     * @return false 表示无法用GPU截图，需要回退到软件绘制
+     */
+    @SuppressLint("NewApi")
+    @SuppressWarnings("deprecation")
+    private boolean captureWithHardwareSnapshot() {
+        if (!BlurTarget.canRecordRenderNode || !(rootView instanceof BlurTarget) || !blurView.isHardwareAccelerated()
+                // 子视图设置了截图模式时只有软件绘制会处理，GPU 截图会在代理和真实内容之间切换
+                || ((BlurTarget) rootView).hasSnapshotOverrides()) {
+            return false;
+        }
+        // 第一次截图时才创建 HardwareRenderer，ON_STOP 时销毁
+        if (hardwareSnapshot == null) {
+            hardwareSnapshot = new HardwareSnapshot();
+        }
+        internalCanvas.getMatrix(snapshotMatrix);
+        return hardwareSnapshot.capture((BlurTarget) rootView, snapshotMatrix, captureBounds, internalBitmap);
     }
 
     /**
@@ -236,6 +802,11 @@ public final class PreDrawBlurController implements BlurController {
 
         internalCanvas.translate(scaledLeftPosition, scaledTopPosition);
         internalCanvas.scale(1 / scaleFactorW, 1 / scaleFactorH);
+
+        // 视图坐标系下的模糊半径作为光晕
+        float halo = blurRadius * scaleFactor;
+        captureBounds.set(left, top, left + blurView.getWidth(), top + blurView.getHeight());
+        captureBounds.inset(-halo, -halo);
     }
 
     @Override
@@ -252,6 +823,11 @@ public final class PreDrawBlurController implements BlurController {
         float scaleFactorH = (float) blurView.getHeight() / internalBitmap.getHeight();
         float scaleFactorW = (float) blurView.getWidth() / internalBitmap.getWidth();
 
+        if (temporalInterval > 1 && previousValid) {
+            drawTemporal(canvas);
+            return true;
+        }
+
         canvas.save();
         // 缩放画布，与内部位图的缩放比例一致
         canvas.scale(scaleFactorW, scaleFactorH);
@@ -269,11 +845,36 @@ public final class PreDrawBlurController implements BlurController {
 //            canvas.drawColor(overlayColor);
 //        }
 
-        canvas.drawBitmap(internalBitmap, 0, 0, null);
-
         return true;
     }
 
+    /**
+     * 上一次的结果打底，最新的结果按混合比例盖在上面，两份结果都按截图时的位置平移到当前位置
+     */
+    private void drawTemporal(Canvas canvas) {
+        updateViewOffset();
+        float blend = temporalBlend();
+        if (blend < 1f) {
+            drawBuffer(canvas, previousBitmap, previousLeft - viewLeft, previousTop - viewTop);
+        }
+        int saveCount = blend < 1f
+                ? canvas.saveLayerAlpha(0, 0, blurView.getWidth(), blurView.getHeight(), Math.round(blend * 255))
+                : canvas.save();
+        drawBuffer(canvas, internalBitmap, latestLeft - viewLeft, latestTop - viewTop);
+        canvas.restoreToCount(saveCount);
+        drawnBlend = blend;
+        drawnLeft = viewLeft;
+        drawnTop = viewTop;
+    }
+
+    private void drawBuffer(Canvas canvas, Bitmap bitmap, float dx, float dy) {
+        canvas.save();
+        canvas.translate(dx, dy);
+        canvas.scale((float) blurView.getWidth() / bitmap.getWidth(), (float) blurView.getHeight() / bitmap.getHeight());
+        blurAlgorithm.render(canvas, bitmap);
+        canvas.restore();
+    }
+
     /**
      * 当视图尺寸变化时重新初始化。
      */
@@ -284,22 +885,102 @@ public final class PreDrawBlurController implements BlurController {
         init(measuredWidth, measuredHeight);
     }
 
+    /**
+     * 位图放进共享的位图池，释放 RenderScript 和截图用的 HardwareRenderer。
+     * 视图和监听器保持不变，ON_START 之后第一次预绘制时重新创建
+     */
+    @Override
+    public void onStop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        blurView.removeCallbacks(idleRunnable);
+        blurView.removeCallbacks(deferredUpdate);
+        if (fullQualityBitmap != null) {
+            BlurBitmapPool.park(fullQualityBitmap);
+            BlurBitmapPool.park(coarseBitmap);
+            BlurBitmapPool.park(previousBitmap);
+            trimBitmaps(false);
+        }
+        if (blurAlgorithm != null) {
+            blurAlgorithm.release();
+        }
+        if (hardwareSnapshot != null) {
+            hardwareSnapshot.destroy();
+            hardwareSnapshot = null;
+        }
+        if (snapshotBroker != null) {
+            snapshotBroker.unsubscribe(this);
+        }
+    }
+
+    @Override
+    public void onStart() {
+        if (!stopped) {
+            return;
+        }
+        stopped = false;
+        if (snapshotBroker != null) {
+            snapshotBroker.subscribe(this, planner.scaleFactor);
+        }
+        if (!setUp) {
+            // 停止期间跳过了第一次初始化
+            updateBlurViewSize();
+        }
+        // 重新录制显示列表，不再引用已经放进池里的位图
+        blurView.invalidate();
+    }
+
     /**
      * 销毁资源，移除监听器，销毁模糊算法。
      */
     @Override
+    @SuppressLint("NewApi")
     public void destroy() {
         setBlurAutoUpdate(false);
+        blurView.removeCallbacks(idleRunnable);
+        if (coarseBitmap != null) {
+            coarseBitmap.recycle();
+            coarseBitmap = null;
+            coarseCanvas = null;
+        }
         blurAlgorithm.destroy();
+        if (hardwareSnapshot != null) {
+            hardwareSnapshot.destroy();
+            hardwareSnapshot = null;
+        }
+        if (snapshotBroker != null) {
+            snapshotBroker.unsubscribe(this);
+            snapshotBroker = null;
+        }
+        BlurMemoryGovernor.unregister(memoryClient);
+        BlurQualityPolicy.removeListener(qualityListener);
+        blurView.removeCallbacks(deferredUpdate);
         initialized = false;
     }
 
     @Override
     public BlurViewFacade setBlurRadius(float radius) {
         this.blurRadius = radius;
+        invalidateSource();
+        float oldScaleFactor = planner.scaleFactor;
+        planBlur();
+        if (oldScaleFactor != planner.scaleFactor) {
+            // 缩放因子变了，位图尺寸也要跟着变
+            if (snapshotBroker != null) {
+                snapshotBroker.subscribe(this, planner.scaleFactor);
+            }
+            updateBlurViewSize();
+        }
         return this;
     }
 
+    private void planBlur() {
+        float maxBlurRadius = blurAlgorithm != null ? blurAlgorithm.getMaxBlurRadius() : Float.MAX_VALUE;
+        planner.plan(blurRadius, scaleFactor, maxBlurRadius);
+    }
+
     /**
      * 设置自定义背景清除方式
      */
@@ -318,10 +999,14 @@ public final class PreDrawBlurController implements BlurController {
     }
 
     public BlurViewFacade setBlurAutoUpdate(final boolean enabled) {
+        blurAutoUpdate = enabled;
         rootView.getViewTreeObserver().removeOnPreDrawListener(drawListener);
+        rootView.getViewTreeObserver().removeOnScrollChangedListener(scrollListener);
         blurView.getViewTreeObserver().removeOnPreDrawListener(drawListener);
-        if (enabled) {
+        // 还没有布局时只记录，第一次 init 时再注册
+        if (enabled && setUp) {
             rootView.getViewTreeObserver().addOnPreDrawListener(drawListener);
+            rootView.getViewTreeObserver().addOnScrollChangedListener(scrollListener);
             // 处理跨窗口情况（如对话框中的模糊视图）
             if (rootView.getWindowId() != blurView.getWindowId()) {
                 blurView.getViewTreeObserver().addOnPreDrawListener(drawListener);
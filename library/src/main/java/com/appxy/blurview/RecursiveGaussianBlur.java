@@ -0,0 +1,332 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gaussian blur approximated with the recursive filter of Young and van Vliet
+ * ("Recursive implementation of the Gaussian filter", 1995).
+ * <p>
+ * Every row and then every column is filtered by a third order IIR filter running forward and backward,
+ * so the cost per pixel doesn't depend on the radius, and fractional radii are supported.
+ * Rows and columns are split in bands processed in parallel, each band owns a reused row buffer.
+ * <p>
+ * Works on the premultiplied pixels, all four channels are filtered the same way.
+ * Unlike {@link RenderScriptBlur} the radius is not limited.
+ */
+public class RecursiveGaussianBlur implements BlurAlgorithm {
+    /**
+     * Below this sigma the filter is unstable, and the blur isn't visible anyway
+     */
+    private static final float MIN_SIGMA = 0.5f;
+    /**
+     * Smaller bitmaps are not worth the scheduling overhead
+     */
+    private static final int MIN_PARALLEL_PIXELS = 128 * 128;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int parallelism;
+    @Nullable
+    private ExecutorService executor;
+    private final Band[] bands;
+
+    private int width, height;
+    private int[] pixels = new int[0];
+    @Nullable
+    private IntBuffer pixelBuffer;
+    // Result of the horizontal pass, transposed so that the vertical pass also reads contiguous rows
+    private float[] transposed = new float[0];
+
+    // Normalized filter coefficients, recomputed only when the radius changes
+    private float lastRadius = -1f;
+    private float gain, a1, a2, a3;
+
+    public RecursiveGaussianBlur() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param parallelism number of threads filtering the bands, including the calling one
+     */
+    public RecursiveGaussianBlur(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, was " + parallelism);
+        }
+        this.parallelism = parallelism;
+        bands = new Band[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            bands[i] = new Band();
+        }
+    }
+
+    /**
+     * @param bitmap     bitmap to blur, must be {@link Bitmap.Config#ARGB_8888}
+     * @param blurRadius blur radius, converted to sigma the same way as ScriptIntrinsicBlur does
+     * @return blurred bitmap
+     */
+    @Override
+    public Bitmap blur(@NonNull Bitmap bitmap, float blurRadius) {
+        float sigma = sigmaOf(blurRadius);
+        if (sigma < MIN_SIGMA) {
+            return bitmap;
+        }
+        if (blurRadius != lastRadius) {
+            lastRadius = blurRadius;
+            computeCoefficients(sigma);
+        }
+        prepare(bitmap);
+        pixelBuffer.rewind();
+        bitmap.copyPixelsToBuffer(pixelBuffer);
+
+        runPass(true, height);
+        runPass(false, width);
+
+        pixelBuffer.rewind();
+        bitmap.copyPixelsFromBuffer(pixelBuffer);
+        return bitmap;
+    }
+
+    /**
+     * Same mapping as ScriptIntrinsicBlur, so that a radius looks the same with both algorithms
+     */
+    static float sigmaOf(float radius) {
+        return radius * 0.4f + 0.6f;
+    }
+
+    /**
+     * Coefficients from the paper, normalized by b0
+     */
+    private void computeCoefficients(float sigma) {
+        double q = sigma >= 2.5
+                ? 0.98711 * sigma - 0.96330
+                : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3);
+        double b3 = 0.422205 * q3;
+        a1 = (float) (b1 / b0);
+        a2 = (float) (b2 / b0);
+        a3 = (float) (b3 / b0);
+        gain = 1f - (a1 + a2 + a3);
+    }
+
+    private void prepare(@NonNull Bitmap bitmap) {
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return;
+        }
+        width = bitmap.getWidth();
+        height = bitmap.getHeight();
+        int size = width * height;
+        if (pixels.length < size) {
+            pixels = new int[size];
+            transposed = new float[size * 4];
+        }
+        pixelBuffer = IntBuffer.wrap(pixels, 0, size);
+        int rowLength = Math.max(width, height) * 4;
+        for (Band band : bands) {
+            if (band.row.length < rowLength) {
+                band.row = new float[rowLength];
+            }
+        }
+    }
+
+    /**
+     * @param horizontal true for the rows of the bitmap, false for its columns
+     * @param lines      number of rows or columns to filter
+     */
+    private void runPass(boolean horizontal, int lines) {
+        int bandCount = width * height < MIN_PARALLEL_PIXELS ? 1 : Math.min(parallelism, lines);
+        int linesPerBand = (lines + bandCount - 1) / bandCount;
+        CountDownLatch done = bandCount > 1 ? new CountDownLatch(bandCount - 1) : null;
+        for (int i = 0; i < bandCount; i++) {
+            Band band = bands[i];
+            band.horizontal = horizontal;
+            band.from = i * linesPerBand;
+            band.to = Math.min(lines, band.from + linesPerBand);
+            band.done = done;
+            if (i > 0) {
+                executor().execute(band);
+            }
+        }
+        // The calling thread takes the first band
+        bands[0].filterLines();
+        if (done != null) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.e(BlurController.TAG, "Interrupted while blurring", e);
+            }
+        }
+    }
+
+    @NonNull
+    private ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism - 1, runnable -> {
+                Thread thread = new Thread(runnable, "RecursiveGaussianBlur");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private void filterRows(int from, int to, @NonNull float[] row) {
+        for (int y = from; y < to; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[offset + x];
+                int i = x * 4;
+                row[i] = pixel & 0xFF;
+                row[i + 1] = (pixel >>> 8) & 0xFF;
+                row[i + 2] = (pixel >>> 16) & 0xFF;
+                row[i + 3] = pixel >>> 24;
+            }
+            filter(row, width);
+            for (int x = 0; x < width; x++) {
+                System.arraycopy(row, x * 4, transposed, (x * height + y) * 4, 4);
+            }
+        }
+    }
+
+    private void filterColumns(int from, int to, @NonNull float[] row) {
+        for (int x = from; x < to; x++) {
+            System.arraycopy(transposed, x * height * 4, row, 0, height * 4);
+            filter(row, height);
+            for (int y = 0; y < height; y++) {
+                int i = y * 4;
+                // The pixels are premultiplied, the color channels can't exceed the alpha
+                int alpha = clamp(row[i + 3], 255);
+                pixels[y * width + x] = clamp(row[i], alpha)
+                        | clamp(row[i + 1], alpha) << 8
+                        | clamp(row[i + 2], alpha) << 16
+                        | alpha << 24;
+            }
+        }
+    }
+
+    private static int clamp(float value, int max) {
+        int rounded = (int) (value + 0.5f);
+        return rounded < 0 ? 0 : Math.min(rounded, max);
+    }
+
+    /**
+     * Forward and backward pass over {@code length} interleaved 4 channel pixels, in place.
+     * The edges are extended with the edge pixel, which is a steady state of the filter.
+     */
+    private void filter(@NonNull float[] row, int length) {
+        float gain = this.gain, a1 = this.a1, a2 = this.a2, a3 = this.a3;
+        int last = (length - 1) * 4;
+        for (int c = 0; c < 4; c++) {
+            float p1 = row[c], p2 = p1, p3 = p1;
+            for (int i = c; i <= last + c; i += 4) {
+                float value = gain * row[i] + a1 * p1 + a2 * p2 + a3 * p3;
+                row[i] = value;
+                p3 = p2;
+                p2 = p1;
+                p1 = value;
+            }
+            p1 = row[last + c];
+            p2 = p1;
+            p3 = p1;
+            for (int i = last + c; i >= c; i -= 4) {
+                float value = gain * row[i] + a1 * p1 + a2 * p2 + a3 * p3;
+                row[i] = value;
+                p3 = p2;
+                p2 = p1;
+                p1 = value;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        release();
+    }
+
+    /**
+     * Drops the pixel buffers, they are allocated again on the next blur
+     */
+    @Override
+    public void release() {
+        width = 0;
+        height = 0;
+        pixels = new int[0];
+        pixelBuffer = null;
+        transposed = new float[0];
+        for (Band band : bands) {
+            band.row = new float[0];
+        }
+    }
+
+    @Override
+    public boolean canModifyBitmap() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap.Config getSupportedBitmapConfig() {
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * The pixels are copied in and out of the bitmap anyway, no padding needed
+     */
+    @Override
+    public int getStrideAlignment() {
+        return SizeScaler.NO_ALIGNMENT;
+    }
+
+    @Override
+    public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
+        canvas.drawBitmap(bitmap, 0f, 0f, paint);
+    }
+
+    /**
+     * A range of rows or columns and the row buffer to filter them in
+     */
+    private final class Band implements Runnable {
+        float[] row = new float[0];
+        boolean horizontal;
+        int from, to;
+        @Nullable
+        CountDownLatch done;
+
+        void filterLines() {
+            if (horizontal) {
+                filterRows(from, to, row);
+            } else {
+                filterColumns(from, to, row);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                filterLines();
+            } finally {
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -26,6 +26,8 @@ public class RenderEffectBlur implements BlurAlgorithm {
 
     private int height, width;
     private float lastBlurRadius = 1f;
+    // The RenderEffect is immutable, only recreated when the radius changes
+    private float appliedBlurRadius = -1f;
 
     @Nullable
     public BlurAlgorithm fallbackAlgorithm;
@@ -47,7 +49,10 @@ public class RenderEffectBlur implements BlurAlgorithm {
         Canvas canvas = node.beginRecording();
         canvas.drawBitmap(bitmap, 0, 0, null);
         node.endRecording();
-        node.setRenderEffect(RenderEffect.createBlurEffect(blurRadius, blurRadius, Shader.TileMode.MIRROR));
+        if (blurRadius != appliedBlurRadius) {
+            appliedBlurRadius = blurRadius;
+            node.setRenderEffect(RenderEffect.createBlurEffect(blurRadius, blurRadius, Shader.TileMode.MIRROR));
+        }
         // returning not blurred bitmap, because the rendering relies on the RenderNode
         return bitmap;
     }
@@ -60,6 +65,15 @@ public class RenderEffectBlur implements BlurAlgorithm {
         }
     }
 
+    @Override
+    public void release() {
+        // recorded again on the next blur
+        node.discardDisplayList();
+        if (fallbackAlgorithm != null) {
+            fallbackAlgorithm.release();
+        }
+    }
+
     @Override
     public boolean canModifyBitmap() {
         return true;
@@ -75,6 +89,14 @@ public class RenderEffectBlur implements BlurAlgorithm {
         return BlurController.DEFAULT_SCALE_FACTOR;
     }
 
+    /**
+     * The bitmap is only drawn into a RenderNode, no stride requirement to meet
+     */
+    @Override
+    public int getStrideAlignment() {
+        return SizeScaler.NO_ALIGNMENT;
+    }
+
     @Override
     public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
         if (canvas.isHardwareAccelerated()) {
@@ -30,15 +30,50 @@ public class RenderNodeBlurController implements BlurController {
     private final float scaleFactor;
     private final boolean applyNoise;
 
+    // Holds a reference to the shared noise texture while applyNoise is set, released in destroy()
+    private boolean noiseAcquired;
+
     private Drawable frameClearDrawable;
     private int overlayColor;
     private float blurRadius = 1f;
     private boolean enabled = true;
 
+    // Picks the scale factor of the software path so that the radius fits RenderScript's limits
+    private final BlurPlanner planner = new BlurPlanner();
+
     // Potentially cached stuff from the slow software path
     @Nullable
     private Bitmap cachedBitmap;
     @Nullable
+    private Canvas softwareCanvas;
+
+    // Only the software path holds a bitmap, the memory governor may drop it, it's recreated on the next draw
+    private final BlurMemoryGovernor.Client memoryClient = new BlurMemoryGovernor.Client() {
+        @Override
+        public long getCacheBytes() {
+            return BlurMemoryGovernor.bytesOf(cachedBitmap);
+        }
+
+        @Override
+        public boolean isVisible() {
+            return blurView.isAttachedToWindow() && blurView.isShown();
+        }
+
+        @Override
+        public void trimMemory(boolean degrade) {
+            // Not recycled, the bitmap might still be referenced by a display list
+            cachedBitmap = null;
+            softwareCanvas = null;
+        }
+    };
+    // Inputs and result of the last size computation, recomputed only when they change
+    private int lastWidth, lastHeight;
+    private float lastScaleFactor;
+    private int scaledWidth, scaledHeight;
+
+    // The RenderEffect is immutable, only recreated when the radius changes
+    private float appliedBlurRadius = -1f;
+    @Nullable
     private RenderScriptBlur fallbackBlur;
 
     // This tracks BlurView location in scrollable containers, during animations, etc.
@@ -56,6 +91,11 @@ public class RenderNodeBlurController implements BlurController {
         this.scaleFactor = scaleFactor;
         this.blurRadius = blurRadius;
         this.applyNoise = applyNoise;
+        if (applyNoise) {
+            SharedTextures.acquireNoise(blurView.getContext());
+            noiseAcquired = true;
+        }
+        BlurMemoryGovernor.register(blurView.getContext(), memoryClient);
         blurView.setWillNotDraw(false);
         blurView.getViewTreeObserver().addOnPreDrawListener(drawListener);
     }
@@ -120,16 +160,26 @@ public class RenderNodeBlurController implements BlurController {
 
 
     private void softwarePath(Canvas canvas) {
-        SizeScaler sizeScaler = new SizeScaler(scaleFactor);
-        Size original = new Size(blurView.getWidth(), blurView.getHeight());
-        Size scaled = sizeScaler.scale(original);
-        if (cachedBitmap == null || cachedBitmap.getWidth() != scaled.width || cachedBitmap.getHeight() != scaled.height) {
-            cachedBitmap = Bitmap.createBitmap(scaled.width, scaled.height, Bitmap.Config.ARGB_8888);
+        planner.plan(blurRadius, scaleFactor, RenderScriptBlur.MAX_BLUR_RADIUS);
+        int width = blurView.getWidth();
+        int height = blurView.getHeight();
+        if (width != lastWidth || height != lastHeight || planner.scaleFactor != lastScaleFactor) {
+            Size scaled = new SizeScaler(planner.scaleFactor, RenderScriptBlur.STRIDE_ALIGNMENT).scale(width, height);
+            lastWidth = width;
+            lastHeight = height;
+            lastScaleFactor = planner.scaleFactor;
+            scaledWidth = scaled.width;
+            scaledHeight = scaled.height;
+        }
+        boolean allocated = false;
+        if (cachedBitmap == null || cachedBitmap.getWidth() != scaledWidth || cachedBitmap.getHeight() != scaledHeight) {
+            cachedBitmap = BlurBitmapPool.obtain(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+            softwareCanvas = new Canvas(cachedBitmap);
+            allocated = true;
         }
-        Canvas softwareCanvas = new Canvas(cachedBitmap);
 
         softwareCanvas.save();
-        setupCanvasMatrix(softwareCanvas, original, scaled);
+        setupCanvasMatrix(softwareCanvas, width, height, scaledWidth, scaledHeight);
         if (frameClearDrawable != null) {
             frameClearDrawable.draw(canvas);
         }
@@ -144,9 +194,9 @@ public class RenderNodeBlurController implements BlurController {
         if (fallbackBlur == null) {
             fallbackBlur = new RenderScriptBlur(blurView.getContext());
         }
-        fallbackBlur.blur(cachedBitmap, blurRadius);
+        fallbackBlur.blur(cachedBitmap, planner.blurRadius);
         canvas.save();
-        canvas.scale((float) original.width / scaled.width, (float) original.height / scaled.height);
+        canvas.scale((float) width / scaledWidth, (float) height / scaledHeight);
         fallbackBlur.render(canvas, cachedBitmap);
         canvas.restore();
         if (applyNoise) {
@@ -155,15 +205,19 @@ public class RenderNodeBlurController implements BlurController {
         if (overlayColor != Color.TRANSPARENT) {
             canvas.drawColor(overlayColor);
         }
+        if (allocated) {
+            // After drawing, the governor may drop this bitmap if the view is not visible
+            BlurMemoryGovernor.enforceBudget();
+        }
     }
 
     /**
      * Set up matrix to draw starting from blurView's position
      */
-    private void setupCanvasMatrix(Canvas canvas, Size targetSize, Size scaledSize) {
+    private void setupCanvasMatrix(Canvas canvas, int width, int height, int scaledWidth, int scaledHeight) {
         // https://github.com/Dimezis/BlurView/issues/128
-        float scaleFactorH = (float) targetSize.height / scaledSize.height;
-        float scaleFactorW = (float) targetSize.width / scaledSize.width;
+        float scaleFactorH = (float) height / scaledHeight;
+        float scaleFactorW = (float) width / scaledWidth;
 
         float scaledLeftPosition = -getLeft() / scaleFactorW;
         float scaledTopPosition = -getTop() / scaleFactorH;
@@ -185,8 +239,31 @@ public class RenderNodeBlurController implements BlurController {
         // No-op, the size is updated in draw method, it's cheap and not called frequently
     }
 
+    @Override
+    public void onStop() {
+        // The node is recorded again on the next draw
+        blurNode.discardDisplayList();
+        BlurBitmapPool.park(cachedBitmap);
+        cachedBitmap = null;
+        softwareCanvas = null;
+        if (fallbackBlur != null) {
+            fallbackBlur.release();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        // Re-records the display list, the parked bitmaps must not be drawn anymore
+        blurView.invalidate();
+    }
+
     @Override
     public void destroy() {
+        if (noiseAcquired) {
+            SharedTextures.releaseNoise();
+            noiseAcquired = false;
+        }
+        BlurMemoryGovernor.unregister(memoryClient);
         blurNode.discardDisplayList();
         if (fallbackBlur != null) {
             fallbackBlur.destroy();
@@ -227,6 +304,10 @@ public class RenderNodeBlurController implements BlurController {
         // scaleFactor is only used to increase the blur radius
         // because RenderEffect already scales down the snapshot when needed.
         float realBlurRadius = blurRadius * scaleFactor;
+        if (realBlurRadius == appliedBlurRadius) {
+            return;
+        }
+        appliedBlurRadius = realBlurRadius;
         RenderEffect blur = RenderEffect.createBlurEffect(realBlurRadius, realBlurRadius, Shader.TileMode.CLAMP);
         blurNode.setRenderEffect(blur);
     }
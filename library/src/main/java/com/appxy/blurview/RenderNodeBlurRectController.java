@@ -31,21 +31,64 @@ public class RenderNodeBlurRectController implements BlurController {
     private final float scaleFactor;
     private final boolean applyNoise;
 
+    // Holds a reference to the shared noise texture while applyNoise is set, released in destroy()
+    private boolean noiseAcquired;
+
     private Drawable frameClearDrawable;
     private int overlayColor;
     private float blurRadius = 1f;
     private boolean enabled = true;
 
+    // Picks the scale factor of the software path so that the radius fits RenderScript's limits
+    private final BlurPlanner planner = new BlurPlanner();
+
     // Potentially cached stuff from the slow software path
     @Nullable
     private Bitmap cachedBitmap;
     @Nullable
+    private Canvas softwareCanvas;
+
+    // Only the software path holds a bitmap, the memory governor may drop it, it's recreated on the next draw
+    private final BlurMemoryGovernor.Client memoryClient = new BlurMemoryGovernor.Client() {
+        @Override
+        public long getCacheBytes() {
+            return BlurMemoryGovernor.bytesOf(cachedBitmap);
+        }
+
+        @Override
+        public boolean isVisible() {
+            return blurView.isAttachedToWindow() && blurView.isShown();
+        }
+
+        @Override
+        public void trimMemory(boolean degrade) {
+            // Not recycled, the bitmap might still be referenced by a display list
+            cachedBitmap = null;
+            softwareCanvas = null;
+        }
+    };
+    // Inputs and result of the last size computation, recomputed only when they change
+    private int lastWidth, lastHeight;
+    private float lastScaleFactor;
+    private int scaledWidth, scaledHeight;
+
+    // The RenderEffect is immutable, only recreated when the radius changes
+    private float appliedBlurRadius = -1f;
+    @Nullable
     private RenderScriptBlur fallbackBlur;
     /**
      * 用于模糊的内部位图,存储底层视图截图的位图
      */
     private Bitmap blurBitmap;
 
+    // Brush mode of BlurOverlayView, regions are drawn in software and blurred with RenderScript.
+    // Every region is captured once, a HardwareSnapshot would never warm up for it
+    @Nullable
+    private BlurViewCanvas regionCanvas;
+    @Nullable
+    private Bitmap regionBitmap;
+    private final RectF captureBounds = new RectF();
+
     // This tracks BlurView location in scrollable containers, during animations, etc.
     private final ViewTreeObserver.OnPreDrawListener drawListener = () -> {
         saveOnScreenLocation();
@@ -62,6 +105,11 @@ public class RenderNodeBlurRectController implements BlurController {
         this.scaleFactor = scaleFactor;
         this.blurRadius = blurRadius;
         this.applyNoise = applyNoise;
+        if (applyNoise) {
+            SharedTextures.acquireNoise(blurView.getContext());
+            noiseAcquired = true;
+        }
+        BlurMemoryGovernor.register(blurView.getContext(), memoryClient);
         blurView.setWillNotDraw(false);
         blurView.getViewTreeObserver().addOnPreDrawListener(drawListener);
     }
@@ -94,19 +142,28 @@ public class RenderNodeBlurRectController implements BlurController {
         this.blurRect = blurRect;
         float rectWidth = blurRect.mRect.width();
         float rectHeight = blurRect.mRect.height();
+        // Called on every frame, keep the bitmap as long as the rect size doesn't change
+        if (blurRect.canReuseBlurBitmap(scaleFactor)) {
+            blurBitmap = blurRect.blurBitmap;
+            return;
+        }
         if (blurRect.blurBitmap != null) {
             blurRect.recycle();
         }
         // 计算缩放后的位图尺寸（目标区域尺寸 / scaleFactor）
-        SizeScaler sizeScaler = new SizeScaler(scaleFactor);
+        // The bitmap is never handed to RenderScript, no padding needed
+        SizeScaler sizeScaler = new SizeScaler(scaleFactor, SizeScaler.NO_ALIGNMENT);
         if (sizeScaler.isZeroSized(rectWidth, rectHeight)) {
             return;
         }
         SizeScaler.Size size = sizeScaler.scale(rectWidth, rectHeight);
         // 创建缩放后的位图（用于模糊计算）
-        blurBitmap = Bitmap.createBitmap(size.width, size.height, Bitmap.Config.ARGB_8888);
+        blurBitmap = BlurBitmapPool.obtain(size.width, size.height, Bitmap.Config.ARGB_8888);
         // blurBitmap = Bitmap.createBitmap((int) rectWidth, (int) rectHeight, blurAlgorithm.getSupportedBitmapConfig());
         this.blurRect.blurBitmap = blurBitmap;
+        this.blurRect.blurSourceWidth = rectWidth;
+        this.blurRect.blurSourceHeight = rectHeight;
+        this.blurRect.blurScaleFactor = scaleFactor;
     }
 
     // Not doing any scaleFactor-related manipulations here, because RenderEffect blur internally
@@ -149,7 +206,7 @@ public class RenderNodeBlurRectController implements BlurController {
         }
         recordingCanvas.drawRenderNode(target.renderNode);
         // Looks like the order of this doesn't matter
-        applyBlur();
+        applyBlur(blurRadius);
         blurNode.endRecording();
     }
 
@@ -160,21 +217,31 @@ public class RenderNodeBlurRectController implements BlurController {
         }
         recordingCanvas.drawRenderNode(target.renderNode);
         // Looks like the order of this doesn't matter
-        applyBlur();
+        applyBlur(blurRect.hasBlurRadius() ? blurRect.getBlurRadius() : blurRadius);
         blurNode.endRecording();
     }
 
     private void softwarePath(Canvas canvas) {
-        SizeScaler sizeScaler = new SizeScaler(scaleFactor);
-        Size original = new Size(blurView.getWidth(), blurView.getHeight());
-        Size scaled = sizeScaler.scale(original);
-        if (cachedBitmap == null || cachedBitmap.getWidth() != scaled.width || cachedBitmap.getHeight() != scaled.height) {
-            cachedBitmap = Bitmap.createBitmap(scaled.width, scaled.height, Bitmap.Config.ARGB_8888);
+        planner.plan(blurRadius, scaleFactor, RenderScriptBlur.MAX_BLUR_RADIUS);
+        int width = blurView.getWidth();
+        int height = blurView.getHeight();
+        if (width != lastWidth || height != lastHeight || planner.scaleFactor != lastScaleFactor) {
+            Size scaled = new SizeScaler(planner.scaleFactor, RenderScriptBlur.STRIDE_ALIGNMENT).scale(width, height);
+            lastWidth = width;
+            lastHeight = height;
+            lastScaleFactor = planner.scaleFactor;
+            scaledWidth = scaled.width;
+            scaledHeight = scaled.height;
+        }
+        boolean allocated = false;
+        if (cachedBitmap == null || cachedBitmap.getWidth() != scaledWidth || cachedBitmap.getHeight() != scaledHeight) {
+            cachedBitmap = BlurBitmapPool.obtain(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+            softwareCanvas = new Canvas(cachedBitmap);
+            allocated = true;
         }
-        Canvas softwareCanvas = new Canvas(cachedBitmap);
 
         softwareCanvas.save();
-        setupCanvasMatrix(softwareCanvas, original, scaled);
+        setupCanvasMatrix(softwareCanvas, width, height, scaledWidth, scaledHeight);
         if (frameClearDrawable != null) {
             frameClearDrawable.draw(canvas);
         }
@@ -189,9 +256,9 @@ public class RenderNodeBlurRectController implements BlurController {
         if (fallbackBlur == null) {
             fallbackBlur = new RenderScriptBlur(blurView.getContext());
         }
-        fallbackBlur.blur(cachedBitmap, blurRadius);
+        fallbackBlur.blur(cachedBitmap, planner.blurRadius);
         canvas.save();
-        canvas.scale((float) original.width / scaled.width, (float) original.height / scaled.height);
+        canvas.scale((float) width / scaledWidth, (float) height / scaledHeight);
         fallbackBlur.render(canvas, cachedBitmap);
         canvas.restore();
         if (applyNoise) {
@@ -200,15 +267,19 @@ public class RenderNodeBlurRectController implements BlurController {
         if (overlayColor != Color.TRANSPARENT) {
             canvas.drawColor(overlayColor);
         }
+        if (allocated) {
+            // After drawing, the governor may drop this bitmap if the view is not visible
+            BlurMemoryGovernor.enforceBudget();
+        }
     }
 
     /**
      * Set up matrix to draw starting from blurView's position
      */
-    private void setupCanvasMatrix(Canvas canvas, Size targetSize, Size scaledSize) {
+    private void setupCanvasMatrix(Canvas canvas, int width, int height, int scaledWidth, int scaledHeight) {
         // https://github.com/Dimezis/BlurView/issues/128
-        float scaleFactorH = (float) targetSize.height / scaledSize.height;
-        float scaleFactorW = (float) targetSize.width / scaledSize.width;
+        float scaleFactorH = (float) height / scaledHeight;
+        float scaleFactorW = (float) width / scaledWidth;
 
         float scaledLeftPosition = -getLeft() / scaleFactorW;
         float scaledTopPosition = -getTop() / scaleFactorH;
@@ -225,13 +296,95 @@ public class RenderNodeBlurRectController implements BlurController {
         return blurViewLocation[0] - targetLocation[0];
     }
 
+    @Override
+    public boolean blurRegion(@NonNull RectF region, @NonNull Bitmap out) {
+        if (!enabled || region.isEmpty()) {
+            return false;
+        }
+        if (regionCanvas == null || regionBitmap != out) {
+            regionCanvas = new BlurViewCanvas(out);
+            regionBitmap = out;
+        }
+        saveOnScreenLocation();
+        float scaleX = out.getWidth() / region.width();
+        float scaleY = out.getHeight() / region.height();
+
+        out.eraseColor(Color.TRANSPARENT);
+        regionCanvas.save();
+        regionCanvas.scale(scaleX, scaleY);
+        regionCanvas.translate(-(region.left + getLeft()), -(region.top + getTop()));
+        captureBounds.set(region);
+        captureBounds.offset(getLeft(), getTop());
+        regionCanvas.clipRect(captureBounds);
+        try {
+            target.draw(regionCanvas);
+        } catch (Exception e) {
+            // Can potentially fail on rendering Hardware Bitmaps or something like that
+            Log.e("BlurView", "Error during snapshot capturing", e);
+            regionCanvas.restore();
+            return false;
+        }
+        regionCanvas.restore();
+
+        if (fallbackBlur == null) {
+            fallbackBlur = new RenderScriptBlur(blurView.getContext());
+        }
+        float radius = Math.min(getRegionHalo() * Math.max(scaleX, scaleY), RenderScriptBlur.MAX_BLUR_RADIUS);
+        fallbackBlur.blur(out, radius);
+        return true;
+    }
+
+    // RenderEffect blurs in view pixels, the radius is the halo as is
+    @Override
+    public float getRegionHalo() {
+        return blurRadius;
+    }
+
+    /**
+     * The blurred node is drawn with CLAMP edges, it's opaque whenever the target is
+     */
+    @Override
+    public boolean isRectOpaque() {
+        return target.isOpaque() || Color.alpha(overlayColor) == 255;
+    }
+
     @Override
     public void updateBlurViewSize() {
         // No-op, the size is updated in draw method, it's cheap and not called frequently
     }
 
+    @Override
+    public void onStop() {
+        // The node is recorded again on the next draw
+        blurNode.discardDisplayList();
+        BlurBitmapPool.park(cachedBitmap);
+        cachedBitmap = null;
+        softwareCanvas = null;
+        if (blurView instanceof BlurOverlayView) {
+            for (BlurOverlayView.BlurRect rect : ((BlurOverlayView) blurView).getBlurRectList()) {
+                BlurBitmapPool.park(rect.blurBitmap);
+                rect.blurBitmap = null;
+            }
+        }
+        blurBitmap = null;
+        if (fallbackBlur != null) {
+            fallbackBlur.release();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        // Re-records the display list, the parked bitmaps must not be drawn anymore
+        blurView.invalidate();
+    }
+
     @Override
     public void destroy() {
+        if (noiseAcquired) {
+            SharedTextures.releaseNoise();
+            noiseAcquired = false;
+        }
+        BlurMemoryGovernor.unregister(memoryClient);
         blurNode.discardDisplayList();
         if (fallbackBlur != null) {
             fallbackBlur.destroy();
@@ -264,14 +417,18 @@ public class RenderNodeBlurRectController implements BlurController {
     @Override
     public BlurViewFacade setBlurRadius(float radius) {
         this.blurRadius = radius;
-        applyBlur();
+        applyBlur(radius);
         return this;
     }
 
-    private void applyBlur() {
+    private void applyBlur(float radius) {
         // scaleFactor is only used to increase the blur radius
         // because RenderEffect already scales down the snapshot when needed.
-        float realBlurRadius = blurRadius * scaleFactor;
+        float realBlurRadius = radius * scaleFactor;
+        if (realBlurRadius == appliedBlurRadius) {
+            return;
+        }
+        appliedBlurRadius = realBlurRadius;
         RenderEffect blur = RenderEffect.createBlurEffect(realBlurRadius, realBlurRadius, Shader.TileMode.CLAMP);
         blurNode.setRenderEffect(blur);
     }
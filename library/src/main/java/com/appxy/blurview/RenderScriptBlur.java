@@ -6,12 +6,14 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.os.Build;
 import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.renderscript.RenderScript;
 import android.renderscript.ScriptIntrinsicBlur;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Blur using RenderScript, processed on GPU when device drivers support it.
@@ -21,9 +23,25 @@ import androidx.annotation.NonNull;
  * RenderEffectBlur is the best alternative at the moment.
  */
 public class RenderScriptBlur implements BlurAlgorithm {
+    /**
+     * ScriptIntrinsicBlur doesn't accept radii above 25
+     */
+    static final float MAX_BLUR_RADIUS = 25f;
+
+    /**
+     * Allocation shares the bitmap memory only if the row stride matches the driver's requirement,
+     * otherwise the pixels are copied in and out on every blur.
+     * It's 16 on most devices, but 64 on Samsung ones.
+     */
+    static final int STRIDE_ALIGNMENT = "samsung".equalsIgnoreCase(Build.MANUFACTURER) ? 64 : 16;
+
     private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
-    private final RenderScript renderScript;
-    private final ScriptIntrinsicBlur blurScript;
+    private final Context context;
+    // Created on the first blur, a RenderScript context is expensive and may never be needed
+    @Nullable
+    private RenderScript renderScript;
+    @Nullable
+    private ScriptIntrinsicBlur blurScript;
     private Allocation outAllocation;
 
     private int lastBitmapWidth = -1;
@@ -33,8 +51,14 @@ public class RenderScriptBlur implements BlurAlgorithm {
      * @param context Context to create the {@link RenderScript}
      */
     public RenderScriptBlur(@NonNull Context context) {
-        renderScript = RenderScript.create(context);
-        blurScript = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
+        this.context = context.getApplicationContext();
+    }
+
+    private void ensureRenderScript() {
+        if (renderScript == null) {
+            renderScript = RenderScript.create(context);
+            blurScript = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
+        }
     }
 
     private boolean canReuseAllocation(@NonNull Bitmap bitmap) {
@@ -48,6 +72,7 @@ public class RenderScriptBlur implements BlurAlgorithm {
      */
     @Override
     public Bitmap blur(@NonNull Bitmap bitmap, float blurRadius) {
+        ensureRenderScript();
         //Allocation will use the same backing array of pixels as bitmap if created with USAGE_SHARED flag
         Allocation inAllocation = Allocation.createFromBitmap(renderScript, bitmap);
 
@@ -72,11 +97,26 @@ public class RenderScriptBlur implements BlurAlgorithm {
 
     @Override
     public final void destroy() {
-        blurScript.destroy();
-        renderScript.destroy();
         if (outAllocation != null) {
             outAllocation.destroy();
+            outAllocation = null;
         }
+        if (renderScript != null) {
+            blurScript.destroy();
+            renderScript.destroy();
+            blurScript = null;
+            renderScript = null;
+        }
+        lastBitmapWidth = -1;
+        lastBitmapHeight = -1;
+    }
+
+    /**
+     * The RenderScript context is created again on the next blur
+     */
+    @Override
+    public void release() {
+        destroy();
     }
 
     @Override
@@ -94,6 +134,16 @@ public class RenderScriptBlur implements BlurAlgorithm {
         return DEFAULT_SCALE_FACTOR;
     }
 
+    @Override
+    public float getMaxBlurRadius() {
+        return MAX_BLUR_RADIUS;
+    }
+
+    @Override
+    public int getStrideAlignment() {
+        return STRIDE_ALIGNMENT;
+    }
+
     @Override
     public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
         canvas.drawBitmap(bitmap, 0f, 0f, paint);
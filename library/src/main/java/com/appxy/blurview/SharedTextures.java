@@ -0,0 +1,195 @@
+package com.appxy.blurview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.appxy.tinyscanner.R;
+
+/**
+ * 进程内共享的纹理缓存：{@link BlurOverlayView} 的操作图标（按屏幕密度区分）和噪点纹理。
+ * <p>
+ * 使用者通过 acquire/release 计数，内存紧张（{@link ComponentCallbacks2#onTrimMemory(int)}）时
+ * 只丢弃没有使用者的纹理。丢弃时不回收位图，仍持有它的视图可以继续绘制，由 GC 负责释放。
+ * <p>
+ * 只能在主线程访问。
+ */
+final class SharedTextures {
+
+    /**
+     * densityDpi -> (drawableId -> 图标位图)
+     */
+    private static final SparseArray<SparseArray<Bitmap>> icons = new SparseArray<>();
+    /**
+     * densityDpi -> 使用者数量
+     */
+    private static final SparseIntArray iconReferences = new SparseIntArray();
+
+    @Nullable
+    private static Paint noisePaint;
+    private static int noiseReferences;
+
+    private static boolean callbacksRegistered;
+
+    private static final ComponentCallbacks2 trimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                trimUnused();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimUnused();
+        }
+    };
+
+    private SharedTextures() {
+    }
+
+    /**
+     * 开始使用当前密度下的图标，使用结束后调用 {@link #releaseIcons(Context)}
+     */
+    static void acquireIcons(@NonNull Context context) {
+        registerCallbacks(context);
+        int density = densityOf(context);
+        iconReferences.put(density, iconReferences.get(density) + 1);
+    }
+
+    static void releaseIcons(@NonNull Context context) {
+        int density = densityOf(context);
+        int references = iconReferences.get(density);
+        if (references > 0) {
+            iconReferences.put(density, references - 1);
+        }
+    }
+
+    /**
+     * @return 当前密度下光栅化好的图标，第一次请求时才创建
+     */
+    @Nullable
+    static Bitmap icon(@NonNull Context context, @DrawableRes int drawableId) {
+        int density = densityOf(context);
+        SparseArray<Bitmap> densityIcons = icons.get(density);
+        if (densityIcons == null) {
+            densityIcons = new SparseArray<>();
+            icons.put(density, densityIcons);
+        }
+        Bitmap icon = densityIcons.get(drawableId);
+        if (icon == null) {
+            icon = rasterize(context, drawableId);
+            if (icon != null) {
+                densityIcons.put(drawableId, icon);
+            }
+        }
+        return icon;
+    }
+
+    /**
+     * 把矢量图光栅化成 ARGB_8888 位图
+     */
+    @Nullable
+    static Bitmap rasterize(@NonNull Context context, @DrawableRes int drawableId) {
+        Drawable drawable = ContextCompat.getDrawable(context, drawableId);
+        if (drawable == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
+                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * 开始使用噪点纹理，使用结束后调用 {@link #releaseNoise()}
+     */
+    static void acquireNoise(@NonNull Context context) {
+        registerCallbacks(context);
+        noiseReferences++;
+    }
+
+    static void releaseNoise() {
+        if (noiseReferences > 0) {
+            noiseReferences--;
+        }
+    }
+
+    /**
+     * @return 平铺噪点纹理的画笔，第一次请求时才解码
+     */
+    @NonNull
+    static Paint noisePaint(@NonNull Context context) {
+        if (noisePaint == null) {
+            Bitmap alphaBitmap = createNoiseBitmap(context);
+            Paint paint = new Paint();
+            paint.setAntiAlias(true);
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_ATOP));
+            paint.setShader(new BitmapShader(alphaBitmap, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT));
+            noisePaint = paint;
+        }
+        return noisePaint;
+    }
+
+    @NonNull
+    private static Bitmap createNoiseBitmap(@NonNull Context context) {
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.blue_noise);
+        Bitmap alphaBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(alphaBitmap);
+        Paint paint = new Paint();
+        paint.setAlpha(38); // 15% opacity
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        bitmap.recycle();
+        return alphaBitmap;
+    }
+
+    /**
+     * 丢弃没有使用者的纹理
+     */
+    static void trimUnused() {
+        for (int i = icons.size() - 1; i >= 0; i--) {
+            if (iconReferences.get(icons.keyAt(i)) == 0) {
+                icons.removeAt(i);
+            }
+        }
+        if (noiseReferences == 0) {
+            noisePaint = null;
+        }
+    }
+
+    private static int densityOf(@NonNull Context context) {
+        return context.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * 注册在 Application 上，不持有 Activity
+     */
+    private static void registerCallbacks(@NonNull Context context) {
+        if (!callbacksRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(trimCallbacks);
+            callbacksRegistered = true;
+        }
+    }
+}
@@ -13,31 +13,46 @@ public class SizeScaler {
     /**
      * 位图尺寸应能被ROUNDING_VALUE整除以满足步长(stride)要求，这样可以避免在将位图传递给RenderScript进行模糊处理时额外分配位图。
      * 通常这个值是16，但在三星设备上是64（原因不明）。
+     * 实际使用的对齐值由模糊算法决定，见 {@link BlurAlgorithm#getStrideAlignment()}
      */
-    private static final int ROUNDING_VALUE = 64;
+    static final int ROUNDING_VALUE = 64;
+    /**
+     * 不做步长对齐，宽度只按缩放因子计算
+     */
+    static final int NO_ALIGNMENT = 1;
     /**
      * 缩放因子。
      */
     private final float scaleFactor;
     /**
-     * 是否不需要步长对齐的标志。
+     * 缩放后的宽度需要对齐到的像素数，1 表示不对齐。
      */
-    private final boolean noStrideAlignment;
+    private final int strideAlignment;
 
     public SizeScaler(float scaleFactor) {
-        this(scaleFactor, false);
+        this(scaleFactor, ROUNDING_VALUE);
     }
 
     public SizeScaler(float scaleFactor, boolean noStrideAlignment) {
+        this(scaleFactor, noStrideAlignment ? NO_ALIGNMENT : ROUNDING_VALUE);
+    }
+
+    /**
+     * @param strideAlignment 缩放后的宽度需要对齐到的像素数，通常取自 {@link BlurAlgorithm#getStrideAlignment()}
+     */
+    public SizeScaler(float scaleFactor, int strideAlignment) {
+        if (strideAlignment < NO_ALIGNMENT) {
+            throw new IllegalArgumentException("strideAlignment must be positive, was " + strideAlignment);
+        }
         this.scaleFactor = scaleFactor;
-        this.noStrideAlignment = noStrideAlignment;
+        this.strideAlignment = strideAlignment;
     }
 
     Size scale(float width, float height) {
         // 计算未四舍五入的缩放后宽度
         int nonRoundedScaledWidth = downscaleSize(width);
 
-        // 对宽度进行四舍五入（对齐到 ROUNDING_VALUE）
+        // 对宽度进行四舍五入（对齐到 strideAlignment）
         int scaledWidth = roundSize(nonRoundedScaledWidth);
 
         // 计算实际使用的缩放因子（因为宽度可能被调整了）
@@ -60,19 +75,19 @@ public class SizeScaler {
     }
 
     /**
-     * Rounds a value to the nearest divisible by {@link #ROUNDING_VALUE} to meet stride requirement
+     * Rounds a value to the nearest divisible by {@link #strideAlignment} to meet stride requirement
      * 如果禁用步长对齐，直接返回原值
      * 如果已经是倍数，直接返回
      * 否则调整到比原值大的最近倍数
      */
     private int roundSize(int value) {
-        if (noStrideAlignment) {
+        if (strideAlignment == NO_ALIGNMENT) {
             return value;
         }
-        if (value % ROUNDING_VALUE == 0) {
+        if (value % strideAlignment == 0) {
             return value;
         }
-        return value - (value % ROUNDING_VALUE) + ROUNDING_VALUE;
+        return value - (value % strideAlignment) + strideAlignment;
     }
 
     private int downscaleSize(float value) {
@@ -0,0 +1,161 @@
+package com.appxy.blurview;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 同一个 {@link BlurTarget} 上的多个模糊视图共享的截图。
+ * <p>
+ * 每帧只截图一次，缩放因子取所有订阅者中最精细（最小）的那个，
+ * 各个模糊视图再从共享截图中裁剪自己的区域，截图开销与模糊视图的数量无关。
+ */
+final class SnapshotBroker {
+
+    private final BlurTarget target;
+
+    /**
+     * 订阅者 -> 订阅者需要的缩放因子
+     */
+    private final ArrayMap<Object, Float> subscribers = new ArrayMap<>();
+
+    @Nullable
+    private Bitmap snapshot;
+    @Nullable
+    private BlurViewCanvas snapshotCanvas;
+
+    /**
+     * 共享截图的缩放因子（目标视图像素 / 截图像素）
+     */
+    private float snapshotScale = BlurController.DEFAULT_SCALE_FACTOR;
+
+    /**
+     * 本帧已经截过图，同一帧内重复请求直接复用。截图时置位，下一帧的帧回调中清除
+     */
+    private boolean capturedThisFrame;
+    private boolean frameCallbackPosted;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        frameCallbackPosted = false;
+        capturedThisFrame = false;
+    };
+
+    @Nullable
+    private HardwareSnapshot hardwareSnapshot;
+    private final Matrix snapshotMatrix = new Matrix();
+
+    SnapshotBroker(@NonNull BlurTarget target) {
+        this.target = target;
+    }
+
+    void subscribe(@NonNull Object subscriber, float scaleFactor) {
+        subscribers.put(subscriber, scaleFactor);
+    }
+
+    @SuppressLint("NewApi")
+    void unsubscribe(@NonNull Object subscriber) {
+        subscribers.remove(subscriber);
+        if (subscribers.isEmpty()) {
+            if (snapshot != null) {
+                snapshot.recycle();
+                snapshot = null;
+                snapshotCanvas = null;
+            }
+            if (hardwareSnapshot != null) {
+                hardwareSnapshot.destroy();
+                hardwareSnapshot = null;
+            }
+            if (frameCallbackPosted) {
+                Choreographer.getInstance().removeFrameCallback(frameCallback);
+                frameCallbackPosted = false;
+            }
+            capturedThisFrame = false;
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return 共享截图的缩放因子，截图坐标 * scale = 目标视图坐标
+     */
+    float getScale() {
+        return snapshotScale;
+    }
+
+    /**
+     * 返回当前帧的共享截图，本帧还没有截图时先截图。
+     * <p>
+     * 截图后向 Choreographer 注册一个帧回调，它在下一帧的遍历之前执行，清除本帧的标记，
+     * 所以同一次遍历中各个模糊视图的请求共用一次截图，不依赖帧时间在各个 API 版本上是否锁定。
+     *
+     * @return 截图，目标视图还没有布局时返回 null
+     */
+    @Nullable
+    Bitmap capture() {
+        if (snapshot != null && capturedThisFrame) {
+            return snapshot;
+        }
+        float scale = finestScale();
+        int width = (int) Math.ceil(target.getWidth() / scale);
+        int height = (int) Math.ceil(target.getHeight() / scale);
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        if (snapshot == null || snapshot.getWidth() != width || snapshot.getHeight() != height) {
+            if (snapshot != null) {
+                snapshot.recycle();
+            }
+            snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            snapshotCanvas = new BlurViewCanvas(snapshot);
+        }
+        snapshotScale = scale;
+
+        snapshot.eraseColor(Color.TRANSPARENT);
+        snapshotCanvas.save();
+        snapshotCanvas.scale(1 / scale, 1 / scale);
+        if (!captureWithHardwareSnapshot()) {
+            try {
+                target.draw(snapshotCanvas);
+            } catch (Exception e) {
+                // Can potentially fail on rendering Hardware Bitmaps or something like that
+                Log.e(BlurController.TAG, "Error during snapshot capturing", e);
+            }
+        }
+        snapshotCanvas.restore();
+        capturedThisFrame = true;
+        if (!frameCallbackPosted) {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+            frameCallbackPosted = true;
+        }
+        return snapshot;
+    }
+
+    @SuppressLint("NewApi")
+    @SuppressWarnings("deprecation")
+    private boolean captureWithHardwareSnapshot() {
+        if (!BlurTarget.canRecordRenderNode || !target.isHardwareAccelerated() || target.hasSnapshotOverrides()) {
+            return false;
+        }
+        if (hardwareSnapshot == null) {
+            hardwareSnapshot = new HardwareSnapshot();
+        }
+        snapshotCanvas.getMatrix(snapshotMatrix);
+        return hardwareSnapshot.capture(target, snapshotMatrix, null, snapshot);
+    }
+
+    private float finestScale() {
+        float scale = Float.MAX_VALUE;
+        for (int i = 0; i < subscribers.size(); i++) {
+            scale = Math.min(scale, subscribers.valueAt(i));
+        }
+        return scale == Float.MAX_VALUE ? BlurController.DEFAULT_SCALE_FACTOR : scale;
+    }
+}
@@ -0,0 +1,330 @@
+package com.appxy.blurview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.IntBuffer;
+
+/**
+ * 用积分图（summed-area table）模糊共享截图中的任意区域。
+ * <p>
+ * 整个覆盖层区域截一次图并建立积分图，之后任意矩形、任意半径的模糊都只是查表：
+ * 三次迭代的盒式滤波近似高斯模糊，每个输出像素每次滤波只需要读四个值，和半径无关。
+ * 第一次滤波直接查整张截图的积分图，后两次对上一次的结果（只覆盖矩形加光晕）建立局部积分图。
+ * 截图内容不变时添加、移动矩形或者修改半径都不需要重新截图。
+ * <p>
+ * 像素按预乘后的四个通道分别计算。只能在主线程访问。
+ */
+final class SummedAreaTableBlur {
+
+    /**
+     * 盒式滤波的次数，三次已经很接近高斯分布
+     */
+    private static final int PASSES = 3;
+
+    @Nullable
+    private Bitmap snapshot;
+    @Nullable
+    private BlurViewCanvas snapshotCanvas;
+    private int width, height;
+    private int generation = -1;
+    private float scale;
+    private boolean built;
+
+    private int[] pixels = new int[0];
+    /**
+     * 整张截图的积分图，(width + 1) * (height + 1) 个点，每个点四个通道
+     */
+    private int[] table = new int[0];
+    /**
+     * 中间结果和它的局部积分图，按用到的最大区域分配，之后复用
+     */
+    private int[] values = new int[0];
+    private int[] localTable = new int[0];
+    private final int[] boxRadii = new int[PASSES];
+    private final Rect[] passBounds = {new Rect(), new Rect(), new Rect()};
+
+    /**
+     * 模糊结果，只增不减，有效部分是 outputBounds
+     */
+    @Nullable
+    private Bitmap output;
+    private int[] outputPixels = new int[0];
+    private final Rect outputBounds = new Rect();
+
+    /**
+     * @return 截图内容、尺寸和缩放因子都没变时，积分图可以直接使用
+     */
+    boolean isValid(int generation, int width, int height, float scale) {
+        return built && this.generation == generation && this.width == width
+                && this.height == height && this.scale == scale;
+    }
+
+    /**
+     * @return 清空后的截图画布，调用方把根视图画上去之后调用 {@link #build(int, float)}
+     */
+    @NonNull
+    BlurViewCanvas prepareSnapshot(int width, int height) {
+        if (snapshot == null || snapshot.getWidth() != width || snapshot.getHeight() != height) {
+            snapshot = BlurBitmapPool.obtain(width, height, Bitmap.Config.ARGB_8888);
+            snapshotCanvas = new BlurViewCanvas(snapshot);
+        }
+        snapshot.eraseColor(0);
+        built = false;
+        return snapshotCanvas;
+    }
+
+    @Nullable
+    Bitmap getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 从截图建立积分图
+     *
+     * @param generation 截图时 BlurTarget 的内容版本，见 {@link BlurTarget#getContentGeneration()}
+     * @param scale      截图的缩放因子（视图像素 / 截图像素）
+     */
+    void build(int generation, float scale) {
+        if (snapshot == null) {
+            return;
+        }
+        width = snapshot.getWidth();
+        height = snapshot.getHeight();
+        int size = width * height;
+        if (pixels.length < size) {
+            pixels = new int[size];
+        }
+        int tableSize = (width + 1) * (height + 1) * 4;
+        if (table.length < tableSize) {
+            table = new int[tableSize];
+        }
+        IntBuffer buffer = IntBuffer.wrap(pixels, 0, size);
+        snapshot.copyPixelsToBuffer(buffer);
+
+        int stride = (width + 1) * 4;
+        for (int x = 0; x < stride; x++) {
+            table[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int sumA = 0, sumB = 0, sumC = 0, sumD = 0;
+            int row = (y + 1) * stride;
+            table[row] = table[row + 1] = table[row + 2] = table[row + 3] = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                sumA += pixel & 0xFF;
+                sumB += (pixel >>> 8) & 0xFF;
+                sumC += (pixel >>> 16) & 0xFF;
+                sumD += pixel >>> 24;
+                int i = row + (x + 1) * 4;
+                table[i] = table[i - stride] + sumA;
+                table[i + 1] = table[i + 1 - stride] + sumB;
+                table[i + 2] = table[i + 2 - stride] + sumC;
+                table[i + 3] = table[i + 3 - stride] + sumD;
+            }
+        }
+        this.generation = generation;
+        this.scale = scale;
+        built = true;
+    }
+
+    /**
+     * @param bounds 要模糊的区域，截图像素坐标
+     * @param radius 模糊半径，截图像素，和 ScriptIntrinsicBlur 的半径含义相同
+     * @return 模糊结果，有效部分见 {@link #getOutputBounds()}，对应截图上的 {@link #getRegion()}。
+     * 区域和截图没有交集时返回 null
+     */
+    @Nullable
+    Bitmap blur(@NonNull RectF bounds, float radius) {
+        Rect region = passBounds[PASSES - 1];
+        region.set((int) Math.floor(bounds.left), (int) Math.floor(bounds.top),
+                (int) Math.ceil(bounds.right), (int) Math.ceil(bounds.bottom));
+        if (!built || !region.intersect(0, 0, width, height)) {
+            return null;
+        }
+        boxesForGauss(RecursiveGaussianBlur.sigmaOf(radius));
+        // 每次滤波的输出区域：最后一次是目标区域，之前的依次外扩后面各次的半径
+        for (int pass = PASSES - 2; pass >= 0; pass--) {
+            Rect next = passBounds[pass + 1];
+            int expand = boxRadii[pass + 1];
+            passBounds[pass].set(next.left - expand, next.top - expand, next.right + expand, next.bottom + expand);
+            passBounds[pass].intersect(0, 0, width, height);
+        }
+        ensureCapacity(passBounds[0]);
+        ensureOutput(region.width(), region.height());
+
+        boxFilter(table, 0, 0, width, height, passBounds[0], boxRadii[0], values);
+        for (int pass = 1; pass < PASSES; pass++) {
+            Rect source = passBounds[pass - 1];
+            buildLocalTable(source.width(), source.height());
+            boxFilter(localTable, source.left, source.top, source.width(), source.height(),
+                    passBounds[pass], boxRadii[pass], values);
+        }
+        writeOutput(region);
+        return output;
+    }
+
+    /**
+     * @return 上一次 {@link #blur(RectF, float)} 的区域，截图像素坐标
+     */
+    @NonNull
+    Rect getRegion() {
+        return passBounds[PASSES - 1];
+    }
+
+    /**
+     * @return 上一次 {@link #blur(RectF, float)} 的结果在输出位图上的位置
+     */
+    @NonNull
+    Rect getOutputBounds() {
+        return outputBounds;
+    }
+
+    float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return 截图、积分图和缓冲区占用的字节数
+     */
+    long getBytes() {
+        return BlurMemoryGovernor.bytesOf(snapshot) + BlurMemoryGovernor.bytesOf(output)
+                + 4L * (pixels.length + table.length + values.length + localTable.length + outputPixels.length);
+    }
+
+    /**
+     * 丢弃所有缓冲区，下次使用时重新截图
+     */
+    void release() {
+        BlurBitmapPool.park(snapshot);
+        snapshot = null;
+        snapshotCanvas = null;
+        output = null;
+        pixels = new int[0];
+        table = new int[0];
+        values = new int[0];
+        localTable = new int[0];
+        outputPixels = new int[0];
+        built = false;
+        generation = -1;
+    }
+
+    /**
+     * 三次盒式滤波的宽度，使方差之和等于 sigma^2（Kovesi 的方法）
+     */
+    private void boxesForGauss(float sigma) {
+        double wIdeal = Math.sqrt(12 * sigma * sigma / PASSES + 1);
+        int wl = (int) Math.floor(wIdeal);
+        if (wl % 2 == 0) {
+            wl--;
+        }
+        int wu = wl + 2;
+        double mIdeal = (12 * sigma * sigma - PASSES * wl * wl - 4 * PASSES * wl - 3 * PASSES) / (-4.0 * wl - 4);
+        long m = Math.round(mIdeal);
+        for (int i = 0; i < PASSES; i++) {
+            int size = i < m ? wl : wu;
+            boxRadii[i] = Math.max(0, (size - 1) / 2);
+        }
+    }
+
+    private void ensureCapacity(@NonNull Rect largest) {
+        int size = largest.width() * largest.height() * 4;
+        if (values.length < size) {
+            values = new int[size];
+        }
+        int tableSize = (largest.width() + 1) * (largest.height() + 1) * 4;
+        if (localTable.length < tableSize) {
+            localTable = new int[tableSize];
+        }
+    }
+
+    private void ensureOutput(int width, int height) {
+        if (output == null || output.getWidth() < width || output.getHeight() < height) {
+            int outputWidth = Math.max(width, output == null ? 0 : output.getWidth());
+            int outputHeight = Math.max(height, output == null ? 0 : output.getHeight());
+            output = Bitmap.createBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+            outputPixels = new int[outputWidth * outputHeight];
+        }
+        outputBounds.set(0, 0, width, height);
+    }
+
+    /**
+     * 局部积分图，来自 values 中上一次滤波的结果
+     */
+    private void buildLocalTable(int width, int height) {
+        int stride = (width + 1) * 4;
+        for (int x = 0; x < stride; x++) {
+            localTable[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int sumA = 0, sumB = 0, sumC = 0, sumD = 0;
+            int row = (y + 1) * stride;
+            localTable[row] = localTable[row + 1] = localTable[row + 2] = localTable[row + 3] = 0;
+            for (int x = 0; x < width; x++) {
+                int v = (y * width + x) * 4;
+                sumA += values[v];
+                sumB += values[v + 1];
+                sumC += values[v + 2];
+                sumD += values[v + 3];
+                int i = row + (x + 1) * 4;
+                localTable[i] = localTable[i - stride] + sumA;
+                localTable[i + 1] = localTable[i + 1 - stride] + sumB;
+                localTable[i + 2] = localTable[i + 2 - stride] + sumC;
+                localTable[i + 3] = localTable[i + 3 - stride] + sumD;
+            }
+        }
+    }
+
+    /**
+     * 盒式滤波：target 中每个像素取积分图上以它为中心、半径为 radius 的方框的平均值。
+     * 方框超出积分图覆盖的范围时只平均范围内的像素
+     *
+     * @param sat    积分图，覆盖 (originX, originY) 开始的 satWidth * satHeight 像素
+     * @param target 输出区域，截图像素坐标
+     * @param out    输出，按 target 的宽度逐行排列，每个像素四个通道
+     */
+    private static void boxFilter(@NonNull int[] sat, int originX, int originY, int satWidth, int satHeight,
+                                  @NonNull Rect target, int radius, @NonNull int[] out) {
+        int stride = (satWidth + 1) * 4;
+        int o = 0;
+        for (int y = target.top; y < target.bottom; y++) {
+            int y0 = Math.max(y - radius, originY) - originY;
+            int y1 = Math.min(y + radius + 1, originY + satHeight) - originY;
+            int row0 = y0 * stride;
+            int row1 = y1 * stride;
+            for (int x = target.left; x < target.right; x++) {
+                int x0 = (Math.max(x - radius, originX) - originX) * 4;
+                int x1 = (Math.min(x + radius + 1, originX + satWidth) - originX) * 4;
+                int area = (x1 - x0) / 4 * (y1 - y0);
+                int half = area / 2;
+                for (int c = 0; c < 4; c++) {
+                    int sum = sat[row1 + x1 + c] - sat[row0 + x1 + c] - sat[row1 + x0 + c] + sat[row0 + x0 + c];
+                    out[o++] = (sum + half) / area;
+                }
+            }
+        }
+    }
+
+    /**
+     * values 中最后一次滤波的结果写入输出位图，保持预乘格式
+     */
+    private void writeOutput(@NonNull Rect region) {
+        int outputWidth = output.getWidth();
+        int regionWidth = region.width();
+        for (int y = 0; y < region.height(); y++) {
+            for (int x = 0; x < regionWidth; x++) {
+                int v = (y * regionWidth + x) * 4;
+                int alpha = Math.min(values[v + 3], 255);
+                outputPixels[y * outputWidth + x] = Math.min(values[v], alpha)
+                        | Math.min(values[v + 1], alpha) << 8
+                        | Math.min(values[v + 2], alpha) << 16
+                        | alpha << 24;
+            }
+        }
+        output.copyPixelsFromBuffer(IntBuffer.wrap(outputPixels));
+    }
+}
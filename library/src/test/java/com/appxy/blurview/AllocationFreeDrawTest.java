@@ -0,0 +1,147 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RecordingCanvas;
+import android.graphics.RectF;
+import android.graphics.RenderNode;
+import android.os.Build;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Steady-state frames of the controllers must not allocate.
+ * <p>
+ * The RenderNode controllers need API 31, their tests run on that SDK and draw into a RecordingCanvas,
+ * which is hardware accelerated like the canvas they get on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class AllocationFreeDrawTest {
+    private static final int MEASURED_FRAMES = 100;
+
+    private BlurTestHarness harness;
+    private Canvas screenCanvas;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new BlurTestHarness(activity, 1);
+        screenCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void preDrawController_steadyStateFrame_allocatesNothing() {
+        View blurView = new View(harness.activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 4);
+        harness.layout();
+        PreDrawBlurController controller = new PreDrawBlurController(blurView, harness.target, 0,
+                new NoOpBlur(), BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+
+        assertEquals(0, harness.measure(MEASURED_FRAMES, () -> {
+            controller.updateBlur();
+            controller.draw(screenCanvas);
+        }).totalBytes);
+        controller.destroy();
+    }
+
+    @Test
+    public void rectController_steadyStateFrame_allocatesNothing() {
+        BlurOverlayView overlay = new BlurOverlayView(harness.activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        BlurRectController controller = new BlurRectController(overlay, harness.target, 0,
+                new NoOpBlur(), BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        BlurOverlayView.BlurRect rect = overlay.new BlurRect(new RectF(40, 60, 240, 200));
+
+        assertEquals(0, harness.measure(MEASURED_FRAMES, () -> {
+            controller.setBlurRect(rect);
+            controller.draw(screenCanvas);
+        }).totalBytes);
+        controller.destroy();
+    }
+
+    @Test
+    @Config(sdk = Build.VERSION_CODES.S)
+    public void renderNodeController_steadyStateFrame_allocatesNothing() {
+        View blurView = new View(harness.activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 4);
+        harness.layout();
+        RenderNodeBlurController controller = new RenderNodeBlurController(blurView, harness.target, 0,
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        RenderNode screenNode = new RenderNode("screen");
+        RecordingCanvas canvas = screenNode.beginRecording(WIDTH, HEIGHT);
+
+        assertEquals(0, harness.measure(MEASURED_FRAMES, () -> controller.draw(canvas)).totalBytes);
+        screenNode.endRecording();
+        controller.destroy();
+    }
+
+    @Test
+    @Config(sdk = Build.VERSION_CODES.S)
+    public void renderNodeRectController_steadyStateFrame_allocatesNothing() {
+        BlurOverlayView overlay = new BlurOverlayView(harness.activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        RenderNodeBlurRectController controller = new RenderNodeBlurRectController(overlay, harness.target, 0,
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        BlurOverlayView.BlurRect rect = overlay.new BlurRect(new RectF(40, 60, 240, 200));
+        RenderNode screenNode = new RenderNode("screen");
+        RecordingCanvas canvas = screenNode.beginRecording(WIDTH, HEIGHT);
+
+        assertEquals(0, harness.measure(MEASURED_FRAMES, () -> {
+            controller.setBlurRect(rect);
+            controller.draw(canvas);
+        }).totalBytes);
+        screenNode.endRecording();
+        controller.destroy();
+    }
+
+    /**
+     * Leaves the bitmap as is, the test is about the controller, not the blur itself
+     */
+    private static class NoOpBlur implements BlurAlgorithm {
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        @Override
+        public Bitmap blur(@NonNull Bitmap bitmap, float blurRadius) {
+            return bitmap;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean canModifyBitmap() {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public Bitmap.Config getSupportedBitmapConfig() {
+            return Bitmap.Config.ARGB_8888;
+        }
+
+        @Override
+        public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
+            canvas.drawBitmap(bitmap, 0f, 0f, paint);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BlurBitmapPoolTest {
+    private long originalBudget;
+
+    @Before
+    public void setUp() {
+        originalBudget = BlurMemoryGovernor.getBudgetBytes();
+        BlurBitmapPool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BlurMemoryGovernor.setBudgetBytes(originalBudget);
+        BlurBitmapPool.clear();
+    }
+
+    @Test
+    public void obtain_afterPark_returnsParkedBitmap() {
+        Bitmap parked = Bitmap.createBitmap(64, 32, Bitmap.Config.ARGB_8888);
+        BlurBitmapPool.park(parked);
+
+        assertSame(parked, BlurBitmapPool.obtain(64, 32, Bitmap.Config.ARGB_8888));
+        assertEquals(0, BlurBitmapPool.getBytes());
+    }
+
+    @Test
+    public void obtain_differentSize_allocatesNewBitmap() {
+        Bitmap parked = Bitmap.createBitmap(64, 32, Bitmap.Config.ARGB_8888);
+        BlurBitmapPool.park(parked);
+
+        assertNotSame(parked, BlurBitmapPool.obtain(32, 64, Bitmap.Config.ARGB_8888));
+        assertEquals(BlurMemoryGovernor.bytesOf(parked), BlurBitmapPool.getBytes());
+    }
+
+    @Test
+    public void park_overQuarterOfBudget_dropsOldestFirst() {
+        Bitmap oldest = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        Bitmap newest = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        BlurMemoryGovernor.setBudgetBytes(BlurMemoryGovernor.bytesOf(oldest) * 4);
+
+        BlurBitmapPool.park(oldest);
+        BlurBitmapPool.park(newest);
+
+        assertEquals(BlurMemoryGovernor.bytesOf(newest), BlurBitmapPool.getBytes());
+        assertSame(newest, BlurBitmapPool.obtain(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void trimMemory_clearsPool() {
+        BlurBitmapPool.park(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+
+        BlurMemoryGovernor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertEquals(0, BlurBitmapPool.getBytes());
+    }
+}
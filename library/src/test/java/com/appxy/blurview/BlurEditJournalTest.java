@@ -0,0 +1,219 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.graphics.RectF;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BlurEditJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private BlurEditJournal journal;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "edits.journal");
+        // Writes inline instead of on the background thread
+        journal = new BlurEditJournal(file, Runnable::run);
+    }
+
+    @Test
+    public void replay_appliesEditsInOrder() {
+        journal.add(0, new RectF(10, 10, 110, 60), 0, Float.NaN, "first");
+        journal.add(1, new RectF(200, 200, 300, 300), 15, 8f, null);
+        journal.add(2, new RectF(0, 0, 50, 50), 0, Float.NaN, null);
+        journal.move(0, 40, 70);
+        journal.resize(1, new RectF(190, 190, 310, 330));
+        journal.rotate(1, 45);
+        journal.delete(2);
+        journal.raise(0);
+        journal.setSignData(1, "second");
+        journal.close();
+
+        List<BlurEditJournal.Entry> entries = BlurEditJournal.replay(file);
+
+        assertEquals(2, entries.size());
+        BlurEditJournal.Entry second = entries.get(0);
+        assertEquals(1, second.id);
+        assertEquals(new RectF(190, 190, 310, 330), second.rect);
+        assertEquals(45, second.rotation, 0);
+        assertEquals(8f, second.blurRadius, 0);
+        assertEquals("second", second.signData);
+        BlurEditJournal.Entry first = entries.get(1);
+        assertEquals(new RectF(40, 70, 140, 120), first.rect);
+        assertEquals("first", first.signData);
+        assertTrue(Float.isNaN(first.blurRadius));
+    }
+
+    @Test
+    public void replay_stopsAtTornRecord() throws IOException {
+        journal.add(0, new RectF(10, 10, 110, 60), 0, Float.NaN, null);
+        journal.move(0, 40, 70);
+        journal.close();
+        // Flip a byte of the last record, as if the process died while writing it
+        long moveOffset = 8 + 9 + 32;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(moveOffset + 9);
+            raf.write(raf.read() ^ 0xFF);
+        }
+
+        List<BlurEditJournal.Entry> entries = BlurEditJournal.replay(file);
+
+        assertEquals(1, entries.size());
+        assertEquals(new RectF(10, 10, 110, 60), entries.get(0).rect);
+    }
+
+    @Test
+    public void reopenedJournal_appendsAfterLastRecord() {
+        journal.add(0, new RectF(10, 10, 110, 60), 0, Float.NaN, null);
+        journal.close();
+
+        BlurEditJournal reopened = new BlurEditJournal(file, Runnable::run);
+        reopened.add(1, new RectF(0, 0, 20, 20), 0, Float.NaN, null);
+        reopened.close();
+
+        assertEquals(2, BlurEditJournal.replay(file).size());
+    }
+
+    @Test
+    public void manyEdits_areCompacted() throws IOException {
+        journal.add(0, new RectF(0, 0, 100, 100), 0, Float.NaN, null);
+        // The last move crosses the threshold for the second time
+        for (int i = 0; i < BlurEditJournal.COMPACT_RECORDS * 2; i++) {
+            journal.move(0, i, i);
+        }
+        journal.close();
+
+        List<BlurEditJournal.Entry> entries = BlurEditJournal.replay(file);
+
+        assertEquals(1, entries.size());
+        float last = BlurEditJournal.COMPACT_RECORDS * 2 - 1;
+        assertEquals(new RectF(last, last, last + 100, last + 100), entries.get(0).rect);
+        // Only the single add record is left after the header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(8 + 9 + 32);
+            assertEquals(0, raf.readInt());
+        }
+        assertTrue(!new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void oversizedSignData_isNotWritten() {
+        char[] large = new char[BlurEditJournal.MAX_SIGN_DATA_SIZE + 1];
+        Arrays.fill(large, 'x');
+        journal.add(0, new RectF(10, 10, 110, 60), 0, Float.NaN, "small");
+        journal.setSignData(0, new String(large));
+        journal.add(1, new RectF(0, 0, 20, 20), 0, Float.NaN, new String(large));
+        journal.move(0, 40, 70);
+        journal.close();
+
+        List<BlurEditJournal.Entry> entries = BlurEditJournal.replay(file);
+
+        // The edits after the rejected records are still replayed
+        assertEquals(1, entries.size());
+        assertEquals("small", entries.get(0).signData);
+        assertEquals(new RectF(40, 70, 140, 120), entries.get(0).rect);
+    }
+
+    @Test
+    public void restoreFromJournal_keepsIdsAndOrder() {
+        journal.add(3, new RectF(10, 10, 110, 60), 30, Float.NaN, "a");
+        journal.add(7, new RectF(200, 200, 300, 300), 0, Float.NaN, null);
+        journal.raise(3);
+        journal.close();
+        BlurOverlayView overlay = newOverlay();
+        overlay.setJournalExecutor(Runnable::run);
+        int[] restored = {-1};
+
+        overlay.restoreFromJournal(file, count -> restored[0] = count);
+        shadowOf(Looper.getMainLooper()).idle();
+        overlay.addBlurRect(new RectF(0, 0, 50, 50), 0, null);
+        overlay.closeJournal();
+
+        List<BlurOverlayView.BlurRect> rects = overlay.getBlurRectList();
+        assertEquals(2, restored[0]);
+        assertEquals(7, rects.get(0).getId());
+        assertEquals(3, rects.get(1).getId());
+        assertEquals(30, rects.get(1).getRotate(), 0);
+        assertEquals("a", rects.get(1).getSignData());
+        assertNull(rects.get(0).getSignData());
+        assertEquals(8, rects.get(2).getId());
+        assertEquals(3, BlurEditJournal.replay(file).size());
+    }
+
+    @Test
+    public void restoreFromJournal_readsRecordsStillQueuedByThePreviousJournal() {
+        List<Runnable> queued = new ArrayList<>();
+        BlurOverlayView overlay = newOverlay();
+        overlay.setJournalExecutor(queued::add);
+        overlay.restoreFromJournal(file, null);
+        runAll(queued);
+        overlay.addBlurRect(new RectF(0, 0, 50, 50), 0, null);
+
+        // The add is still queued when the journal is reopened
+        overlay.restoreFromJournal(file, null);
+        runAll(queued);
+        overlay.addBlurRect(new RectF(60, 60, 80, 80), 0, null);
+        overlay.closeJournal();
+        runAll(queued);
+
+        List<BlurOverlayView.BlurRect> rects = overlay.getBlurRectList();
+        assertEquals(2, rects.size());
+        assertEquals(0, rects.get(0).getId());
+        assertEquals(1, rects.get(1).getId());
+        assertEquals(2, BlurEditJournal.replay(file).size());
+    }
+
+    @Test
+    public void closeJournal_dropsPendingRestore() {
+        journal.add(0, new RectF(10, 10, 110, 60), 0, Float.NaN, null);
+        journal.close();
+        BlurOverlayView overlay = newOverlay();
+        overlay.setJournalExecutor(Runnable::run);
+
+        overlay.restoreFromJournal(file, null);
+        overlay.closeJournal();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(overlay.getBlurRectList().isEmpty());
+    }
+
+    private static BlurOverlayView newOverlay() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        return new BlurOverlayView(activity);
+    }
+
+    /**
+     * Runs the queued journal work in order, then delivers the results on the main thread
+     */
+    private static void runAll(List<Runnable> queued) {
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
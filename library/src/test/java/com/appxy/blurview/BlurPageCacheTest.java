@@ -0,0 +1,141 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class BlurPageCacheTest {
+    private static final int VIEW_SIZE = 400;
+
+    private Bitmap page;
+    private BitmapSource source;
+    private BlurPageCache cache;
+    private int builds;
+    private Bitmap screen;
+    private Canvas screenCanvas;
+
+    @Before
+    public void setUp() {
+        page = Bitmap.createBitmap(VIEW_SIZE * 2, VIEW_SIZE * 2, Bitmap.Config.ARGB_8888);
+        page.eraseColor(Color.GREEN);
+        Matrix viewToPage = new Matrix();
+        viewToPage.setScale(2, 2);
+        source = new BitmapSource(page, viewToPage);
+        // Runs the background work inline, the result is still posted to the main looper
+        cache = new BlurPageCache(runnable -> {
+            builds++;
+            runnable.run();
+        });
+        screen = Bitmap.createBitmap(VIEW_SIZE, VIEW_SIZE, Bitmap.Config.ARGB_8888);
+        screenCanvas = new Canvas(screen);
+    }
+
+    @Test
+    public void draw_buildsOnceThenSamplesThePyramid() {
+        assertFalse(draw(20f));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(draw(20f));
+        screenCanvas.translate(35, 60);
+        assertTrue(draw(20f));
+
+        assertEquals(1, builds);
+        assertEquals(Color.GREEN, screen.getPixel(VIEW_SIZE / 2, VIEW_SIZE / 2));
+    }
+
+    @Test
+    public void tileBorders_areSeamless() {
+        // A horizontal gradient, a seam between tiles would show up as a step
+        Paint paint = new Paint();
+        for (int x = 0; x < page.getWidth(); x++) {
+            paint.setColor(Color.rgb(x * 255 / page.getWidth(), 0, 0));
+            new Canvas(page).drawRect(x, 0, x + 1, page.getHeight(), paint);
+        }
+        // Level 0 is as large as the view, 4 tiles across
+        cache.draw(screenCanvas, source, 2f, 1f);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(cache.draw(screenCanvas, source, 2f, 1f));
+
+        int previous = Color.red(screen.getPixel(VIEW_SIZE / 8, VIEW_SIZE / 2));
+        for (int x = VIEW_SIZE / 8 + 1; x < VIEW_SIZE * 7 / 8; x++) {
+            int red = Color.red(screen.getPixel(x, VIEW_SIZE / 2));
+            assertTrue("step at " + x, Math.abs(red - previous) <= 3);
+            previous = red;
+        }
+    }
+
+    @Test
+    public void changedContent_orRadius_buildsAgain() {
+        draw(20f);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        page.eraseColor(Color.BLUE);
+        assertFalse(draw(20f));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(draw(20f));
+        assertFalse(draw(8f));
+
+        assertEquals(3, builds);
+        assertEquals(Color.BLUE, screen.getPixel(VIEW_SIZE / 2, VIEW_SIZE / 2));
+    }
+
+    @Test
+    public void release_dropsPendingResult() {
+        draw(20f);
+        cache.release();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertFalse(draw(20f));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void failedBuild_isRetriedAfterBackoff() {
+        List<Runnable> queued = new ArrayList<>();
+        BlurPageCache queuedCache = new BlurPageCache(queued::add);
+        Bitmap broken = Bitmap.createBitmap(VIEW_SIZE, VIEW_SIZE, Bitmap.Config.ARGB_8888);
+        queuedCache.draw(screenCanvas, new BitmapSource(broken, null), 20f, BlurController.DEFAULT_SCALE_FACTOR);
+        // Recycled before the background task reads it
+        broken.recycle();
+        queued.remove(0).run();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // Still backing off, nothing is queued
+        assertFalse(queuedCache.draw(screenCanvas, source, 20f, BlurController.DEFAULT_SCALE_FACTOR));
+        assertTrue(queued.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+        assertFalse(queuedCache.draw(screenCanvas, source, 20f, BlurController.DEFAULT_SCALE_FACTOR));
+        queued.remove(0).run();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(queuedCache.draw(screenCanvas, source, 20f, BlurController.DEFAULT_SCALE_FACTOR));
+    }
+
+    private boolean draw(float radius) {
+        return cache.draw(screenCanvas, source, radius, BlurController.DEFAULT_SCALE_FACTOR);
+    }
+}
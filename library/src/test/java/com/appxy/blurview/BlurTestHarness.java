@@ -0,0 +1,355 @@
+package com.appxy.blurview;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Builds synthetic {@link BlurTarget} hierarchies and drives frames through the controllers
+ * in Robolectric's NATIVE graphics mode.
+ * <p>
+ * Goldens live in src/test/resources/goldens and are recorded when the tests run with
+ * -Dblurview.recordGoldens=true. None are committed yet, so no test compares with them;
+ * {@link #compareWithGolden} is for the assertions added together with the first recorded goldens.
+ * The CPU time of a frame depends on the machine, frame time budgets are checked on a device
+ * by ControllerFrameBenchmark instead.
+ */
+final class BlurTestHarness {
+    static final int WIDTH = 400;
+    static final int HEIGHT = 800;
+
+    private static final String GOLDEN_DIR = "goldens";
+    private static final String RECORD_PROPERTY = "blurview.recordGoldens";
+    private static final String RECORD_DIR_PROPERTY = "blurview.goldenDir";
+
+    /**
+     * Max difference of a single channel that still counts as the same pixel
+     */
+    private static final int CHANNEL_TOLERANCE = 3;
+    /**
+     * Share of pixels allowed to differ more than {@link #CHANNEL_TOLERANCE}
+     */
+    private static final float MISMATCH_TOLERANCE = 0.005f;
+
+    private static final int WARM_UP_FRAMES = 10;
+
+    final Activity activity;
+    final FrameLayout root;
+    final BlurTarget target;
+
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * @param activity Activity to inflate the views in
+     * @param depth    number of nested layouts inside of the BlurTarget, each one adds a colored stripe
+     */
+    BlurTestHarness(@NonNull Activity activity, int depth) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isCurrentThreadCpuTimeSupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        threadBean.setThreadCpuTimeEnabled(true);
+
+        this.activity = activity;
+        root = new FrameLayout(activity);
+        target = new BlurTarget(activity);
+        target.setBackgroundColor(Color.WHITE);
+        root.addView(target, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+        buildContent(target, depth);
+        activity.setContentView(root);
+    }
+
+    private void buildContent(@NonNull ViewGroup parent, int depth) {
+        ViewGroup container = parent;
+        int stripeHeight = HEIGHT / (depth + 1);
+        for (int level = 0; level < depth; level++) {
+            View stripe = new View(activity);
+            stripe.setBackgroundColor(Color.HSVToColor(new float[]{level * 360f / depth, 0.8f, 0.9f}));
+            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(WIDTH / 2 + level * 20, stripeHeight);
+            params.topMargin = level * stripeHeight / 2;
+            params.leftMargin = level * 10;
+            container.addView(stripe, params);
+
+            FrameLayout next = new FrameLayout(activity);
+            FrameLayout.LayoutParams nextParams = new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+            nextParams.topMargin = stripeHeight / 2;
+            container.addView(next, nextParams);
+            container = next;
+        }
+    }
+
+    void addToRoot(@NonNull View view, int width, int height) {
+        root.addView(view, new ViewGroup.LayoutParams(width, height));
+    }
+
+    void layout() {
+        root.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Runs warm up frames to fill the caches, then measures the given number of frames.
+     */
+    @NonNull
+    FrameStats measure(int frames, @NonNull Runnable frame) {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        // The counter itself may allocate, measure it once without a frame
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+        long[] cpuNanos = new long[frames];
+        start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames; i++) {
+            long cpuStart = threadBean.getCurrentThreadCpuTime();
+            frame.run();
+            cpuNanos[i] = threadBean.getCurrentThreadCpuTime() - cpuStart;
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+        // The timing array is allocated before the loop, reading the clock doesn't allocate
+        Arrays.sort(cpuNanos);
+        return new FrameStats(cpuNanos[frames / 2], allocated / frames, allocated);
+    }
+
+    /**
+     * Records the bitmap as the golden of the given name when recording is enabled, does nothing otherwise.
+     */
+    static void recordGolden(@NonNull String name, @NonNull Bitmap actual) throws IOException {
+        if (!Boolean.getBoolean(RECORD_PROPERTY)) {
+            return;
+        }
+        File dir = new File(System.getProperty(RECORD_DIR_PROPERTY, "src/test/resources/" + GOLDEN_DIR));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dir, name + ".png"))) {
+            actual.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+    }
+
+    /**
+     * Compares the bitmap with the golden of the given name, or records it.
+     *
+     * @return null if the bitmap matches, or the mismatch description
+     */
+    @Nullable
+    static String compareWithGolden(@NonNull String name, @NonNull Bitmap actual) throws IOException {
+        String fileName = name + ".png";
+        if (Boolean.getBoolean(RECORD_PROPERTY)) {
+            recordGolden(name, actual);
+            return null;
+        }
+        InputStream in = BlurTestHarness.class.getClassLoader().getResourceAsStream(GOLDEN_DIR + "/" + fileName);
+        if (in == null) {
+            return "No golden for " + name + ", record it with -D" + RECORD_PROPERTY + "=true";
+        }
+        Bitmap expected;
+        try {
+            expected = BitmapFactory.decodeStream(in);
+        } finally {
+            in.close();
+        }
+        return compare(expected, actual);
+    }
+
+    @Nullable
+    static String compare(@NonNull Bitmap expected, @NonNull Bitmap actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return "Size differs, expected " + expected.getWidth() + "x" + expected.getHeight()
+                    + " but was " + actual.getWidth() + "x" + actual.getHeight();
+        }
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        int[] expectedPixels = new int[width * height];
+        int[] actualPixels = new int[width * height];
+        expected.getPixels(expectedPixels, 0, width, 0, 0, width, height);
+        actual.getPixels(actualPixels, 0, width, 0, 0, width, height);
+
+        int mismatched = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            if (channelDifference(expectedPixels[i], actualPixels[i]) > CHANNEL_TOLERANCE) {
+                mismatched++;
+            }
+        }
+        if (mismatched > expectedPixels.length * MISMATCH_TOLERANCE) {
+            return mismatched + " of " + expectedPixels.length + " pixels differ";
+        }
+        return null;
+    }
+
+    private static int channelDifference(int first, int second) {
+        int max = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int difference = Math.abs(((first >>> shift) & 0xFF) - ((second >>> shift) & 0xFF));
+            max = Math.max(max, difference);
+        }
+        return max;
+    }
+
+    static final class FrameStats {
+        final long medianCpuNanos;
+        final long bytesPerFrame;
+        final long totalBytes;
+
+        FrameStats(long medianCpuNanos, long bytesPerFrame, long totalBytes) {
+            this.medianCpuNanos = medianCpuNanos;
+            this.bytesPerFrame = bytesPerFrame;
+            this.totalBytes = totalBytes;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "FrameStats{" +
+                    "medianCpuNanos=" + medianCpuNanos +
+                    ", bytesPerFrame=" + bytesPerFrame +
+                    ", totalBytes=" + totalBytes +
+                    '}';
+        }
+    }
+
+    /**
+     * Deterministic box blur on the CPU, RenderScript is not available on the JVM.
+     * Doesn't allocate once the buffers for the bitmap size exist.
+     */
+    static final class BoxBlur implements BlurAlgorithm {
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private int[] pixels = new int[0];
+        private int[] buffer = new int[0];
+
+        @Override
+        public Bitmap blur(@NonNull Bitmap bitmap, float blurRadius) {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            if (pixels.length != width * height) {
+                pixels = new int[width * height];
+                buffer = new int[width * height];
+            }
+            int radius = Math.max(1, Math.round(blurRadius));
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            pass(pixels, buffer, width, height, radius, 1, width);
+            pass(buffer, pixels, height, width, radius, width, 1);
+            bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+            return bitmap;
+        }
+
+        /**
+         * Averages {@code length} pixels along one axis for each of the {@code lines} lines
+         */
+        private static void pass(int[] in, int[] out, int length, int lines, int radius, int step, int lineStep) {
+            int window = radius * 2 + 1;
+            for (int line = 0; line < lines; line++) {
+                int offset = line * lineStep;
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int i = -radius; i <= radius; i++) {
+                    int color = in[offset + clamp(i, length) * step];
+                    a += color >>> 24;
+                    r += (color >> 16) & 0xFF;
+                    g += (color >> 8) & 0xFF;
+                    b += color & 0xFF;
+                }
+                for (int i = 0; i < length; i++) {
+                    out[offset + i * step] = (a / window) << 24 | (r / window) << 16 | (g / window) << 8 | (b / window);
+                    int outColor = in[offset + clamp(i - radius, length) * step];
+                    int inColor = in[offset + clamp(i + radius + 1, length) * step];
+                    a += (inColor >>> 24) - (outColor >>> 24);
+                    r += ((inColor >> 16) & 0xFF) - ((outColor >> 16) & 0xFF);
+                    g += ((inColor >> 8) & 0xFF) - ((outColor >> 8) & 0xFF);
+                    b += (inColor & 0xFF) - (outColor & 0xFF);
+                }
+            }
+        }
+
+        private static int clamp(int index, int length) {
+            return Math.max(0, Math.min(length - 1, index));
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean canModifyBitmap() {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public Bitmap.Config getSupportedBitmapConfig() {
+            return Bitmap.Config.ARGB_8888;
+        }
+
+        @Override
+        public float getMaxBlurRadius() {
+            return 25f;
+        }
+
+        @Override
+        public int getStrideAlignment() {
+            return SizeScaler.NO_ALIGNMENT;
+        }
+
+        @Override
+        public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
+            canvas.drawBitmap(bitmap, 0f, 0f, paint);
+        }
+    }
+
+    /**
+     * {@link BoxBlur} that counts its blurs
+     */
+    static final class CountingBlur implements BlurAlgorithm {
+        private final BoxBlur delegate = new BoxBlur();
+        int calls;
+
+        @Override
+        public Bitmap blur(@NonNull Bitmap bitmap, float blurRadius) {
+            calls++;
+            return delegate.blur(bitmap, blurRadius);
+        }
+
+        @Override
+        public void destroy() {
+            delegate.destroy();
+        }
+
+        @Override
+        public boolean canModifyBitmap() {
+            return delegate.canModifyBitmap();
+        }
+
+        @NonNull
+        @Override
+        public Bitmap.Config getSupportedBitmapConfig() {
+            return delegate.getSupportedBitmapConfig();
+        }
+
+        @Override
+        public void render(@NonNull Canvas canvas, @NonNull Bitmap bitmap) {
+            delegate.render(canvas, bitmap);
+        }
+    }
+}
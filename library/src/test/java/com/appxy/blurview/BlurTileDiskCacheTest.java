@@ -0,0 +1,126 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class BlurTileDiskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), BlurTileDiskCache.DIRECTORY);
+    }
+
+    @Test
+    public void write_thenRead_returnsTheSameTiles() {
+        BlurTileDiskCache cache = new BlurTileDiskCache(directory, Long.MAX_VALUE);
+        BlurPageCache.Level[] levels = {level(300, 200, Color.RED), level(150, 100, Color.BLUE)};
+
+        cache.write("page", levels);
+        BlurPageCache.Level[] read = new BlurTileDiskCache(directory, Long.MAX_VALUE).read("page");
+
+        assertNotNull(read);
+        assertEquals(2, read.length);
+        assertEquals(300, read[0].width);
+        assertEquals(levels[0].tiles.length, read[0].tiles.length);
+        Bitmap tile = read[0].tile(2, 1);
+        assertEquals(levels[0].tile(2, 1).getWidth(), tile.getWidth());
+        assertEquals(Color.RED, tile.getPixel(tile.getWidth() - 1, tile.getHeight() - 1));
+        assertEquals(Color.BLUE, read[1].tile(1, 0).getPixel(0, 0));
+    }
+
+    @Test
+    public void keyOf_dependsOnPixelsAndRadius() {
+        BlurTileDiskCache cache = new BlurTileDiskCache(directory, Long.MAX_VALUE);
+        Bitmap base = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        base.eraseColor(Color.GREEN);
+
+        String key = cache.keyOf(base, 4f, 8f, 8f);
+        assertEquals(key, cache.keyOf(base, 4f, 8f, 8f));
+        assertNotEquals(key, cache.keyOf(base, 5f, 8f, 8f));
+        base.setPixel(10, 10, Color.RED);
+        assertNotEquals(key, cache.keyOf(base, 4f, 8f, 8f));
+    }
+
+    @Test
+    public void truncatedFile_isDeleted() throws IOException {
+        BlurTileDiskCache cache = new BlurTileDiskCache(directory, Long.MAX_VALUE);
+        cache.write("page", new BlurPageCache.Level[]{level(300, 200, Color.RED)});
+        File file = new File(directory, "page.tiles");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        assertNull(cache.read("page"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void leftoverTempFile_isDeleted() throws IOException {
+        assertTrue(directory.mkdirs());
+        File temp = new File(directory, "page.tmp");
+        assertTrue(temp.createNewFile());
+
+        assertNull(new BlurTileDiskCache(directory, Long.MAX_VALUE).read("page"));
+
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void overLimit_evictsLeastRecentlyUsed() {
+        BlurPageCache.Level[] levels = {level(100, 100, Color.RED)};
+        long fileSize = 12 + 8 + 100 * 100 * 4;
+        BlurTileDiskCache cache = new BlurTileDiskCache(directory, fileSize * 2);
+        cache.write("first", levels);
+        cache.write("second", levels);
+        new File(directory, "first.tiles").setLastModified(1000);
+        new File(directory, "second.tiles").setLastModified(2000);
+
+        cache.write("third", levels);
+
+        assertFalse(new File(directory, "first.tiles").exists());
+        assertTrue(new File(directory, "second.tiles").exists());
+        assertTrue(new File(directory, "third.tiles").exists());
+    }
+
+    private static BlurPageCache.Level level(int width, int height, int color) {
+        BlurPageCache.Level level = new BlurPageCache.Level(width, height);
+        Rect bounds = new Rect();
+        for (int row = 0; row < level.rows; row++) {
+            for (int column = 0; column < level.columns; column++) {
+                level.tileBounds(column, row, bounds);
+                Bitmap tile = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+                tile.eraseColor(color);
+                level.tiles[row * level.columns + column] = tile;
+            }
+        }
+        return level;
+    }
+}
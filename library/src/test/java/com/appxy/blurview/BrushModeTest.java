@@ -0,0 +1,82 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.MotionEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class BrushModeTest {
+    private static final int MEASURED_MOVES = 50;
+
+    private BlurTestHarness harness;
+    private BlurOverlayView overlay;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new BlurTestHarness(activity, 4);
+        overlay = new BlurOverlayView(activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        overlay.setupWith(harness.target, new BlurTestHarness.BoxBlur(),
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        overlay.setBrushMode(true);
+    }
+
+    @After
+    public void tearDown() {
+        overlay.clearBrushStrokes();
+    }
+
+    @Test
+    public void stroke_coversOnlyThePaintedArea() {
+        stroke(100, 100, 200, 100);
+        Bitmap output = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        overlay.draw(new Canvas(output));
+
+        assertEquals(1, overlay.getBrushStrokes().size());
+        assertNotEquals(0, Color.alpha(output.getPixel(150, 100)));
+        assertEquals(0, Color.alpha(output.getPixel(150, 300)));
+    }
+
+    @Test
+    public void move_afterManyStrokes_allocatesNothing() {
+        for (int i = 0; i < 50; i++) {
+            stroke(20 + i * 7, 400, 40 + i * 7, 420);
+        }
+        MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, 100, 100, 0);
+        MotionEvent right = MotionEvent.obtain(0, 0, MotionEvent.ACTION_MOVE, 110, 100, 0);
+        MotionEvent left = MotionEvent.obtain(0, 0, MotionEvent.ACTION_MOVE, 100, 100, 0);
+        overlay.onTouchEvent(down);
+        boolean[] toggle = new boolean[1];
+
+        assertEquals(0, harness.measure(MEASURED_MOVES, () -> {
+            toggle[0] = !toggle[0];
+            overlay.onTouchEvent(toggle[0] ? right : left);
+        }).totalBytes);
+    }
+
+    private void stroke(float fromX, float fromY, float toX, float toY) {
+        overlay.onTouchEvent(MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, fromX, fromY, 0));
+        overlay.onTouchEvent(MotionEvent.obtain(0, 0, MotionEvent.ACTION_MOVE, toX, toY, 0));
+        overlay.onTouchEvent(MotionEvent.obtain(0, 0, MotionEvent.ACTION_UP, toX, toY, 0));
+    }
+}
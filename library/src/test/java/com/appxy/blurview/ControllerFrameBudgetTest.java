@@ -0,0 +1,171 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Drives frames through every controller over BlurTarget hierarchies of different depth
+ * and checks the per-frame allocation budgets. The output is recorded as goldens with
+ * -Dblurview.recordGoldens=true, the pixel assertions are added once the goldens are committed.
+ * <p>
+ * Allocations don't depend on the machine running the tests, CPU time does. The frame time budgets
+ * are checked on a device by ControllerFrameBenchmark.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ControllerFrameBudgetTest {
+    private static final int FRAMES = 30;
+    private static final float BLUR_RADIUS = 16f;
+
+    /**
+     * The overlay iterates its rect list and draws the selection handles, nothing per rect is allowed to allocate
+     */
+    private static final long OVERLAY_BYTES_PER_FRAME = 64;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "depth={0}")
+    public static Collection<Object[]> depths() {
+        return Arrays.asList(new Object[][]{{1}, {4}, {12}});
+    }
+
+    private final int depth;
+    private BlurTestHarness harness;
+    private Bitmap screen;
+    private Canvas screenCanvas;
+
+    public ControllerFrameBudgetTest(int depth) {
+        this.depth = depth;
+    }
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new BlurTestHarness(activity, depth);
+        screen = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        screenCanvas = new Canvas(screen);
+    }
+
+    @Test
+    public void preDrawController() throws IOException {
+        View blurView = new View(harness.activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 2);
+        harness.layout();
+        PreDrawBlurController controller = new PreDrawBlurController(blurView, harness.target, 0,
+                new BlurTestHarness.BoxBlur(), BlurController.DEFAULT_SCALE_FACTOR, BLUR_RADIUS, false);
+
+        BlurTestHarness.FrameStats stats = harness.measure(FRAMES, () -> {
+            screen.eraseColor(Color.TRANSPARENT);
+            controller.updateBlur();
+            controller.draw(screenCanvas);
+        });
+        controller.destroy();
+
+        assertBudget(stats, 0);
+        recordGolden("pre_draw");
+    }
+
+    @Test
+    public void rectController() throws IOException {
+        View overlay = new BlurOverlayView(harness.activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        BlurRectController controller = new BlurRectController(overlay, harness.target, 0,
+                new BlurTestHarness.BoxBlur(), BlurController.DEFAULT_SCALE_FACTOR, BLUR_RADIUS, false);
+        BlurOverlayView.BlurRect rect = ((BlurOverlayView) overlay).new BlurRect(new RectF(40, 60, 300, 420));
+        rect.setRotation(15);
+
+        BlurTestHarness.FrameStats stats = harness.measure(FRAMES, () -> {
+            screen.eraseColor(Color.TRANSPARENT);
+            controller.setBlurRect(rect);
+            controller.draw(screenCanvas);
+        });
+        controller.destroy();
+
+        assertBudget(stats, 0);
+        recordGolden("rect");
+    }
+
+    @Test
+    public void overlayView() throws IOException {
+        BlurOverlayView overlay = new BlurOverlayView(harness.activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        overlay.setupWith(harness.target, new BlurTestHarness.BoxBlur(), BlurController.DEFAULT_SCALE_FACTOR,
+                BLUR_RADIUS, false);
+        overlay.addBlurRect(new RectF(40, 60, 300, 420), 0, null);
+        overlay.addBlurRect(new RectF(100, 500, 360, 700), 30, null);
+
+        BlurTestHarness.FrameStats stats = harness.measure(FRAMES, () -> {
+            screen.eraseColor(Color.TRANSPARENT);
+            overlay.draw(screenCanvas);
+        });
+
+        assertBudget(stats, OVERLAY_BYTES_PER_FRAME);
+        recordGolden("overlay");
+    }
+
+    /**
+     * RenderNodeBlurController falls back to RenderScript when it's not drawn on a hardware canvas,
+     * which is always the case here. Skipped where RenderScript can't be created.
+     */
+    @Test
+    @Config(sdk = 31)
+    public void renderNodeController() throws IOException {
+        View blurView = new View(harness.activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 2);
+        harness.layout();
+        RenderNodeBlurController controller = new RenderNodeBlurController(blurView, harness.target, 0,
+                BlurController.DEFAULT_SCALE_FACTOR, BLUR_RADIUS, false);
+        try {
+            controller.draw(screenCanvas);
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            assumeNoException("RenderScript is not available", e);
+        }
+
+        BlurTestHarness.FrameStats stats = harness.measure(FRAMES, () -> {
+            screen.eraseColor(Color.TRANSPARENT);
+            controller.draw(screenCanvas);
+        });
+        controller.destroy();
+
+        assertBudget(stats, 0);
+        recordGolden("render_node");
+    }
+
+    private void assertBudget(@NonNull BlurTestHarness.FrameStats stats, long bytesPerFrame) {
+        if (bytesPerFrame == 0) {
+            assertEquals("Frames allocated: " + stats, 0, stats.totalBytes);
+        } else {
+            assertTrue("Frames allocated over " + bytesPerFrame + " bytes per frame: " + stats,
+                    stats.bytesPerFrame <= bytesPerFrame);
+        }
+    }
+
+    private void recordGolden(@NonNull String name) throws IOException {
+        BlurTestHarness.recordGolden(name + "_depth" + depth, screen);
+    }
+}
@@ -0,0 +1,98 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RectCoalescingTest {
+    private BlurOverlayView overlay;
+    private BlurTestHarness.CountingBlur algorithm;
+    private Canvas screenCanvas;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        BlurTestHarness harness = new BlurTestHarness(activity, 4);
+        overlay = new BlurOverlayView(activity);
+        harness.addToRoot(overlay, WIDTH, HEIGHT);
+        harness.layout();
+        algorithm = new BlurTestHarness.CountingBlur();
+        overlay.setupWith(harness.target, algorithm,
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        screenCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void overlappingRects_areBlurredOnce() {
+        overlay.addBlurRect(new RectF(40, 60, 240, 200), 0, null);
+        overlay.addBlurRect(new RectF(100, 120, 300, 260), 15, null);
+        overlay.addBlurRect(new RectF(280, 240, 380, 300), 0, null);
+
+        int blurs = blursPerFrame();
+
+        List<BlurOverlayView.BlurRect> rects = overlay.getBlurRectList();
+        assertEquals(1, blurs);
+        assertNotNull(rects.get(0).cluster);
+        assertSame(rects.get(0).cluster, rects.get(1).cluster);
+        assertSame(rects.get(0).cluster, rects.get(2).cluster);
+    }
+
+    @Test
+    public void disjointRects_areBlurredSeparately() {
+        overlay.addBlurRect(new RectF(40, 60, 140, 160), 0, null);
+        overlay.addBlurRect(new RectF(40, 400, 140, 500), 0, null);
+
+        assertEquals(2, blursPerFrame());
+        assertNull(overlay.getBlurRectList().get(0).cluster);
+    }
+
+    @Test
+    public void rectWithOwnRadius_isNotCoalesced() {
+        overlay.addBlurRect(new RectF(40, 60, 240, 200), 0, null);
+        overlay.addBlurRect(new RectF(100, 120, 300, 260), 0, null);
+        overlay.getBlurRectList().get(1).setBlurRadius(4f);
+
+        assertEquals(2, blursPerFrame());
+    }
+
+    @Test
+    public void occludedRect_isSkipped() {
+        overlay.addBlurRect(new RectF(100, 100, 150, 150), 30, null);
+        overlay.addBlurRect(new RectF(40, 40, 240, 240), 0, null);
+
+        int blurs = blursPerFrame();
+
+        assertTrue(overlay.getBlurRectList().get(0).occluded);
+        assertEquals(1, blurs);
+    }
+
+    private int blursPerFrame() {
+        // The first frame creates the bitmaps
+        overlay.draw(screenCanvas);
+        algorithm.calls = 0;
+        overlay.draw(screenCanvas);
+        return algorithm.calls;
+    }
+}
@@ -0,0 +1,84 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RecursiveGaussianBlurTest {
+    private static final int SIZE = 200;
+
+    @Test
+    public void blur_uniformColor_staysTheSame() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xFF336699);
+
+        new RecursiveGaussianBlur(1).blur(bitmap, 37.5f);
+
+        assertEquals(0xFF336699, bitmap.getPixel(0, 0));
+        assertEquals(0xFF336699, bitmap.getPixel(SIZE / 2, SIZE / 2));
+        assertEquals(0xFF336699, bitmap.getPixel(SIZE - 1, SIZE - 1));
+    }
+
+    @Test
+    public void blur_whiteBlock_spreadsSymmetrically() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLACK);
+        // A white block rather than a single pixel, so that the spread stays above the 8 bit rounding
+        for (int y = SIZE / 2 - 5; y <= SIZE / 2 + 5; y++) {
+            for (int x = SIZE / 2 - 5; x <= SIZE / 2 + 5; x++) {
+                bitmap.setPixel(x, y, Color.WHITE);
+            }
+        }
+
+        new RecursiveGaussianBlur(1).blur(bitmap, 10f);
+
+        int center = Color.red(bitmap.getPixel(SIZE / 2, SIZE / 2));
+        int left = Color.red(bitmap.getPixel(SIZE / 2 - 10, SIZE / 2));
+        int right = Color.red(bitmap.getPixel(SIZE / 2 + 10, SIZE / 2));
+        int top = Color.red(bitmap.getPixel(SIZE / 2, SIZE / 2 - 10));
+        assertTrue(center > left && left > 0);
+        assertEquals(left, right, 1);
+        assertEquals(left, top, 1);
+    }
+
+    @Test
+    public void blur_parallel_matchesSingleThreaded() {
+        Bitmap sequential = stripes();
+        Bitmap parallel = stripes();
+
+        new RecursiveGaussianBlur(1).blur(sequential, 12.3f);
+        RecursiveGaussianBlur blur = new RecursiveGaussianBlur(4);
+        blur.blur(parallel, 12.3f);
+        blur.destroy();
+
+        assertArrayEquals(pixelsOf(sequential), pixelsOf(parallel));
+    }
+
+    private static Bitmap stripes() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                bitmap.setPixel(x, y, (x / 10 + y / 10) % 2 == 0 ? Color.RED : Color.BLUE);
+            }
+        }
+        return bitmap;
+    }
+
+    private static int[] pixelsOf(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+}
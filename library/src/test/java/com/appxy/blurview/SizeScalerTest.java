@@ -0,0 +1,73 @@
+package com.appxy.blurview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.params.provider.Arguments.of;
+
+import androidx.annotation.NonNull;
+
+import com.appxy.blurview.SizeScaler.Size;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+class SizeScalerTest {
+    private static final float scalingFactor = 8f;
+
+    @ParameterizedTest
+    @MethodSource("scalingResults")
+    void scales_width_to_the_stride_alignment(int alignment, int x, int y, Size expected) {
+        SizeScaler scaler = new SizeScaler(scalingFactor, alignment);
+        assertEquals(expected, scaler.scale(x, y));
+    }
+
+    @Test
+    void legacy_constructors_keep_their_alignment() {
+        assertEquals(new SizeScaler(scalingFactor, SizeScaler.ROUNDING_VALUE).scale(200, 140),
+                new SizeScaler(scalingFactor).scale(200, 140));
+        assertEquals(new SizeScaler(scalingFactor, SizeScaler.NO_ALIGNMENT).scale(200, 140),
+                new SizeScaler(scalingFactor, true).scale(200, 140));
+    }
+
+    @Test
+    void rejects_non_positive_alignment() {
+        assertThrows(IllegalArgumentException.class, () -> new SizeScaler(scalingFactor, 0));
+    }
+
+    @SuppressWarnings("unused")
+    private static Stream<Arguments> scalingResults() {
+        return Stream.of(
+                // no padding, the size is only divided by the scale factor
+                of(SizeScaler.NO_ALIGNMENT, 64, 64, size(8, 8)),
+                of(SizeScaler.NO_ALIGNMENT, 7, 7, size(1, 1)),
+                of(SizeScaler.NO_ALIGNMENT, 1000, 256, size(125, 32)),
+                of(SizeScaler.NO_ALIGNMENT, 907, 203, size(114, 26)),
+                of(SizeScaler.NO_ALIGNMENT, 200, 140, size(25, 18)),
+                // 4
+                of(4, 64, 64, size(8, 8)),
+                of(4, 7, 7, size(4, 4)),
+                of(4, 1000, 256, size(128, 33)),
+                of(4, 907, 203, size(116, 26)),
+                of(4, 200, 140, size(28, 20)),
+                // 16, RenderScript on most devices
+                of(16, 64, 64, size(16, 16)),
+                of(16, 1080, 104, size(144, 14)),
+                of(16, 907, 203, size(128, 29)),
+                of(16, 200, 140, size(32, 23)),
+                // 64, RenderScript on Samsung devices, more than doubles the pixel count of a small rect
+                of(SizeScaler.ROUNDING_VALUE, 7, 7, size(64, 64)),
+                of(SizeScaler.ROUNDING_VALUE, 1080, 104, size(192, 19)),
+                of(SizeScaler.ROUNDING_VALUE, 907, 203, size(128, 29)),
+                of(SizeScaler.ROUNDING_VALUE, 200, 140, size(64, 45))
+        );
+    }
+
+    @NonNull
+    private static Size size(int x, int y) {
+        return new Size(x, y);
+    }
+}
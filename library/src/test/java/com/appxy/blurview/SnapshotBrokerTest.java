@@ -0,0 +1,87 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.time.Duration;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SnapshotBrokerTest {
+    private static final int SIZE = 160;
+
+    private CountingView child;
+    private SnapshotBroker broker;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        BlurTarget target = new BlurTarget(activity);
+        child = new CountingView(activity);
+        child.setBackgroundColor(Color.RED);
+        target.addView(child, new FrameLayout.LayoutParams(SIZE, SIZE));
+        activity.setContentView(target, new ViewGroup.LayoutParams(SIZE, SIZE));
+        target.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        target.layout(0, 0, SIZE, SIZE);
+        broker = target.getSnapshotBroker();
+        broker.subscribe(this, 4f);
+        // Frames run by setup() must not count
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        child.draws = 0;
+    }
+
+    @Test
+    public void capture_isSharedWithinAFrame() {
+        Bitmap first = broker.capture();
+        Bitmap second = broker.capture();
+
+        assertSame(first, second);
+        assertEquals(1, child.draws);
+    }
+
+    @Test
+    public void capture_isTakenAgainInTheNextFrame() {
+        broker.capture();
+        // The frame callback clears the token before the next traversal
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+
+        broker.capture();
+
+        assertEquals(2, child.draws);
+    }
+
+    private static class CountingView extends View {
+        int draws;
+
+        CountingView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            draws++;
+            super.draw(canvas);
+        }
+    }
+}
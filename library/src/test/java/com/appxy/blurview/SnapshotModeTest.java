@@ -0,0 +1,124 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SnapshotModeTest {
+    private static final int SIZE = 160;
+
+    private BlurTarget target;
+    private CountingView child;
+    private Bitmap snapshot;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        target = new BlurTarget(activity);
+        target.setBackgroundColor(Color.WHITE);
+        child = new CountingView(activity);
+        child.setBackgroundColor(Color.RED);
+        target.addView(child, new FrameLayout.LayoutParams(SIZE / 2, SIZE));
+        activity.setContentView(target, new ViewGroup.LayoutParams(SIZE, SIZE));
+        target.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        target.layout(0, 0, SIZE, SIZE);
+        snapshot = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void excludedChild_isOnlyLeftOutOfSnapshots() {
+        target.setSnapshotMode(child, BlurTarget.SnapshotMode.EXCLUDE);
+
+        target.draw(new BlurViewCanvas(snapshot));
+        assertEquals(Color.WHITE, snapshot.getPixel(SIZE / 4, SIZE / 2));
+
+        target.draw(new Canvas(snapshot));
+        assertEquals(Color.RED, snapshot.getPixel(SIZE / 4, SIZE / 2));
+    }
+
+    @Test
+    public void colorProxy_followsInvalidatedChild() {
+        target.setSnapshotMode(child, BlurTarget.SnapshotMode.PROXY_COLOR);
+
+        target.draw(new BlurViewCanvas(snapshot));
+        assertEquals(Color.RED, snapshot.getPixel(SIZE / 4, SIZE / 2));
+        assertEquals(Color.WHITE, snapshot.getPixel(SIZE * 3 / 4, SIZE / 2));
+
+        child.setBackgroundColor(Color.BLUE);
+        target.draw(new BlurViewCanvas(snapshot));
+        assertEquals(Color.BLUE, snapshot.getPixel(SIZE / 4, SIZE / 2));
+    }
+
+    @Test
+    public void bitmapProxy_drawsChildOnlyOnce() {
+        target.setSnapshotMode(child, BlurTarget.SnapshotMode.PROXY_BITMAP);
+        BlurViewCanvas canvas = new BlurViewCanvas(snapshot);
+
+        for (int i = 0; i < 5; i++) {
+            target.draw(canvas);
+        }
+
+        assertEquals(1, child.draws);
+        assertEquals(Color.RED, snapshot.getPixel(SIZE / 4, SIZE / 2));
+    }
+
+    @Test
+    public void bitmapProxy_awayFromOrigin_isRedrawnWhenInvalidated() {
+        CountingView right = new CountingView(target.getContext());
+        right.setBackgroundColor(Color.GREEN);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(SIZE / 2, SIZE);
+        params.leftMargin = SIZE / 2;
+        target.addView(right, params);
+        target.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        target.layout(0, 0, SIZE, SIZE);
+        target.setSnapshotMode(child, BlurTarget.SnapshotMode.PROXY_BITMAP);
+        target.setSnapshotMode(right, BlurTarget.SnapshotMode.PROXY_BITMAP);
+        // A regular draw first, views that were never drawn skip invalidation
+        target.draw(new Canvas(snapshot));
+        BlurViewCanvas canvas = new BlurViewCanvas(snapshot);
+        target.draw(canvas);
+        child.draws = 0;
+        right.draws = 0;
+
+        right.setBackgroundColor(Color.BLUE);
+        target.draw(canvas);
+
+        assertEquals(0, child.draws);
+        assertEquals(1, right.draws);
+        assertEquals(Color.BLUE, snapshot.getPixel(SIZE * 3 / 4, SIZE / 2));
+    }
+
+    private static class CountingView extends View {
+        int draws;
+
+        CountingView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            draws++;
+            super.draw(canvas);
+        }
+    }
+}
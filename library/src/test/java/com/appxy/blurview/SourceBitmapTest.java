@@ -0,0 +1,94 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SourceBitmapTest {
+    private BlurTestHarness harness;
+    private BlurTestHarness.CountingBlur algorithm;
+    private PreDrawBlurController controller;
+    private Bitmap source;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new BlurTestHarness(activity, 0);
+        View blurView = new View(activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 2);
+        harness.layout();
+        algorithm = new BlurTestHarness.CountingBlur();
+        controller = new PreDrawBlurController(blurView, harness.target, 0, algorithm,
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+        source = Bitmap.createBitmap(WIDTH * 2, HEIGHT, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.GREEN);
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void unchangedSource_isBlurredOnce() {
+        controller.setSourceBitmap(source, null);
+
+        for (int i = 0; i < 5; i++) {
+            preDraw();
+        }
+
+        assertEquals(1, algorithm.calls);
+    }
+
+    @Test
+    public void changedMatrixOrContent_isBlurredAgain() {
+        controller.setSourceBitmap(source, null);
+        preDraw();
+
+        Matrix matrix = new Matrix();
+        matrix.setScale(2, 2);
+        controller.setSourceBitmap(source, matrix);
+        preDraw();
+        preDraw();
+        source.eraseColor(Color.BLUE);
+        preDraw();
+
+        assertEquals(3, algorithm.calls);
+    }
+
+    @Test
+    public void blurredView_showsSourceInsteadOfTarget() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(2, 2);
+        controller.setSourceBitmap(source, matrix);
+        preDraw();
+        Bitmap screen = Bitmap.createBitmap(WIDTH, HEIGHT / 2, Bitmap.Config.ARGB_8888);
+
+        controller.draw(new Canvas(screen));
+
+        assertEquals(Color.GREEN, screen.getPixel(WIDTH / 2, HEIGHT / 4));
+    }
+
+    private void preDraw() {
+        harness.target.getViewTreeObserver().dispatchOnPreDraw();
+    }
+}
@@ -0,0 +1,93 @@
+package com.appxy.blurview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SummedAreaTableBlurTest {
+    private static final int SIZE = 200;
+
+    @Test
+    public void blur_uniformColor_staysTheSame() {
+        SummedAreaTableBlur blur = new SummedAreaTableBlur();
+        blur.prepareSnapshot(SIZE, SIZE).drawColor(0xFF336699);
+        blur.build(1, 1f);
+
+        Bitmap output = blur.blur(new RectF(20, 30, 120, 80), 37.5f);
+
+        Rect bounds = blur.getOutputBounds();
+        assertEquals(new Rect(20, 30, 120, 80), blur.getRegion());
+        assertEquals(0xFF336699, output.getPixel(bounds.left, bounds.top));
+        assertEquals(0xFF336699, output.getPixel(bounds.centerX(), bounds.centerY()));
+        assertEquals(0xFF336699, output.getPixel(bounds.right - 1, bounds.bottom - 1));
+    }
+
+    @Test
+    public void blur_whiteBlock_spreadsSymmetrically() {
+        SummedAreaTableBlur blur = new SummedAreaTableBlur();
+        BlurViewCanvas canvas = blur.prepareSnapshot(SIZE, SIZE);
+        canvas.drawColor(Color.BLACK);
+        Paint white = new Paint();
+        white.setColor(Color.WHITE);
+        canvas.drawRect(SIZE / 2 - 5, SIZE / 2 - 5, SIZE / 2 + 6, SIZE / 2 + 6, white);
+        blur.build(1, 1f);
+
+        Bitmap output = blur.blur(new RectF(0, 0, SIZE, SIZE), 10f);
+
+        int center = Color.red(output.getPixel(SIZE / 2, SIZE / 2));
+        int left = Color.red(output.getPixel(SIZE / 2 - 10, SIZE / 2));
+        int right = Color.red(output.getPixel(SIZE / 2 + 10, SIZE / 2));
+        int top = Color.red(output.getPixel(SIZE / 2, SIZE / 2 - 10));
+        assertTrue(center > left && left > 0);
+        assertEquals(left, right, 1);
+        assertEquals(left, top, 1);
+    }
+
+    @Test
+    public void blur_subRegion_matchesWholeSnapshot() {
+        SummedAreaTableBlur blur = new SummedAreaTableBlur();
+        BlurViewCanvas canvas = blur.prepareSnapshot(SIZE, SIZE);
+        Paint paint = new Paint();
+        for (int i = 0; i < SIZE / 10; i++) {
+            paint.setColor(i % 2 == 0 ? Color.RED : Color.BLUE);
+            canvas.drawRect(i * 10, 0, i * 10 + 10, SIZE, paint);
+        }
+        blur.build(1, 1f);
+
+        int whole = blur.blur(new RectF(0, 0, SIZE, SIZE), 12f).getPixel(105, 100);
+        Bitmap part = blur.blur(new RectF(90, 90, 130, 110), 12f);
+        Rect bounds = blur.getOutputBounds();
+
+        assertEquals(whole, part.getPixel(bounds.left + 15, bounds.top + 10));
+    }
+
+    @Test
+    public void isValid_changesWithGenerationAndScale() {
+        SummedAreaTableBlur blur = new SummedAreaTableBlur();
+        blur.prepareSnapshot(SIZE, SIZE);
+        blur.build(3, 4f);
+
+        assertTrue(blur.isValid(3, SIZE, SIZE, 4f));
+        assertTrue(!blur.isValid(4, SIZE, SIZE, 4f));
+        assertTrue(!blur.isValid(3, SIZE, SIZE, 8f));
+
+        blur.release();
+        assertTrue(!blur.isValid(3, SIZE, SIZE, 4f));
+        assertNull(blur.blur(new RectF(0, 0, SIZE, SIZE), 4f));
+    }
+}
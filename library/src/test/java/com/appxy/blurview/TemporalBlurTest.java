@@ -0,0 +1,79 @@
+package com.appxy.blurview;
+
+import static com.appxy.blurview.BlurTestHarness.HEIGHT;
+import static com.appxy.blurview.BlurTestHarness.WIDTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TemporalBlurTest {
+    private BlurTestHarness harness;
+    private BlurTestHarness.CountingBlur algorithm;
+    private PreDrawBlurController controller;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new BlurTestHarness(activity, 0);
+        View blurView = new View(activity);
+        harness.addToRoot(blurView, WIDTH, HEIGHT / 2);
+        harness.layout();
+        algorithm = new BlurTestHarness.CountingBlur();
+        controller = new PreDrawBlurController(blurView, harness.target, 0, algorithm,
+                BlurController.DEFAULT_SCALE_FACTOR, BlurController.DEFAULT_BLUR_RADIUS, false);
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void temporalBlur_blursEveryNthFrame() {
+        controller.setTemporalBlur(4);
+
+        for (int i = 0; i < 12; i++) {
+            preDraw();
+        }
+
+        assertEquals(3, algorithm.calls);
+    }
+
+    @Test
+    public void temporalBlur_crossFadesBetweenBlurs() {
+        controller.setTemporalBlur(3);
+        harness.target.setBackgroundColor(Color.RED);
+        preDraw();
+        harness.target.setBackgroundColor(Color.BLUE);
+        for (int i = 0; i < 3; i++) {
+            preDraw();
+        }
+        Bitmap screen = Bitmap.createBitmap(WIDTH, HEIGHT / 2, Bitmap.Config.ARGB_8888);
+
+        controller.draw(new Canvas(screen));
+
+        int pixel = screen.getPixel(WIDTH / 2, HEIGHT / 4);
+        assertTrue(Integer.toHexString(pixel), Color.red(pixel) > 64 && Color.blue(pixel) > 64);
+    }
+
+    private void preDraw() {
+        harness.target.getViewTreeObserver().dispatchOnPreDraw();
+    }
+}